@@ -0,0 +1,23 @@
+import json
+import os
+
+import numpy as np
+import pandas as pd
+
+
+def read_table(directory, table):
+    """Load a table written by the simulator with the COLUMNAR output sink."""
+    table_dir = os.path.join(directory, table)
+    with open(os.path.join(table_dir, 'schema.json')) as f:
+        schema = json.load(f)
+
+    rows = schema['rows']
+    columns = {}
+    for column in schema['columns']:
+        name = column['name']
+        if column['type'] == 'json':
+            with open(os.path.join(table_dir, name + '.jsonl')) as f:
+                columns[name] = [json.loads(line) for _, line in zip(range(rows), f)]
+        else:
+            columns[name] = np.fromfile(os.path.join(table_dir, name + '.bin'), dtype=column['type'], count=rows)
+    return pd.DataFrame(columns)
@@ -0,0 +1,67 @@
+package net.consensys.wittgenstein.core;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import net.consensys.wittgenstein.core.geoinfo.GeoAWS;
+import net.consensys.wittgenstein.core.geoinfo.GeoAllCities;
+import net.consensys.wittgenstein.tools.LatencyDataset;
+import org.openjdk.jmh.annotations.*;
+
+/** Cost of a single call to getLatency, for each latency model, on random pairs of nodes. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkLatencyBenchmark {
+  private static final int PAIRS = 4096;
+
+  @Param({
+    "NetworkNoLatency",
+    "NetworkLatencyByDistanceWJitter",
+    "IC3NetworkLatency",
+    "EthScanNetworkLatency",
+    "AwsRegionNetworkLatency",
+    "NetworkLatencyByCity",
+    "NetworkLatencyByCityWJitter"
+  })
+  String latency;
+
+  private NetworkLatency nl;
+  private final Node[] from = new Node[PAIRS];
+  private final Node[] to = new Node[PAIRS];
+  private int pos = 0;
+
+  @Setup
+  public void setup() {
+    nl = RegistryNetworkLatencies.singleton.getByName(latency);
+
+    NodeBuilder nb;
+    if (nl instanceof NetworkLatency.AwsRegionNetworkLatency) {
+      nb =
+          new NodeBuilder.NodeBuilderWithCity(
+              NetworkLatency.AwsRegionNetworkLatency.cities(), new GeoAWS());
+    } else if (nl instanceof NetworkLatency.NetworkLatencyByCity) {
+      nb = new NodeBuilder.NodeBuilderWithCity(LatencyDataset.get().cities(), new GeoAllCities());
+    } else {
+      nb = new NodeBuilder.NodeBuilderWithRandomPosition();
+    }
+
+    Random rd = new Random(0);
+    Node[] nodes = new Node[1024];
+    for (int i = 0; i < nodes.length; i++) {
+      nodes[i] = new Node(rd, nb);
+    }
+    for (int i = 0; i < PAIRS; i++) {
+      from[i] = nodes[rd.nextInt(nodes.length)];
+      to[i] = nodes[rd.nextInt(nodes.length)];
+    }
+  }
+
+  @Benchmark
+  public int getLatency() {
+    int i = pos++ & (PAIRS - 1);
+    return nl.getLatency(from[i], to[i], i % 100);
+  }
+}
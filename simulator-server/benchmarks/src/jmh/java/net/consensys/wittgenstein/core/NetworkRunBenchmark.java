@@ -0,0 +1,84 @@
+package net.consensys.wittgenstein.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import net.consensys.wittgenstein.core.messages.Message;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Simulated seconds per wall clock second, with 1000 nodes:
+ *
+ * <ul>
+ *   <li>dense: every millisecond 10 nodes send a message to 20 other nodes.
+ *   <li>sparse: a node sends a message to all the nodes every 400ms, as in the slot based
+ *       protocols. Most of the simulated milliseconds are empty.
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkRunBenchmark {
+  private static final int NODES = 1000;
+
+  @Param({"dense", "sparse"})
+  String traffic;
+
+  @Param({"RECOMPUTE", "CACHED"})
+  Network.EnvelopeStrategy envelopeStrategy;
+
+  private Network<Node> network;
+
+  @Setup
+  public void setup() {
+    network = new Network<>();
+    network.setNetworkLatency(new NetworkLatency.NetworkLatencyByDistanceWJitter());
+    network.setEnvelopeStrategy(envelopeStrategy);
+    NodeBuilder nb = new NodeBuilder.NodeBuilderWithRandomPosition();
+    for (int i = 0; i < NODES; i++) {
+      network.addNode(new Node(network.rd, nb));
+    }
+
+    Message<Node> msg =
+        new Message<>() {
+          @Override
+          public void action(Network<Node> network, Node from, Node to) {}
+        };
+    Node n0 = network.getNodeById(0);
+
+    if ("dense".equals(traffic)) {
+      // Precalculated, so we measure the network and not the generation of the traffic.
+      Random rd = new Random(0);
+      List<List<Node>> dests = new ArrayList<>();
+      for (int i = 0; i < 64; i++) {
+        List<Node> d = new ArrayList<>();
+        for (int j = 0; j < 20; j++) {
+          d.add(network.getNodeById(rd.nextInt(NODES)));
+        }
+        dests.add(d);
+      }
+      network.registerPeriodicTask(
+          () -> {
+            for (int i = 0; i < 10; i++) {
+              int r = rd.nextInt(NODES);
+              network.send(msg, network.getNodeById(r), dests.get(r & 63));
+            }
+          },
+          1,
+          1,
+          n0);
+    } else {
+      network.registerPeriodicTask(() -> network.sendAll(msg, n0), 1, 400, n0);
+    }
+  }
+
+  @Benchmark
+  public int runOneSecond() {
+    network.runMs(1000);
+    return network.time;
+  }
+}
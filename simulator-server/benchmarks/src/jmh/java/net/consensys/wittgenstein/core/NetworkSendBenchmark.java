@@ -0,0 +1,80 @@
+package net.consensys.wittgenstein.core;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.consensys.wittgenstein.core.messages.Message;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of sending a message to 1, 100, 10k or 100k destinations: calculating the latencies, sorting
+ * the destinations and queueing the envelope. The envelope is removed from the queue right after.
+ * sendAll sends to the destCount + 1 nodes of the network. The 'AndDeliver' versions run the
+ * network until all the destinations got the message, so they include the memory allocated by the
+ * envelope while it's read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkSendBenchmark {
+  @Param({"1", "100", "10000", "100000"})
+  int destCount;
+
+  @Param({"RECOMPUTE", "CACHED"})
+  Network.EnvelopeStrategy envelopeStrategy;
+
+  private Network<Node> network;
+  private Node from;
+  private List<Node> dests;
+  private final Message<Node> msg =
+      new Message<>() {
+        @Override
+        public void action(Network<Node> network, Node from, Node to) {}
+      };
+
+  @Setup
+  public void setup() {
+    network = new Network<>();
+    network.setNetworkLatency(new NetworkLatency.NetworkLatencyByDistanceWJitter());
+    network.setEnvelopeStrategy(envelopeStrategy);
+    NodeBuilder nb = new NodeBuilder.NodeBuilderWithRandomPosition();
+    for (int i = 0; i <= destCount; i++) {
+      network.addNode(new Node(network.rd, nb));
+    }
+    from = network.getNodeById(0);
+    dests = network.allNodes.subList(1, destCount + 1);
+  }
+
+  @Benchmark
+  public Envelope<?> send() {
+    network.send(msg, network.time + 1, from, dests);
+    return network.msgs.pollFirst();
+  }
+
+  @Benchmark
+  public Envelope<?> sendAll() {
+    network.sendAll(msg, network.time + 1, from);
+    return network.msgs.pollFirst();
+  }
+
+  @Benchmark
+  public int sendAndDeliver() {
+    network.send(msg, network.time + 1, from, dests);
+    return deliverAll();
+  }
+
+  @Benchmark
+  public int sendAllAndDeliver() {
+    network.sendAll(msg, network.time + 1, from);
+    return deliverAll();
+  }
+
+  private int deliverAll() {
+    while (network.hasMessage()) {
+      network.runMs(100);
+    }
+    return network.time;
+  }
+}
@@ -0,0 +1,40 @@
+package net.consensys.wittgenstein.core;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Time to create the peers' links of a p2p network of 10k, 100k and 1M nodes. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class P2PNetworkSetPeersBenchmark {
+  @Param({"10000", "100000", "1000000"})
+  int nodeCount;
+
+  private P2PNetwork<PeerNode> network;
+
+  static class PeerNode extends P2PNode<PeerNode> {
+    PeerNode(Random rd, NodeBuilder nb) {
+      super(rd, nb);
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void setup() {
+    network = new P2PNetwork<>(13, false);
+    NodeBuilder nb = new NodeBuilder();
+    for (int i = 0; i < nodeCount; i++) {
+      network.addNode(new PeerNode(network.rd, nb));
+    }
+  }
+
+  @Benchmark
+  public P2PNetwork<PeerNode> setPeers() {
+    network.setPeers();
+    return network;
+  }
+}
@@ -0,0 +1,85 @@
+package net.consensys.wittgenstein.protocols.handeleth2;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * HLevel#bestToVerify on the last level of a 1024 nodes network, with 16 or 128 aggregates waiting
+ * for verification. Each aggregate contains 4 attestations overlapping with the ones we already
+ * have, so the evaluation goes through the BitSet intersections and cardinalities. None of them is
+ * pruned, so the state is the same for all the calls.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HLevelBestToVerifyBenchmark {
+  private static final int NODES = 1024;
+  private static final int HASHES = 8;
+
+  @Param({"16", "128"})
+  int toVerify;
+
+  private HLevel level;
+  private BitSet blacklist;
+
+  @Setup
+  public void setup() {
+    HandelEth2 p = new HandelEth2(new HandelEth2Parameters(NODES, 3, 100, 50, 0, null, null, 0));
+    p.init();
+    HNode n0 = p.network().getNodeById(0);
+    int height = n0.height + 1;
+    n0.startNewAggregation(new Attestation(height, 0, n0.nodeId));
+    HNode.AggregationProcess ap = n0.runningAggs.get(height);
+    level = ap.levels.get(ap.levels.size() - 1);
+    blacklist = n0.blacklist;
+
+    // Each peer of the level attests for one of the hashes. We already have half of these
+    //  attestations, each aggregate to verify has another half for 4 of the hashes.
+    BitSet peers = n0.peersUpToLevel(level.level);
+    peers.andNot(n0.peersUpToLevel(level.level - 1));
+    Random rd = new Random(0);
+    BitSet[] signers = new BitSet[HASHES];
+    for (int h = 0; h < HASHES; h++) {
+      signers[h] = new BitSet(NODES);
+    }
+    for (int i = peers.nextSetBit(0); i >= 0; i = peers.nextSetBit(i + 1)) {
+      signers[rd.nextInt(HASHES)].set(i);
+    }
+
+    for (int h = 0; h < HASHES; h++) {
+      level.incoming.put(h, attestation(rd, height, h, signers[h]));
+    }
+    for (int i = 0; i < toVerify; i++) {
+      List<Attestation> as = new ArrayList<>();
+      int first = rd.nextInt(HASHES);
+      for (int h = 0; h < 4; h++) {
+        int hash = (first + h) % HASHES;
+        as.add(attestation(rd, height, hash, signers[hash]));
+      }
+      level.toVerifyAgg.add(new AggToVerify(1 + i, level.level, first, i, as));
+    }
+  }
+
+  /** An attestation signed by half of the signers. */
+  private static Attestation attestation(Random rd, int height, int hash, BitSet signers) {
+    BitSet who = new BitSet(NODES);
+    for (int i = signers.nextSetBit(0); i >= 0; i = signers.nextSetBit(i + 1)) {
+      if (rd.nextBoolean()) {
+        who.set(i);
+      }
+    }
+    return new Attestation(new Attestation(height, hash, 0), who);
+  }
+
+  @Benchmark
+  public AggToVerify bestToVerify() {
+    return level.bestToVerify(10, blacklist);
+  }
+}
@@ -5,9 +5,13 @@ public abstract class Block<TB extends Block> {
 
   /**
    * To ensure that all blocks id are unique we increment a counter. We suppose it's impossible to
-   * create two blocks with the same id.
+   * create two blocks with the same id. The counter is kept in the genesis block, so each
+   * simulation has its own sequence and runs can be executed in parallel.
    */
-  private static long blockId = 1;
+  private long blockId = 1;
+
+  /** The genesis block of the chain this block belongs to. */
+  private final Block<?> root;
 
   public final int height;
   public final int proposalTime;
@@ -27,10 +31,12 @@ public abstract class Block<TB extends Block> {
     producer = null;
     proposalTime = 0;
     valid = true;
+    root = this;
   }
 
-  public static long getLastBlockId() {
-    return blockId;
+  /** @return the next block id that will be allocated on this chain. */
+  public long getLastBlockId() {
+    return root.blockId;
   }
 
   public Block(BlockChainNode<TB> producer, int height, TB parent, boolean valid, int time) {
@@ -46,7 +52,14 @@ public abstract class Block<TB extends Block> {
 
     this.producer = producer;
     this.height = height;
-    this.id = blockId++;
+    if (parent != null) {
+      this.root = ((Block<?>) parent).root;
+    } else if (producer != null) {
+      this.root = ((Block<?>) producer.genesis).root;
+    } else {
+      this.root = this;
+    }
+    this.id = root.blockId++;
     this.parent = parent;
     this.valid = valid;
     this.lastTxId = time;
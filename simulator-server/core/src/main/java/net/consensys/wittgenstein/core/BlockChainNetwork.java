@@ -76,7 +76,7 @@ public class BlockChainNetwork<TB extends Block, TN extends BlockChainNode<TB>>
           "block count:"
               + blockInChain
               + " on "
-              + Block.getLastBlockId()
+              + observer.genesis.getLastBlockId()
               + ", all tx: "
               + observer.head.lastTxId);
     }
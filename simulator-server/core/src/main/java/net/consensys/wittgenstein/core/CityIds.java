@@ -0,0 +1,50 @@
+package net.consensys.wittgenstein.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dense int ids for the city names, shared by all the networks of the JVM. The latency models index
+ * their tables with these ids instead of looking up the city names for every message.
+ */
+public final class CityIds {
+  /** The id of a node without city, i.e. when the city name is null. */
+  public static final int UNKNOWN = -1;
+
+  /** The id of Node.DEFAULT_CITY. */
+  public static final int DEFAULT = 0;
+
+  private static final Map<String, Integer> ids = new HashMap<>();
+  private static final List<String> names = new ArrayList<>();
+
+  static {
+    id(Node.DEFAULT_CITY);
+  }
+
+  private CityIds() {}
+
+  /** @return the id of this city, allocated on the first call. */
+  public static synchronized int id(String cityName) {
+    if (cityName == null) {
+      return UNKNOWN;
+    }
+    Integer id = ids.get(cityName);
+    if (id == null) {
+      id = names.size();
+      names.add(cityName);
+      ids.put(cityName, id);
+    }
+    return id;
+  }
+
+  public static synchronized String name(int id) {
+    return id == UNKNOWN ? null : names.get(id);
+  }
+
+  /** @return the number of ids allocated so far; all the ids are lower than this number. */
+  public static synchronized int size() {
+    return names.size();
+  }
+}
@@ -0,0 +1,153 @@
+package net.consensys.wittgenstein.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import net.consensys.wittgenstein.core.messages.ConditionalTask;
+
+/**
+ * The conditional tasks of a network. They are looked at on every millisecond without message, so
+ * we don't want to go through all of them each time: the tasks are sorted by start time, and the
+ * tasks of the nodes that are down are put aside, per node, until the node is up again.
+ *
+ * <p>The tasks are looked at during a scan, i.e. between two messages. During a scan a task is
+ * looked at once, when it can start: it's started if its start condition is met. Then it waits for
+ * the next scan, as the tasks registered during the scan. The tasks starting at the same time are
+ * started in their registration order.
+ *
+ * <p>A task is not started while its node is down, nor during the scan in which its node is started
+ * again: as when all the tasks were looked at on each millisecond, the tasks of a node restarted by
+ * a conditional task wait for the next scan. The nodes tell the queue when they start, so only the
+ * tasks of these nodes are put back at the start of a scan.
+ */
+final class ConditionalTaskQueue<TN extends Node> {
+  private static final class Entry<TN extends Node> {
+    final ConditionalTask<TN> task;
+    final long registration;
+
+    Entry(ConditionalTask<TN> task, long registration) {
+      this.task = task;
+      this.registration = registration;
+    }
+  }
+
+  private static final Comparator<Entry<?>> byRegistration =
+      Comparator.comparingLong(e -> e.registration);
+
+  /** The tasks that can start during this scan, sorted by start time. */
+  private final PriorityQueue<Entry<TN>> waiting =
+      new PriorityQueue<>(
+          Comparator.<Entry<TN>>comparingInt(e -> e.task.minStartTime)
+              .thenComparing(byRegistration));
+
+  /** The tasks registered or looked at during this scan: they wait for the next one. */
+  private final List<Entry<TN>> nextScan = new ArrayList<>();
+
+  /** The tasks of the nodes that were down, by node id. */
+  private final Map<Integer, List<Entry<TN>>> down = new HashMap<>();
+
+  /** The nodes started since the start of this scan: their tasks wait for the next one. */
+  private final List<Node> started = new ArrayList<>();
+
+  private final BitSet startedIds = new BitSet();
+
+  private final List<Entry<TN>> starting = new ArrayList<>();
+  private long registrations;
+  private int size;
+
+  void add(ConditionalTask<TN> task) {
+    nextScan.add(new Entry<>(task, registrations++));
+    size++;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** Called by Node#start. */
+  void nodeStarted(Node n) {
+    if (!startedIds.get(n.nodeId)) {
+      startedIds.set(n.nodeId);
+      started.add(n);
+    }
+  }
+
+  /**
+   * Starts a new scan: the tasks looked at during the previous scan can start again, as the tasks
+   * of the nodes started since and still up.
+   */
+  void startScan() {
+    waiting.addAll(nextScan);
+    nextScan.clear();
+    for (Node n : started) {
+      if (!n.isDown()) {
+        List<Entry<TN>> tasks = down.remove(n.nodeId);
+        if (tasks != null) {
+          waiting.addAll(tasks);
+        }
+      }
+    }
+    started.clear();
+    startedIds.clear();
+  }
+
+  private boolean canStart(ConditionalTask<TN> ct) {
+    return !ct.from.isDown() && !startedIds.get(ct.from.nodeId);
+  }
+
+  /** @return the start time of the next task of a live node, Integer.MAX_VALUE if there is none. */
+  int nextStartTime() {
+    while (!waiting.isEmpty()) {
+      Entry<TN> e = waiting.peek();
+      if (canStart(e.task)) {
+        return e.task.minStartTime;
+      }
+      setAside(waiting.poll());
+    }
+    return Integer.MAX_VALUE;
+  }
+
+  /**
+   * Starts the tasks that can start at this time, if their start condition is met. The tasks
+   * starting after 'until' are left for the next scan.
+   */
+  void startTasks(int time, int until) {
+    int maxStartTime = Math.min(time, until);
+    starting.clear();
+    while (!waiting.isEmpty() && waiting.peek().task.minStartTime <= maxStartTime) {
+      starting.add(waiting.poll());
+    }
+    starting.sort(byRegistration);
+
+    for (Entry<TN> e : starting) {
+      ConditionalTask<TN> ct = e.task;
+      if (!canStart(ct)) {
+        setAside(e);
+        continue;
+      }
+      if (ct.startIf.check()) {
+        assert ct.r != null;
+        ct.r.run();
+        ct.minStartTime = time + ct.duration;
+        if (!ct.repeatIf.check()) {
+          size--;
+          continue;
+        }
+      }
+      nextScan.add(e);
+    }
+    starting.clear();
+  }
+
+  private void setAside(Entry<TN> e) {
+    down.computeIfAbsent(e.task.from.nodeId, k -> new ArrayList<>()).add(e);
+  }
+}
@@ -2,7 +2,7 @@ package net.consensys.wittgenstein.core;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.BitSet;
 import java.util.List;
 import net.consensys.wittgenstein.core.messages.Message;
 
@@ -29,6 +29,9 @@ abstract class Envelope<TN extends Node> {
 
   abstract boolean hasNextReader();
 
+  /** @return the number of destinations that have not yet read this envelope. */
+  abstract int remainingReaders();
+
   abstract int getFromId();
 
   EnvelopeInfo<?> curInfos(Network<?> network) {
@@ -36,7 +39,35 @@ abstract class Envelope<TN extends Node> {
         getFromId(), getNextDestId(), sendTime, nextArrivalTime(network), getMessage());
   }
 
-  abstract List<EnvelopeInfo<?>> infos(Network<?> network);
+  /*
+   * The destinations not yet reached are the readers 0 to remainingReaders() - 1, sorted by arrival
+   * time. Reader 0 is the next destination.
+   */
+
+  abstract int readerFromId(int reader);
+
+  abstract int readerDestId(int reader);
+
+  abstract int readerArrivalTime(Network<?> network, int reader);
+
+  Message<TN> readerMessage(int reader) {
+    return getMessage();
+  }
+
+  List<EnvelopeInfo<?>> infos(Network<?> network) {
+    int readers = remainingReaders();
+    List<EnvelopeInfo<?>> res = new ArrayList<>(readers);
+    for (int r = 0; r < readers; r++) {
+      res.add(
+          new EnvelopeInfo<>(
+              readerFromId(r),
+              readerDestId(r),
+              sendTime,
+              readerArrivalTime(network, r),
+              readerMessage(r)));
+    }
+    return res;
+  }
 
   public Envelope(int sendTime) {
     this.sendTime = sendTime;
@@ -63,21 +94,14 @@ abstract class Envelope<TN extends Node> {
     protected int curPos = 0;
     private Envelope<?> nextSameTime = null;
 
+    /** @param destIds the destinations, sorted by arrival time. */
     MultipleDestEnvelope(
-        Message<TN> m,
-        Node fromNode,
-        List<Network.MessageArrival> dests,
-        int sendTime,
-        int randomSeed) {
+        Message<TN> m, Node fromNode, int[] destIds, int sendTime, int randomSeed) {
       super(sendTime);
       this.message = m;
       this.fromNodeId = fromNode.nodeId;
       this.randomSeed = randomSeed;
-      this.destIds = new int[dests.size()];
-
-      for (int i = 0; i < destIds.length; i++) {
-        destIds[i] = dests.get(i).dest.nodeId;
-      }
+      this.destIds = destIds;
     }
 
     @Override
@@ -104,7 +128,9 @@ abstract class Envelope<TN extends Node> {
       return destIds[curPos];
     }
 
-    private int arrivalTime(Network<?> network, int destId) {
+    /** @return the arrival time for the destination at this position in destIds. */
+    int arrivalTime(Network<?> network, int pos) {
+      int destId = destIds[pos];
       int rd = Network.getPseudoRandom(destId, randomSeed);
       Node f = network.getNodeById(this.fromNodeId);
       Node t = network.getNodeById(destId);
@@ -114,7 +140,7 @@ abstract class Envelope<TN extends Node> {
 
     @Override
     int nextArrivalTime(Network<?> network) {
-      return arrivalTime(network, getNextDestId());
+      return arrivalTime(network, curPos);
     }
 
     @Override
@@ -136,21 +162,233 @@ abstract class Envelope<TN extends Node> {
       return curPos < destIds.length;
     }
 
+    @Override
+    int remainingReaders() {
+      return destIds.length - curPos;
+    }
+
     @Override
     int getFromId() {
       return fromNodeId;
     }
 
     @Override
-    List<EnvelopeInfo<?>> infos(Network<?> network) {
-      List<EnvelopeInfo<?>> res = new ArrayList<>();
-      for (int i = curPos; i < destIds.length; i++) {
-        EnvelopeInfo<?> ei =
-            new EnvelopeInfo<>(
-                fromNodeId, destIds[i], sendTime, arrivalTime(network, destIds[i]), message);
-        res.add(ei);
+    int readerFromId(int reader) {
+      return fromNodeId;
+    }
+
+    @Override
+    int readerDestId(int reader) {
+      return destIds[curPos + reader];
+    }
+
+    @Override
+    int readerArrivalTime(Network<?> network, int reader) {
+      return arrivalTime(network, curPos + reader);
+    }
+  }
+
+  /**
+   * A MultipleDestEnvelope that keeps the latencies calculated when the message was sent instead of
+   * recalculating them each time the envelope is queued or read. It's 2 more bytes per destination,
+   * so it's for when the CPU matters more than the memory. The latencies must fit in a short.
+   */
+  static final class MultipleDestCachedEnvelope<TN extends Node> extends MultipleDestEnvelope<TN> {
+    private final short[] latencies;
+
+    MultipleDestCachedEnvelope(
+        Message<TN> m,
+        Node fromNode,
+        int[] destIds,
+        short[] latencies,
+        int sendTime,
+        int randomSeed) {
+      super(m, fromNode, destIds, sendTime, randomSeed);
+      this.latencies = latencies;
+    }
+
+    @Override
+    int arrivalTime(Network<?> network, int pos) {
+      return sendTime + latencies[pos];
+    }
+  }
+
+  /**
+   * A message sent to all the nodes. A MultipleDestEnvelope keeps the sorted list of its
+   * destinations, i.e. 4 bytes per node in the network for each broadcast. Here we keep only the
+   * bounds of a few windows of arrival times, each window holding about the same number of
+   * destinations. The destinations of a window are found again from the latency model when the
+   * envelope reaches it, and are forgotten once they have all read the message. So we keep at most
+   * the destinations of one window, and nothing while the envelope waits for its next window.
+   *
+   * <p>The nodes that didn't get the message when it was sent (down, in another partition or
+   * discarded) are kept in 'skipped', null if there are none. The order of the destinations and the
+   * arrival times are the same as with a MultipleDestEnvelope.
+   */
+  static final class BroadcastEnvelope<TN extends Node> extends Envelope<TN> {
+    final Message<TN> message;
+    private final Network<?> network;
+    private final int fromNodeId;
+
+    final int randomSeed;
+    /** The number of nodes in the network when the message was sent. */
+    private final int nodeCount;
+
+    private final BitSet skipped;
+
+    /**
+     * The first arrival time and the position of the first destination of each window, plus an
+     * entry for the end: the arrival time after the last one, and the number of destinations.
+     */
+    private final int[] windowTimes;
+
+    private final int[] windowStarts;
+
+    /** The window loaded in 'destIds'. */
+    private int window;
+
+    /** The destinations of this window sorted by arrival time, null if no window is loaded. */
+    private int[] destIds;
+
+    private int curPos = 0;
+    private Envelope<?> nextSameTime = null;
+
+    BroadcastEnvelope(
+        Message<TN> m,
+        Network<?> network,
+        Node fromNode,
+        int nodeCount,
+        BitSet skipped,
+        int[] windowTimes,
+        int[] windowStarts,
+        int sendTime,
+        int randomSeed) {
+      super(sendTime);
+      this.message = m;
+      this.network = network;
+      this.fromNodeId = fromNode.nodeId;
+      this.nodeCount = nodeCount;
+      this.skipped = skipped;
+      this.windowTimes = windowTimes;
+      this.windowStarts = windowStarts;
+      this.randomSeed = randomSeed;
+    }
+
+    private int count() {
+      return windowStarts[windowStarts.length - 1];
+    }
+
+    /** @return the window of the destination at this position. */
+    private int windowOf(int pos) {
+      int w = Arrays.binarySearch(windowStarts, 0, windowStarts.length - 1, pos);
+      return w >= 0 ? w : -w - 2;
+    }
+
+    private int destId(int pos) {
+      if (destIds == null || pos < windowStarts[window] || pos >= windowStarts[window + 1]) {
+        window = windowOf(pos);
+        destIds =
+            network.broadcastWindow(
+                network.getNodeById(fromNodeId),
+                nodeCount,
+                skipped,
+                windowTimes[window],
+                windowTimes[window + 1],
+                windowStarts[window + 1] - windowStarts[window],
+                sendTime,
+                randomSeed);
+      }
+      return destIds[pos - windowStarts[window]];
+    }
+
+    @Override
+    public String toString() {
+      return "Envelope{"
+          + "message="
+          + message
+          + ", fromNode="
+          + fromNodeId
+          + ", dests="
+          + count()
+          + ", curPos="
+          + curPos
+          + '}';
+    }
+
+    @Override
+    Message<TN> getMessage() {
+      return message;
+    }
+
+    @Override
+    int getNextDestId() {
+      return destId(curPos);
+    }
+
+    private int arrivalTime(Network<?> network, int pos) {
+      int w = windowOf(pos);
+      if (pos == windowStarts[w]) {
+        // The first destination of a window arrives at the start of the window
+        return windowTimes[w];
+      }
+      int destId = destId(pos);
+      int rd = Network.getPseudoRandom(destId, randomSeed);
+      Node f = network.getNodeById(fromNodeId);
+      Node t = network.getNodeById(destId);
+      return sendTime + network.networkLatency.getLatency(f, t, rd);
+    }
+
+    @Override
+    int nextArrivalTime(Network<?> network) {
+      return arrivalTime(network, curPos);
+    }
+
+    @Override
+    Envelope<?> getNextSameTime() {
+      return nextSameTime;
+    }
+
+    @Override
+    void setNextSameTime(Envelope<?> m) {
+      this.nextSameTime = m;
+    }
+
+    @Override
+    void markRead() {
+      curPos++;
+      if (destIds != null && curPos == windowStarts[window + 1]) {
+        destIds = null;
       }
-      return res;
+    }
+
+    @Override
+    boolean hasNextReader() {
+      return curPos < count();
+    }
+
+    @Override
+    int remainingReaders() {
+      return count() - curPos;
+    }
+
+    @Override
+    int getFromId() {
+      return fromNodeId;
+    }
+
+    @Override
+    int readerFromId(int reader) {
+      return fromNodeId;
+    }
+
+    @Override
+    int readerDestId(int reader) {
+      return destId(curPos + reader);
+    }
+
+    @Override
+    int readerArrivalTime(Network<?> network, int reader) {
+      return arrivalTime(network, curPos + reader);
     }
   }
 
@@ -163,17 +401,14 @@ abstract class Envelope<TN extends Node> {
     protected int curPos = 0;
     private Envelope<?> nextSameTime = null;
 
+    /** @param arrivalTime the arrival time of each destination, sorted. */
     MultipleDestWithDelayEnvelope(
-        Message<TN> m, Node fromNode, List<Network.MessageArrival> dests, int sendTime) {
+        Message<TN> m, Node fromNode, int[] destIds, int[] arrivalTime, int sendTime) {
       super(sendTime);
       this.message = m;
       this.fromNodeId = fromNode.nodeId;
-      this.destIds = new int[dests.size()];
-      this.arrivalTime = new int[dests.size()];
-      for (int i = 0; i < destIds.length; i++) {
-        destIds[i] = dests.get(i).dest.nodeId;
-        arrivalTime[i] = dests.get(i).arrival;
-      }
+      this.destIds = destIds;
+      this.arrivalTime = arrivalTime;
     }
 
     @Override
@@ -210,20 +445,152 @@ abstract class Envelope<TN extends Node> {
       return curPos < destIds.length;
     }
 
+    @Override
+    int remainingReaders() {
+      return destIds.length - curPos;
+    }
+
     @Override
     int getFromId() {
       return fromNodeId;
     }
 
     @Override
-    List<EnvelopeInfo<?>> infos(Network<?> network) {
-      List<EnvelopeInfo<?>> res = new ArrayList<>();
-      for (int i = curPos; i < destIds.length; i++) {
-        EnvelopeInfo<?> ei =
-            new EnvelopeInfo<>(fromNodeId, destIds[i], sendTime, arrivalTime[i], message);
-        res.add(ei);
+    int readerFromId(int reader) {
+      return fromNodeId;
+    }
+
+    @Override
+    int readerDestId(int reader) {
+      return destIds[curPos + reader];
+    }
+
+    @Override
+    int readerArrivalTime(Network<?> network, int reader) {
+      return arrivalTime[curPos + reader];
+    }
+  }
+
+  /**
+   * The mirror of the MultipleDestEnvelope: a message sent by multiple nodes to a single node, e.g.
+   * the votes of the validators sent to their leader. We keep an int per sender instead of an
+   * envelope per sender, plus a reference per sender if they don't all send the same message. The
+   * latencies are recalculated from the sender id and the random seed.
+   */
+  static final class MultipleSourceEnvelope<TN extends Node> extends Envelope<TN> {
+    /** The message of each sender, or a single message shared by all the senders. */
+    private final Message<?>[] messages;
+
+    private final int[] fromIds;
+    private final int toNodeId;
+    final int randomSeed;
+    private int curPos = 0;
+    private Envelope<?> nextSameTime = null;
+
+    /** @param fromIds the senders, sorted by arrival time. */
+    MultipleSourceEnvelope(
+        Message<?>[] messages, int[] fromIds, Node toNode, int sendTime, int randomSeed) {
+      super(sendTime);
+      if (messages.length != 1 && messages.length != fromIds.length) {
+        throw new IllegalArgumentException(
+            "Expected 1 or " + fromIds.length + " messages, got " + messages.length);
       }
-      return res;
+      this.messages = messages;
+      this.fromIds = fromIds;
+      this.toNodeId = toNode.nodeId;
+      this.randomSeed = randomSeed;
+    }
+
+    @Override
+    public String toString() {
+      return "Envelope{"
+          + "message="
+          + messages[0]
+          + ", fromNodes="
+          + Arrays.toString(fromIds)
+          + ", dest="
+          + toNodeId
+          + ", curPos="
+          + curPos
+          + '}';
+    }
+
+    @SuppressWarnings("unchecked")
+    private Message<TN> message(int pos) {
+      return (Message<TN>) messages[messages.length == 1 ? 0 : pos];
+    }
+
+    @Override
+    Message<TN> getMessage() {
+      return message(curPos);
+    }
+
+    @Override
+    int getNextDestId() {
+      return toNodeId;
+    }
+
+    int arrivalTime(Network<?> network, int pos) {
+      int fromId = fromIds[pos];
+      int rd = Network.getPseudoRandom(fromId, randomSeed);
+      Node f = network.getNodeById(fromId);
+      Node t = network.getNodeById(toNodeId);
+      return sendTime + network.networkLatency.getLatency(f, t, rd);
+    }
+
+    @Override
+    int nextArrivalTime(Network<?> network) {
+      return arrivalTime(network, curPos);
+    }
+
+    @Override
+    Envelope<?> getNextSameTime() {
+      return nextSameTime;
+    }
+
+    @Override
+    void setNextSameTime(Envelope<?> m) {
+      this.nextSameTime = m;
+    }
+
+    @Override
+    void markRead() {
+      curPos++;
+    }
+
+    @Override
+    boolean hasNextReader() {
+      return curPos < fromIds.length;
+    }
+
+    @Override
+    int remainingReaders() {
+      return fromIds.length - curPos;
+    }
+
+    @Override
+    int getFromId() {
+      return fromIds[curPos];
+    }
+
+    @Override
+    int readerFromId(int reader) {
+      return fromIds[curPos + reader];
+    }
+
+    @Override
+    int readerDestId(int reader) {
+      return toNodeId;
+    }
+
+    @Override
+    int readerArrivalTime(Network<?> network, int reader) {
+      return arrivalTime(network, curPos + reader);
+    }
+
+    @Override
+    Message<TN> readerMessage(int reader) {
+      return message(curPos + reader);
     }
   }
 
@@ -288,15 +655,29 @@ abstract class Envelope<TN extends Node> {
       return false;
     }
 
+    @Override
+    int remainingReaders() {
+      return 1;
+    }
+
     @Override
     int getFromId() {
       return fromNodeId;
     }
 
     @Override
-    List<EnvelopeInfo<?>> infos(Network<?> network) {
-      return Collections.singletonList(
-          new EnvelopeInfo<>(fromNodeId, toNodeId, sendTime, arrivalTime, message));
+    int readerFromId(int reader) {
+      return fromNodeId;
+    }
+
+    @Override
+    int readerDestId(int reader) {
+      return toNodeId;
+    }
+
+    @Override
+    int readerArrivalTime(Network<?> network, int reader) {
+      return arrivalTime;
     }
   }
 }
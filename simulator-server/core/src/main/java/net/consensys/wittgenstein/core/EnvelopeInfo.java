@@ -11,7 +11,7 @@ public class EnvelopeInfo<TN extends Node> implements Comparable<EnvelopeInfo> {
   public final int arrivingAt;
   public final Message<?> msg;
 
-  EnvelopeInfo(int from, int to, int sentAt, int arrivingAt, Message<TN> msg) {
+  public EnvelopeInfo(int from, int to, int sentAt, int arrivingAt, Message<TN> msg) {
     this.from = from;
     this.to = to;
     this.sentAt = sentAt;
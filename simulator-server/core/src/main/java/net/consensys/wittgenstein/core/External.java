@@ -1,5 +1,6 @@
 package net.consensys.wittgenstein.core;
 
+import java.util.ArrayList;
 import java.util.List;
 import net.consensys.wittgenstein.core.messages.SendMessage;
 
@@ -7,4 +8,19 @@ import net.consensys.wittgenstein.core.messages.SendMessage;
 public interface External {
 
   <TN extends Node> List<SendMessage> receive(EnvelopeInfo<TN> ei);
+
+  /**
+   * Receives all the messages delivered to the nodes using this External during the same
+   * millisecond, in the delivery order. By default they are given one by one to 'receive'; a remote
+   * service can take them in a single call instead.
+   *
+   * @return the messages to send, in the order they must be sent.
+   */
+  default List<SendMessage> receiveAll(List<EnvelopeInfo<?>> eis) {
+    List<SendMessage> res = new ArrayList<>();
+    for (EnvelopeInfo<?> ei : eis) {
+      res.addAll(receive(ei));
+    }
+    return res;
+  }
 }
@@ -0,0 +1,60 @@
+package net.consensys.wittgenstein.core;
+
+import net.consensys.wittgenstein.core.messages.Message;
+import net.consensys.wittgenstein.core.utils.Strings;
+
+/** Selects the deliveries walked by a MessageCursor. */
+@SuppressWarnings("WeakerAccess")
+public class MessageFilter {
+  public static final MessageFilter ALL = new MessageFilter(-1, -1, 0, Integer.MAX_VALUE, null);
+
+  /** The sender, -1 for all the senders. */
+  public final int from;
+  /** The destination, -1 for all the destinations. */
+  public final int to;
+  /** The arrival times selected, both included. Nothing is selected if minArrival > maxArrival. */
+  public final int minArrival;
+
+  public final int maxArrival;
+  /** The simple or full class name of the message, null for all the messages. */
+  public final String messageType;
+
+  public MessageFilter(int from, int to, int minArrival, int maxArrival, String messageType) {
+    this.from = from;
+    this.to = to;
+    this.minArrival = minArrival;
+    this.maxArrival = maxArrival;
+    this.messageType = messageType;
+  }
+
+  // for json
+  public MessageFilter() {
+    this(-1, -1, 0, Integer.MAX_VALUE, null);
+  }
+
+  /** @return a copy of this filter starting at this arrival time, if it's later. */
+  public MessageFilter startingAt(int arrival) {
+    return arrival <= minArrival
+        ? this
+        : new MessageFilter(from, to, arrival, maxArrival, messageType);
+  }
+
+  boolean matches(int fromId, int toId, int arrival, Message<?> msg) {
+    if ((from >= 0 && fromId != from)
+        || (to >= 0 && toId != to)
+        || arrival < minArrival
+        || arrival > maxArrival) {
+      return false;
+    }
+    if (messageType == null) {
+      return true;
+    }
+    Class<?> type = msg.getClass();
+    return messageType.equals(type.getSimpleName()) || messageType.equals(type.getName());
+  }
+
+  @Override
+  public String toString() {
+    return Strings.toString(this);
+  }
+}
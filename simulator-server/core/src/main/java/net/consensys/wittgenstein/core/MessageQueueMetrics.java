@@ -0,0 +1,42 @@
+package net.consensys.wittgenstein.core;
+
+import net.consensys.wittgenstein.core.utils.Strings;
+
+/** A snapshot of the message queue counters at a given time. */
+@SuppressWarnings("WeakerAccess")
+public class MessageQueueMetrics {
+  public final int time;
+  public final int envelopes;
+  public final long pendingDeliveries;
+  public final int peakEnvelopes;
+  public final long deliveries;
+  public final long envelopesCreated;
+  public final int slots;
+
+  MessageQueueMetrics(
+      int time,
+      int envelopes,
+      long pendingDeliveries,
+      int peakEnvelopes,
+      long deliveries,
+      long envelopesCreated,
+      int slots) {
+    this.time = time;
+    this.envelopes = envelopes;
+    this.pendingDeliveries = pendingDeliveries;
+    this.peakEnvelopes = peakEnvelopes;
+    this.deliveries = deliveries;
+    this.envelopesCreated = envelopesCreated;
+    this.slots = slots;
+  }
+
+  // for json
+  public MessageQueueMetrics() {
+    this(0, 0, 0, 0, 0, 0, 0);
+  }
+
+  @Override
+  public String toString() {
+    return Strings.toString(this);
+  }
+}
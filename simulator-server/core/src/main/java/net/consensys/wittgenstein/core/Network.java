@@ -1,26 +1,34 @@
 package net.consensys.wittgenstein.core;
 
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 import net.consensys.wittgenstein.core.messages.*;
+import net.consensys.wittgenstein.core.utils.SplitMixRandom;
 
 /**
  * There is a single network for a simulation.
  *
- * <p>Nothing is executed in parallel, so the code does not have to be multithread safe.
+ * <p>By default nothing is executed in parallel, so the code does not have to be multithread safe.
+ * The messages arriving at the same millisecond can be delivered in parallel with setParallelism:
+ * the protocol must then follow the rules described in ParallelDeliveries.
  */
 @SuppressWarnings({"WeakerAccess", "unused", "UnusedReturnValue"})
 public class Network<TN extends Node> {
   static final int duration = 60 * 1000;
 
+  /** The maximum number of free message slots kept for reuse. */
+  static final int maxFreeSlots = 4;
+
   /** The messages in transit. Sorted by their arrival time. */
   public final MessageStorage msgs = new MessageStorage();
 
   /**
    * In parallel of the messages, we have tasks. It's mixed with messages (some tasks are managed as
-   * special messages). Conditional tasks are in a specific list.
+   * special messages). Conditional tasks are in a specific queue.
    */
-  public final List<ConditionalTask<TN>> conditionalTasks = new LinkedList<>();
+  final ConditionalTaskQueue<TN> conditionalTasks = new ConditionalTaskQueue<>();
 
   /**
    * Internal variable. Nodes id are sequential & start at zero, so we can we index them in an
@@ -28,17 +36,71 @@ public class Network<TN extends Node> {
    */
   public final List<TN> allNodes = new ArrayList<>(2048);
 
-  /** By using a single random generator, we have repeatable runs. */
-  public final Random rd = new Random(0);
+  /**
+   * The random generator for the decisions of the framework or of the protocol as a whole. Its seed
+   * is the seed of the run: the random generators of the nodes are derived from it.
+   */
+  public final Random rd = new NetworkRandom();
 
   final List<Integer> partitionsInX = new ArrayList<>();
 
+  /** The partition of a node when the network is partitioned with an explicit assignment. */
+  private ToIntFunction<? super TN> partitionOf;
+
+  /**
+   * The partition id of each node, by node id. Null when there is a single partition: it's the
+   * usual case, and then we don't look at the partitions at all when sending or delivering.
+   */
+  private short[] partitions;
+
   /**
    * We can decide to discard messages that would take too long to arrive. This limit the memory
    * consumption of the simulator as well.
    */
   int msgDiscardTime = Integer.MAX_VALUE;
 
+  private EnvelopeStrategy envelopeStrategy = EnvelopeStrategy.RECOMPUTE;
+
+  /**
+   * Scratch buffer used when sending a message to multiple nodes, to sort the destinations without
+   * allocating an object per destination. One long per destination: the arrival time in the high
+   * bits and the position of the destination in the list in the low bits.
+   */
+  private long[] arrivals = new long[64];
+
+  /**
+   * A BroadcastEnvelope splits its destinations in this number of windows of arrival times, or
+   * less, with at least minBroadcastWindow destinations per window. It keeps the destinations of a
+   * single window: the more windows the less memory, but each window needs to go through all the
+   * nodes again to find its destinations.
+   */
+  static final int broadcastWindows = 8;
+
+  static final int minBroadcastWindow = 32;
+
+  /**
+   * Above this difference between the first and the last arrival time a broadcast uses a
+   * MultipleDestEnvelope: we count the destinations per arrival time in 'arrivalCounts'.
+   */
+  static final int maxBroadcastArrivalRange = 1 << 16;
+
+  /** Scratch buffer used when sending a message to all nodes: the destinations per arrival time. */
+  private int[] arrivalCounts = new int[64];
+
+  /** Null when the messages are delivered sequentially, the default. */
+  private ParallelDeliveries<TN> parallelDeliveries;
+
+  /**
+   * The messages delivered during the current millisecond to the nodes with an External, by
+   * External in the order of their first delivery.
+   */
+  private final Map<External, List<EnvelopeInfo<?>>> externalDeliveries = new LinkedHashMap<>();
+
+  /** If a node has an External, valid as long as Node.externalChanges is 'externalChanges'. */
+  private boolean hasExternal;
+
+  private int externalChanges = -1;
+
   /** The network latency. The default one is for a WAN */
   public NetworkLatency networkLatency = new NetworkLatency.IC3NetworkLatency();
 
@@ -105,6 +167,91 @@ public class Network<TN extends Node> {
     return this;
   }
 
+  /**
+   * How an envelope sent to multiple destinations gets the arrival time of each destination. The
+   * latency is calculated when the message is sent to sort the destinations; it can be kept or
+   * recalculated when needed, i.e. each time the envelope is queued or read.
+   */
+  public enum EnvelopeStrategy {
+    /** Recalculate the latencies: saves memory when there are many messages in flight. */
+    RECOMPUTE,
+    /** Keep the latencies: saves CPU, costs 2 bytes per destination. */
+    CACHED,
+    /** Keep the latencies only for the messages with at most AUTO_CACHE_MAX_DESTS destinations. */
+    AUTO
+  }
+
+  public static final int AUTO_CACHE_MAX_DESTS = 1024;
+
+  /**
+   * The latencies are the same with all the strategies, as long as the network latency model is not
+   * changed while there are messages in flight.
+   */
+  @SuppressWarnings("UnusedReturnValue")
+  public Network<TN> setEnvelopeStrategy(EnvelopeStrategy envelopeStrategy) {
+    this.envelopeStrategy = Objects.requireNonNull(envelopeStrategy);
+    return this;
+  }
+
+  /**
+   * Deliver the messages arriving at the same millisecond with 'threads' threads, or sequentially
+   * if 'threads' is 1. The results are the same, but the message actions must modify only their
+   * destination node and must use its random generator instead of the network one. Nodes with an
+   * External are always run sequentially. The threads are stopped at the end of each run.
+   */
+  @SuppressWarnings("UnusedReturnValue")
+  public Network<TN> setParallelism(int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("threads must be greater than 0: " + threads);
+    }
+    if (parallelDeliveries != null) {
+      parallelDeliveries.shutdown();
+      parallelDeliveries = null;
+    }
+    if (threads > 1) {
+      parallelDeliveries = new ParallelDeliveries<>(this, threads);
+    }
+    return this;
+  }
+
+  /** True while the messages are delivered by multiple threads. */
+  private boolean inParallelDeliveries() {
+    return parallelDeliveries != null && parallelDeliveries.isRunning();
+  }
+
+  /**
+   * The network random generator can't be used during a parallel delivery: the values drawn would
+   * depend on the thread scheduling.
+   */
+  private final class NetworkRandom extends Random {
+    // Not initialized here: it's set by setSeed, called by the constructor of Random
+    private long seed;
+
+    NetworkRandom() {
+      super(0);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+      super.setSeed(seed);
+      this.seed = seed;
+      for (TN n : allNodes) {
+        if (n != null) {
+          seedNode(n);
+        }
+      }
+    }
+
+    @Override
+    protected int next(int bits) {
+      if (inParallelDeliveries()) {
+        throw new IllegalStateException(
+            "The network random generator can't be used when delivering messages in parallel");
+      }
+      return super.next(bits);
+    }
+  }
+
   /**
    * A desperate attempt to have something less memory consuming than a PriorityQueue or a guava
    * multimap, by using raw array. The idea is to optimize the case when there are multiple messages
@@ -114,13 +261,40 @@ public class Network<TN extends Node> {
    * same millisecond.
    */
   final class MsgsSlot {
-    final int startTime;
-    final int endTime;
+    int startTime;
+    int endTime;
     final Envelope<?>[] msgsByMs = new Envelope[duration];
 
+    /**
+     * One bit per millisecond, set when there is at least one envelope at this millisecond. It
+     * allows to jump directly to the next arrival instead of looking at all the empty milliseconds.
+     */
+    final long[] occupied = new long[(duration + 63) / 64];
+
+    /** The number of envelopes in this slot. */
+    int envelopes;
+
     public MsgsSlot(int startTime) {
+      init(startTime);
+    }
+
+    /** Set the slot's time range. Called on creation and when a pooled slot is reused. */
+    void init(int startTime) {
       this.startTime = startTime - (startTime % duration);
-      this.endTime = startTime + duration;
+      this.endTime = this.startTime + duration;
+    }
+
+    /** Remove all the envelopes, only the occupied milliseconds are visited. */
+    void clear() {
+      for (int w = 0; w < occupied.length; w++) {
+        long word = occupied[w];
+        while (word != 0) {
+          msgsByMs[(w << 6) + Long.numberOfTrailingZeros(word)] = null;
+          word &= word - 1;
+        }
+        occupied[w] = 0;
+      }
+      envelopes = 0;
     }
 
     private int getPos(int aTime) {
@@ -131,8 +305,8 @@ public class Network<TN extends Node> {
       return (aTime % duration);
     }
 
-    public void addMsg(Envelope<?> m) {
-      int aTime = m.nextArrivalTime(Network.this);
+    /** @param aTime the arrival time of m, as calculated by the caller. */
+    public void addMsg(Envelope<?> m, int aTime) {
       if (aTime < time) {
         throw new IllegalStateException(
             "Can't add a message arriving in the past! time="
@@ -145,6 +319,8 @@ public class Network<TN extends Node> {
       int pos = getPos(aTime);
       m.setNextSameTime(msgsByMs[pos]);
       msgsByMs[pos] = m;
+      occupied[pos >>> 6] |= 1L << pos;
+      envelopes++;
     }
 
     public Envelope<?> peek(int time) {
@@ -156,57 +332,90 @@ public class Network<TN extends Node> {
       int pos = getPos(time);
       Envelope<?> m = msgsByMs[pos];
       if (m != null) {
+        envelopes--;
         msgsByMs[pos] = m.getNextSameTime();
+        if (msgsByMs[pos] == null) {
+          occupied[pos >>> 6] &= ~(1L << pos);
+        }
       }
       return m;
     }
 
-    public int size() {
-      int size = 0;
-      for (int i = 0; i < duration; i++) {
-        int ss = 0;
-        Envelope m = msgsByMs[i];
-        while (m != null) {
-          ss++;
-          m = m.getNextSameTime();
-        }
-        size += ss;
+    /**
+     * @return the first time, greater or equal to aTime, with a message in this slot. -1 if there
+     *     is no such message.
+     */
+    int nextArrivalTime(int aTime) {
+      int pos = Math.max(aTime, startTime) - startTime;
+      if (pos >= duration || envelopes == 0) {
+        return -1;
       }
-      return size;
-    }
-
-    Envelope<?> peekFirst() {
-      for (int i = 0; i < duration; i++) {
-        if (msgsByMs[i] != null) {
-          return msgsByMs[i];
+      int w = pos >>> 6;
+      long word = occupied[w] & (-1L << pos);
+      while (word == 0) {
+        if (++w == occupied.length) {
+          return -1;
         }
+        word = occupied[w];
       }
-      return null;
+      return startTime + (w << 6) + Long.numberOfTrailingZeros(word);
     }
 
-    List<EnvelopeInfo<?>> infos() {
-      List<EnvelopeInfo<?>> res = new ArrayList<>();
+    public int size() {
+      return envelopes;
+    }
 
-      for (int i = 0; i < duration; i++) {
-        Envelope<?> m = msgsByMs[i];
-        while (m != null) {
-          res.addAll(m.infos(Network.this));
-          m = m.getNextSameTime();
-        }
-      }
-      return res;
+    Envelope<?> peekFirst() {
+      int t = nextArrivalTime(startTime);
+      return t < 0 ? null : msgsByMs[t - startTime];
     }
   }
 
   public final class MessageStorage {
+    /**
+     * The slots containing messages, sorted by start time. A slot is allocated only when a message
+     * arrives in its minute, so a task registered hours in the future costs a single slot.
+     */
     public final ArrayList<MsgsSlot> msgsBySlot = new ArrayList<>();
 
+    /** The slots freed by the cleanup, reused instead of allocating new ones. */
+    private final ArrayDeque<MsgsSlot> freeSlots = new ArrayDeque<>(maxFreeSlots);
+
+    /** The number of envelopes in the queue. */
+    private int envelopes;
+
+    /** The number of deliveries still to do for the envelopes in the queue. */
+    private long pendingDeliveries;
+
+    /** The maximum number of envelopes seen in the queue. */
+    private int peakEnvelopes;
+
+    /** The number of envelopes read since the beginning of the run. */
+    private long deliveries;
+
+    /** The number of envelopes added since the beginning of the run. */
+    private long envelopesCreated;
+
+    /** @return the number of envelopes in the queue, an envelope can have multiple destinations. */
     public int size() {
-      int size = 0;
-      for (MsgsSlot ms : msgsBySlot) {
-        size += ms.size();
-      }
-      return size;
+      return envelopes;
+    }
+
+    /** @return the number of deliveries still to do, counting all the destinations. */
+    public long pendingDeliveries() {
+      return pendingDeliveries;
+    }
+
+    /** @return a snapshot of the queue counters, to follow the queue depth during a run. */
+    public MessageQueueMetrics metrics() {
+      return new MessageQueueMetrics(
+          time,
+          envelopes,
+          pendingDeliveries,
+          peakEnvelopes,
+          deliveries,
+          envelopesCreated,
+          msgsBySlot.size());
     }
 
     public int sizeAt(int time) {
@@ -221,50 +430,163 @@ public class Network<TN extends Node> {
 
     void cleanup() {
       while (!msgsBySlot.isEmpty() && time >= msgsBySlot.get(0).endTime) {
-        msgsBySlot.remove(0);
+        MsgsSlot ms = msgsBySlot.remove(0);
+        if (ms.envelopes != 0) {
+          // Messages left in the past are lost, but the counters must remain exact.
+          for (int t = ms.nextArrivalTime(ms.startTime); t >= 0; t = ms.nextArrivalTime(t + 1)) {
+            for (Envelope<?> m = ms.peek(t); m != null; m = m.getNextSameTime()) {
+              envelopes--;
+              pendingDeliveries -= m.remainingReaders();
+            }
+          }
+        }
+        release(ms);
       }
-      if (msgsBySlot.isEmpty()) {
-        msgsBySlot.add(new MsgsSlot(time));
+    }
+
+    private void release(MsgsSlot ms) {
+      if (freeSlots.size() < maxFreeSlots) {
+        ms.clear();
+        freeSlots.add(ms);
       }
     }
 
-    void ensureSize(int aTime) {
-      while (msgsBySlot.get(msgsBySlot.size() - 1).endTime <= aTime) {
-        msgsBySlot.add(new MsgsSlot(msgsBySlot.get(msgsBySlot.size() - 1).endTime));
+    /**
+     * @return the position of the slot containing aTime in msgsBySlot if it exists, or (-(insertion
+     *     point) - 1) if there is no such slot.
+     */
+    private int slotPos(int aTime) {
+      int start = aTime - (aTime % duration);
+      int low = 0;
+      int high = msgsBySlot.size() - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int midStart = msgsBySlot.get(mid).startTime;
+        if (midStart < start) {
+          low = mid + 1;
+        } else if (midStart > start) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
       }
+      return -(low + 1);
     }
 
+    /** @return the slot containing aTime, null if there is no message in this slot. */
+    MsgsSlot getSlot(int aTime) {
+      cleanup();
+      int pos = slotPos(aTime);
+      return pos >= 0 ? msgsBySlot.get(pos) : null;
+    }
+
+    /** @return the slot containing aTime, allocated (or taken from the pool) if necessary. */
     MsgsSlot findSlot(int aTime) {
       cleanup();
-      ensureSize(aTime);
-      int pos = (aTime - msgsBySlot.get(0).startTime) / duration;
-      if (pos >= msgsBySlot.size()) {
-        throw new IllegalStateException("pos=" + pos + ", size=" + msgsBySlot.size());
+      int pos = slotPos(aTime);
+      if (pos >= 0) {
+        return msgsBySlot.get(pos);
+      }
+      MsgsSlot ms = freeSlots.poll();
+      if (ms == null) {
+        ms = new MsgsSlot(aTime);
+      } else {
+        ms.init(aTime);
       }
-      return msgsBySlot.get(pos);
+      msgsBySlot.add(-pos - 1, ms);
+      return ms;
     }
 
     void addMsg(Envelope<?> m) {
+      queue(m);
+      envelopesCreated++;
+    }
+
+    private void queue(Envelope<?> m) {
       int na = m.nextArrivalTime(Network.this);
       if (na < time) {
         throw new IllegalStateException(
             "Arriving in the past: arrival=" + na + ", time=" + time + ", msg=" + m);
       }
       MsgsSlot slot = findSlot(na);
-      slot.addMsg(m);
+      slot.addMsg(m, na);
+      envelopes++;
+      pendingDeliveries += m.remainingReaders();
+      if (envelopes > peakEnvelopes) {
+        peakEnvelopes = envelopes;
+      }
     }
 
     Envelope<?> peek(int time) {
-      return findSlot(time).peek(time);
+      MsgsSlot ms = getSlot(time);
+      return ms == null ? null : ms.peek(time);
     }
 
     Envelope<?> poll(int time) {
-      return findSlot(time).poll(time);
+      MsgsSlot ms = getSlot(time);
+      Envelope<?> m = ms == null ? null : ms.poll(time);
+      if (m != null) {
+        envelopes--;
+        pendingDeliveries -= m.remainingReaders();
+      }
+      return m;
+    }
+
+    /** Mark the envelope as read by its current destination and put it back if it's not done. */
+    void markRead(Envelope<?> m) {
+      m.markRead();
+      deliveries++;
+      if (m.hasNextReader()) {
+        queue(m);
+      }
+    }
+
+    /**
+     * Like markRead, but the envelope is put back immediately only if its next destination is
+     * reached at the current time.
+     *
+     * @return the envelope if it must be put back later with requeue, null otherwise.
+     */
+    Envelope<?> markReadNow(Envelope<?> m) {
+      m.markRead();
+      deliveries++;
+      if (!m.hasNextReader()) {
+        return null;
+      }
+      if (m.nextArrivalTime(Network.this) == time) {
+        queue(m);
+        return null;
+      }
+      return m;
+    }
+
+    void requeue(Envelope<?> m) {
+      if (m != null) {
+        queue(m);
+      }
+    }
+
+    /**
+     * @return the arrival time of the first message arriving at aTime or later, -1 if there is no
+     *     such message.
+     */
+    int nextArrivalTime(int aTime) {
+      for (MsgsSlot ms : msgsBySlot) {
+        int res = ms.nextArrivalTime(aTime);
+        if (res >= 0) {
+          return res;
+        }
+      }
+      return -1;
     }
 
     public void clear() {
+      for (MsgsSlot ms : msgsBySlot) {
+        release(ms);
+      }
       msgsBySlot.clear();
-      cleanup();
+      envelopes = 0;
+      pendingDeliveries = 0;
     }
 
     /** @return the first message in the queue, null if the queue is empty. */
@@ -276,15 +598,21 @@ public class Network<TN extends Node> {
       return null;
     }
 
+    /** @return all the deliveries still to do, by arrival time. */
     public List<EnvelopeInfo<?>> peekMessages() {
       List<EnvelopeInfo<?>> res = new ArrayList<>();
-      for (MsgsSlot ms : msgsBySlot) {
-        res.addAll(ms.infos());
+      MessageCursor c = cursor(MessageFilter.ALL);
+      while (c.next()) {
+        res.add(c.info());
       }
-      Collections.sort(res);
       return res;
     }
 
+    /** @return a cursor on the deliveries still to do selected by this filter. */
+    public MessageCursor cursor(MessageFilter filter) {
+      return new MessageCursor(filter);
+    }
+
     /** For tests: they can find their message content. */
     public Message<?> peekFirstMessageContent() {
       Envelope<?> m = peekFirst();
@@ -298,6 +626,121 @@ public class Network<TN extends Node> {
     }
   }
 
+  /**
+   * Walks the deliveries still to do, by arrival time, without creating an object per delivery. The
+   * envelopes are read from the slots in arrival order, and the envelopes with multiple
+   * destinations are merged in a heap: the heap contains only the envelopes having a delivery
+   * before the current slot time. Deliveries arriving at the same time are returned in the order of
+   * the slots. The network must not run while a cursor is used.
+   */
+  public final class MessageCursor {
+    private final MessageFilter filter;
+    private final PriorityQueue<Reader> readers = new PriorityQueue<>();
+    /** The position in msgsBySlot and the time in this slot of the next envelopes to read. */
+    private int slotPos = 0;
+
+    private int slotTime = time;
+    private long lastSeq;
+    private Reader cur;
+
+    private final class Reader implements Comparable<Reader> {
+      final Envelope<?> envelope;
+      final long seq;
+      int reader;
+      int arrival;
+
+      Reader(Envelope<?> envelope, int arrival) {
+        this.envelope = envelope;
+        this.seq = lastSeq++;
+        this.arrival = arrival;
+      }
+
+      @Override
+      public int compareTo(Reader o) {
+        if (arrival != o.arrival) {
+          return Integer.compare(arrival, o.arrival);
+        }
+        return Long.compare(seq, o.seq);
+      }
+    }
+
+    MessageCursor(MessageFilter filter) {
+      this.filter = filter;
+    }
+
+    /** @return true if there is a next delivery, that becomes the current one. */
+    public boolean next() {
+      do {
+        if (cur != null && ++cur.reader < cur.envelope.remainingReaders()) {
+          cur.arrival = cur.envelope.readerArrivalTime(Network.this, cur.reader);
+          readers.add(cur);
+        }
+        for (int t = nextSlotTime(); t >= 0; t = nextSlotTime()) {
+          if (!readers.isEmpty() && readers.peek().arrival < t) {
+            break;
+          }
+          for (Envelope<?> m = msgs.msgsBySlot.get(slotPos).peek(t);
+              m != null;
+              m = m.getNextSameTime()) {
+            readers.add(new Reader(m, t));
+          }
+          slotTime = t + 1;
+        }
+        cur = readers.poll();
+        if (cur == null || cur.arrival > filter.maxArrival) {
+          cur = null;
+          readers.clear();
+          return false;
+        }
+      } while (!filter.matches(from(), to(), cur.arrival, message()));
+      return true;
+    }
+
+    /** @return the time of the next envelopes in the slots, -1 if there are no more envelopes. */
+    private int nextSlotTime() {
+      while (slotPos < msgs.msgsBySlot.size()) {
+        int t = msgs.msgsBySlot.get(slotPos).nextArrivalTime(slotTime);
+        if (t >= 0) {
+          return t;
+        }
+        slotPos++;
+      }
+      return -1;
+    }
+
+    private Reader current() {
+      if (cur == null) {
+        throw new IllegalStateException("No current delivery");
+      }
+      return cur;
+    }
+
+    public int from() {
+      return current().envelope.readerFromId(cur.reader);
+    }
+
+    public int to() {
+      return current().envelope.readerDestId(cur.reader);
+    }
+
+    public int sentAt() {
+      return current().envelope.sendTime;
+    }
+
+    public int arrivingAt() {
+      return current().arrival;
+    }
+
+    public Message<?> message() {
+      return current().envelope.readerMessage(cur.reader);
+    }
+
+    /** @return the current delivery as an EnvelopeInfo. */
+    public EnvelopeInfo<?> info() {
+      return new EnvelopeInfo<>(from(), to(), sentAt(), arrivingAt(), message());
+    }
+  }
+
   public interface Condition {
     boolean check();
   }
@@ -332,7 +775,14 @@ public class Network<TN extends Node> {
     if (endAt <= 0) {
       throw new IllegalStateException("Maximum time reached!");
     }
-    boolean didSomething = receiveUntil(endAt);
+    boolean didSomething;
+    try {
+      didSomething = receiveUntil(endAt);
+    } finally {
+      if (parallelDeliveries != null) {
+        parallelDeliveries.shutdown();
+      }
+    }
     time = endAt;
     return didSomething;
   }
@@ -367,6 +817,17 @@ public class Network<TN extends Node> {
 
   /** Send a message to a single node. */
   public void send(Message<? extends TN> mc, int sendTime, TN fromNode, TN toNode) {
+    // Drawn now: the node's random generator is used by its actions as well
+    int randomSeed = fromNode.random.nextInt();
+    if (inParallelDeliveries()) {
+      parallelDeliveries.defer(() -> sendWithSeed(mc, sendTime, fromNode, toNode, randomSeed));
+      return;
+    }
+    sendWithSeed(mc, sendTime, fromNode, toNode, randomSeed);
+  }
+
+  private void sendWithSeed(
+      Message<? extends TN> mc, int sendTime, TN fromNode, TN toNode, int randomSeed) {
     if (fromNode.nodeId >= allNodes.size() || getNodeById(fromNode.nodeId) != fromNode) {
       throw new IllegalArgumentException("The from node is not in the network. From=" + fromNode);
     }
@@ -374,10 +835,9 @@ public class Network<TN extends Node> {
       throw new IllegalArgumentException("The from node is not in the network. To=" + toNode);
     }
 
-    MessageArrival ms = createMessageArrival(mc, fromNode, toNode, sendTime, rd.nextInt());
-    if (ms != null) {
-      Envelope<?> m = new Envelope.SingleDestEnvelope<>(mc, fromNode, toNode, sendTime, ms.arrival);
-      msgs.addMsg(m);
+    int arrival = arrivalTime(mc, fromNode, toNode, sendTime, randomSeed);
+    if (arrival >= 0) {
+      msgs.addMsg(new Envelope.SingleDestEnvelope<>(mc, fromNode, toNode, sendTime, arrival));
     }
   }
 
@@ -386,27 +846,103 @@ public class Network<TN extends Node> {
       throw new IllegalArgumentException(
           "wrong arrival time: arriveAt=" + arriveAt + ", time=" + time);
     }
+    if (inParallelDeliveries()) {
+      parallelDeliveries.defer(() -> sendArriveAt(mc, arriveAt, fromNode, toNode));
+      return;
+    }
     msgs.addMsg(new Envelope.SingleDestEnvelope<>(mc, fromNode, toNode, time, arriveAt));
   }
 
-  static final class MessageArrival implements Comparable<MessageArrival> {
-    final Node dest;
-    final int arrival;
+  /**
+   * Send a message from each of the 'senders' to 'dest', e.g. the votes of the validators to their
+   * leader. It's the same as a send per sender, but with a single envelope for all the senders. The
+   * message of each sender is created immediately by 'messageFactory'; it can return the same
+   * message for all the senders. The random seed for the latencies is drawn from the random
+   * generator of 'dest'.
+   */
+  public void sendFromMany(
+      Function<? super TN, ? extends Message<? extends TN>> messageFactory,
+      List<? extends TN> senders,
+      TN dest) {
+    sendFromMany(messageFactory, time + 1, senders, dest);
+  }
 
-    public MessageArrival(Node dest, int arrival) {
-      this.dest = dest;
-      this.arrival = arrival;
+  public void sendFromMany(
+      Function<? super TN, ? extends Message<? extends TN>> messageFactory,
+      int sendTime,
+      List<? extends TN> senders,
+      TN dest) {
+    if (senders.isEmpty()) {
+      return;
     }
+    Message<?>[] ms = new Message<?>[senders.size()];
+    boolean shared = true;
+    for (int i = 0; i < ms.length; i++) {
+      ms[i] = messageFactory.apply(senders.get(i));
+      shared &= ms[i] == ms[0];
+    }
+    Message<?>[] messages = shared ? new Message<?>[] {ms[0]} : ms;
 
-    @Override
-    public String toString() {
-      return "MessageArrival{" + "dest=" + dest + ", arrival=" + arrival + '}';
+    int randomSeed = dest.random.nextInt();
+    if (inParallelDeliveries()) {
+      List<? extends TN> ss = new ArrayList<>(senders);
+      parallelDeliveries.defer(
+          () -> sendFromManyWithSeed(messages, sendTime, ss, dest, randomSeed));
+      return;
     }
+    sendFromManyWithSeed(messages, sendTime, senders, dest, randomSeed);
+  }
 
-    @Override
-    public int compareTo(Network.MessageArrival o) {
-      return Long.compare(arrival, o.arrival);
+  /** @param messages the message of each sender, or a single message for all of them. */
+  private void sendFromManyWithSeed(
+      Message<?>[] messages, int sendTime, List<? extends TN> senders, TN dest, int randomSeed) {
+    if (dest.nodeId >= allNodes.size() || getNodeById(dest.nodeId) != dest) {
+      throw new IllegalArgumentException("The dest node is not in the network. To=" + dest);
+    }
+    if (!(senders instanceof RandomAccess)) {
+      senders = new ArrayList<>(senders);
+    }
+    if (arrivals.length < senders.size()) {
+      arrivals = new long[Math.max(senders.size(), arrivals.length * 2)];
+    }
+
+    int count = 0;
+    for (int i = 0; i < senders.size(); i++) {
+      TN from = senders.get(i);
+      if (from.nodeId >= allNodes.size() || getNodeById(from.nodeId) != from) {
+        throw new IllegalArgumentException("The from node is not in the network. From=" + from);
+      }
+      Message<?> m = messages[messages.length == 1 ? 0 : i];
+      int arrival = arrivalTime(m, from, dest, sendTime, randomSeed, from.nodeId);
+      if (arrival >= 0) {
+        arrivals[count++] = ((long) arrival << 32) | i;
+      }
+    }
+    if (count == 0) {
+      return;
+    }
+    Arrays.sort(arrivals, 0, count);
+
+    Envelope<?> msg;
+    if (count == 1) {
+      int pos = arrivalPos(arrivals[0]);
+      Message<?> m = messages[messages.length == 1 ? 0 : pos];
+      msg =
+          new Envelope.SingleDestEnvelope<>(
+              m, senders.get(pos), dest, sendTime, arrival(arrivals[0]));
+    } else {
+      int[] fromIds = new int[count];
+      Message<?>[] sorted = messages.length == 1 ? messages : new Message<?>[count];
+      for (int i = 0; i < count; i++) {
+        int pos = arrivalPos(arrivals[i]);
+        fromIds[i] = senders.get(pos).nodeId;
+        if (messages.length != 1) {
+          sorted[i] = messages[pos];
+        }
+      }
+      msg = new Envelope.MultipleSourceEnvelope<>(sorted, fromIds, dest, sendTime, randomSeed);
     }
+    msgs.addMsg(msg);
   }
 
   public boolean hasMessage() {
@@ -423,51 +959,323 @@ public class Network<TN extends Node> {
       TN fromNode,
       List<? extends Node> dests,
       int delaysBetweenMessage) {
+    int randomSeed = fromNode.random.nextInt();
+    if (inParallelDeliveries()) {
+      // The caller can modify its list once we return
+      List<? extends Node> ds = dests == allNodes ? allNodes : new ArrayList<>(dests);
+      parallelDeliveries.defer(
+          () -> sendWithSeed(m, sendTime, fromNode, ds, delaysBetweenMessage, randomSeed));
+      return;
+    }
+    sendWithSeed(m, sendTime, fromNode, dests, delaysBetweenMessage, randomSeed);
+  }
+
+  /**
+   * Send a message to the nodes with these ids, in this order. The ids are read before this method
+   * returns, so the caller can reuse its array.
+   */
+  public void send(
+      Message<? extends TN> m,
+      int sendTime,
+      TN fromNode,
+      int[] destIds,
+      int count,
+      int delaysBetweenMessage) {
+    if (count == 0) {
+      return;
+    }
+    send(m, sendTime, fromNode, new NodeIdList(destIds, count), delaysBetweenMessage);
+  }
+
+  /** A list view on node ids. Only valid while the array is not modified. */
+  private final class NodeIdList extends AbstractList<Node> implements RandomAccess {
+    private final int[] ids;
+    private final int count;
+
+    NodeIdList(int[] ids, int count) {
+      this.ids = ids;
+      this.count = count;
+    }
+
+    @Override
+    public Node get(int index) {
+      if (index >= count) {
+        throw new IndexOutOfBoundsException("index=" + index + ", size=" + count);
+      }
+      return getNodeById(ids[index]);
+    }
+
+    @Override
+    public int size() {
+      return count;
+    }
+  }
+
+  private void sendWithSeed(
+      Message<? extends TN> m,
+      int sendTime,
+      TN fromNode,
+      List<? extends Node> dests,
+      int delaysBetweenMessage,
+      int randomSeed) {
     if (fromNode.nodeId >= allNodes.size() || getNodeById(fromNode.nodeId) != fromNode) {
       throw new IllegalArgumentException("The from node is not in the network. From=" + fromNode);
     }
 
-    int randomSeed = rd.nextInt();
-
-    List<MessageArrival> da =
-        createMessageArrivals(m, sendTime, fromNode, dests, randomSeed, delaysBetweenMessage);
+    if (dests == allNodes && delaysBetweenMessage == 0 && !cacheLatencies(allNodes.size())) {
+      broadcast(m, sendTime, fromNode, randomSeed);
+      return;
+    }
+    if (!(dests instanceof RandomAccess)) {
+      dests = new ArrayList<>(dests);
+    }
+    int count = packArrivals(m, sendTime, fromNode, dests, randomSeed, delaysBetweenMessage);
 
-    if (!da.isEmpty()) {
+    if (count != 0) {
       Envelope<?> msg;
-      if (da.size() == 1) {
-        MessageArrival ms = da.get(0);
-        msg = new Envelope.SingleDestEnvelope<>(m, fromNode, ms.dest, sendTime, ms.arrival);
+      if (count == 1) {
+        Node dest = dests.get(arrivalPos(arrivals[0]));
+        msg = new Envelope.SingleDestEnvelope<>(m, fromNode, dest, sendTime, arrival(arrivals[0]));
       } else if (delaysBetweenMessage == 0) {
-        msg = new Envelope.MultipleDestEnvelope<>(m, fromNode, da, sendTime, randomSeed);
+        msg = createMultipleDestEnvelope(m, fromNode, dests, count, sendTime, randomSeed);
       } else {
-        msg = new Envelope.MultipleDestWithDelayEnvelope<>(m, fromNode, da, sendTime);
+        int[] arrivalTimes = new int[count];
+        for (int i = 0; i < count; i++) {
+          arrivalTimes[i] = arrival(arrivals[i]);
+        }
+        msg =
+            new Envelope.MultipleDestWithDelayEnvelope<>(
+                m, fromNode, destIds(dests, count), arrivalTimes, sendTime);
       }
       msgs.addMsg(msg);
     }
   }
 
-  List<MessageArrival> createMessageArrivals(
+  /**
+   * Fills 'arrivals' with the destinations that will receive the message, sorted by arrival time.
+   * For the same arrival time the destinations keep the order of the list, as with a stable sort.
+   *
+   * @return the number of destinations in 'arrivals'.
+   */
+  private int packArrivals(
       Message<? extends TN> m,
       int sendTime,
       TN fromNode,
       List<? extends Node> dests,
       int randomSeed,
       int delaysBetweenMessage) {
-    ArrayList<MessageArrival> da = new ArrayList<>(dests.size());
-    for (Node n : dests) {
-      MessageArrival ma = createMessageArrival(m, fromNode, n, sendTime, randomSeed);
+    if (arrivals.length < dests.size()) {
+      arrivals = new long[Math.max(dests.size(), arrivals.length * 2)];
+    }
+    int count = 0;
+    for (int i = 0; i < dests.size(); i++) {
+      int arrival = arrivalTime(m, fromNode, dests.get(i), sendTime, randomSeed);
       sendTime += delaysBetweenMessage + (delaysBetweenMessage > 0 ? 1 : 0);
-      if (ma != null) {
-        da.add(ma);
+      if (arrival >= 0) {
+        arrivals[count++] = ((long) arrival << 32) | i;
+      }
+    }
+    Arrays.sort(arrivals, 0, count);
+    return count;
+  }
+
+  private static int arrival(long packed) {
+    return (int) (packed >>> 32);
+  }
+
+  private static int arrivalPos(long packed) {
+    return (int) packed;
+  }
+
+  /** @return the ids of the first 'count' destinations in 'arrivals'. */
+  private int[] destIds(List<? extends Node> dests, int count) {
+    int[] destIds = new int[count];
+    for (int i = 0; i < count; i++) {
+      destIds[i] = dests.get(arrivalPos(arrivals[i])).nodeId;
+    }
+    return destIds;
+  }
+
+  private Envelope<?> createMultipleDestEnvelope(
+      Message<? extends TN> m,
+      TN fromNode,
+      List<? extends Node> dests,
+      int count,
+      int sendTime,
+      int randomSeed) {
+    int[] destIds = destIds(dests, count);
+    if (!cacheLatencies(count)) {
+      return new Envelope.MultipleDestEnvelope<>(m, fromNode, destIds, sendTime, randomSeed);
+    }
+
+    // The arrivals are sorted, so the last one has the highest latency.
+    if (arrival(arrivals[count - 1]) - sendTime <= Short.MAX_VALUE) {
+      short[] latencies = new short[count];
+      for (int i = 0; i < count; i++) {
+        latencies[i] = (short) (arrival(arrivals[i]) - sendTime);
       }
+      return new Envelope.MultipleDestCachedEnvelope<>(
+          m, fromNode, destIds, latencies, sendTime, randomSeed);
+    }
+    int[] arrivalTimes = new int[count];
+    for (int i = 0; i < count; i++) {
+      arrivalTimes[i] = arrival(arrivals[i]);
     }
-    Collections.sort(da);
+    return new Envelope.MultipleDestWithDelayEnvelope<>(
+        m, fromNode, destIds, arrivalTimes, sendTime);
+  }
 
-    return da;
+  private boolean cacheLatencies(int count) {
+    return envelopeStrategy == EnvelopeStrategy.CACHED
+        || (envelopeStrategy == EnvelopeStrategy.AUTO && count <= AUTO_CACHE_MAX_DESTS);
   }
 
-  private MessageArrival createMessageArrival(
-      Message<?> m, Node fromNode, Node toNode, int sendTime, int randomSeed) {
+  /**
+   * Sends a message to all the nodes with a BroadcastEnvelope. We calculate the arrival times to
+   * count the destinations per arrival time, and cut the arrival times in windows. We don't sort
+   * the destinations: the envelope will find the ones of a window when it reaches it.
+   */
+  private void broadcast(Message<? extends TN> m, int sendTime, TN fromNode, int randomSeed) {
+    int nodeCount = allNodes.size();
+    if (arrivals.length < nodeCount) {
+      arrivals = new long[Math.max(nodeCount, arrivals.length * 2)];
+    }
+    BitSet skipped = null;
+    int count = 0;
+    int minArrival = Integer.MAX_VALUE;
+    int maxArrival = Integer.MIN_VALUE;
+    for (int i = 0; i < nodeCount; i++) {
+      int arrival = arrivalTime(m, fromNode, allNodes.get(i), sendTime, randomSeed);
+      arrivals[i] = arrival;
+      if (arrival < 0) {
+        if (skipped == null) {
+          skipped = new BitSet(nodeCount);
+        }
+        skipped.set(i);
+      } else {
+        count++;
+        minArrival = Math.min(minArrival, arrival);
+        maxArrival = Math.max(maxArrival, arrival);
+      }
+    }
+    if (count == 0) {
+      return;
+    }
+
+    int range = maxArrival - minArrival + 1;
+    if (count == 1 || range > maxBroadcastArrivalRange) {
+      int pos = 0;
+      for (int i = 0; i < nodeCount; i++) {
+        if (arrivals[i] >= 0) {
+          arrivals[pos++] = (arrivals[i] << 32) | i;
+        }
+      }
+      Arrays.sort(arrivals, 0, count);
+      if (count == 1) {
+        Node dest = allNodes.get(arrivalPos(arrivals[0]));
+        msgs.addMsg(
+            new Envelope.SingleDestEnvelope<>(m, fromNode, dest, sendTime, arrival(arrivals[0])));
+      } else {
+        msgs.addMsg(createMultipleDestEnvelope(m, fromNode, allNodes, count, sendTime, randomSeed));
+      }
+      return;
+    }
+
+    if (arrivalCounts.length < range) {
+      arrivalCounts = new int[Math.max(range, arrivalCounts.length * 2)];
+    }
+    Arrays.fill(arrivalCounts, 0, range, 0);
+    for (int i = 0; i < nodeCount; i++) {
+      if (arrivals[i] >= 0) {
+        arrivalCounts[(int) arrivals[i] - minArrival]++;
+      }
+    }
+
+    // A window starts at an arrival time with destinations, and ends once it has 'perWindow'
+    int perWindow = Math.max(minBroadcastWindow, (count + broadcastWindows - 1) / broadcastWindows);
+    int[] windowTimes = new int[count / perWindow + 2];
+    int[] windowStarts = new int[windowTimes.length];
+    int windows = 0;
+    int inWindow = perWindow;
+    int pos = 0;
+    for (int a = 0; a < range; a++) {
+      if (arrivalCounts[a] != 0) {
+        if (inWindow >= perWindow) {
+          windowTimes[windows] = minArrival + a;
+          windowStarts[windows++] = pos;
+          inWindow = 0;
+        }
+        inWindow += arrivalCounts[a];
+        pos += arrivalCounts[a];
+      }
+    }
+    windowTimes[windows] = maxArrival + 1;
+    windowStarts[windows] = count;
+
+    msgs.addMsg(
+        new Envelope.BroadcastEnvelope<>(
+            m,
+            this,
+            fromNode,
+            nodeCount,
+            skipped,
+            Arrays.copyOf(windowTimes, windows + 1),
+            Arrays.copyOf(windowStarts, windows + 1),
+            sendTime,
+            randomSeed));
+  }
+
+  /**
+   * @return the destinations of a broadcast arriving between 'fromArrival' included and 'toArrival'
+   *     excluded, sorted by arrival time, in the same order as for a MultipleDestEnvelope.
+   */
+  int[] broadcastWindow(
+      Node fromNode,
+      int nodeCount,
+      BitSet skipped,
+      int fromArrival,
+      int toArrival,
+      int count,
+      int sendTime,
+      int randomSeed) {
+    if (arrivals.length < count) {
+      arrivals = new long[Math.max(count, arrivals.length * 2)];
+    }
+    int pos = 0;
+    for (int i = 0; i < nodeCount; i++) {
+      if (skipped == null || !skipped.get(i)) {
+        Node to = allNodes.get(i);
+        int arrival =
+            sendTime
+                + networkLatency.getLatency(fromNode, to, getPseudoRandom(to.nodeId, randomSeed));
+        if (arrival >= fromArrival && arrival < toArrival) {
+          if (pos == count) {
+            throw new IllegalStateException("More than " + count + " destinations in the window");
+          }
+          arrivals[pos++] = ((long) arrival << 32) | i;
+        }
+      }
+    }
+    if (pos != count) {
+      throw new IllegalStateException("Expected " + count + " destinations, found " + pos);
+    }
+    Arrays.sort(arrivals, 0, count);
+
+    int[] destIds = new int[count];
+    for (int i = 0; i < count; i++) {
+      destIds[i] = allNodes.get(arrivalPos(arrivals[i])).nodeId;
+    }
+    return destIds;
+  }
+
+  /** @return the arrival time of the message, -1 if it won't be received. */
+  private int arrivalTime(Message<?> m, Node fromNode, Node toNode, int sendTime, int randomSeed) {
+    return arrivalTime(m, fromNode, toNode, sendTime, randomSeed, toNode.nodeId);
+  }
+
+  /** @param randomNodeId the node id used with the random seed to get the latency. */
+  private int arrivalTime(
+      Message<?> m, Node fromNode, Node toNode, int sendTime, int randomSeed, int randomNodeId) {
     if (sendTime <= time) {
       throw new IllegalStateException("" + m + ", sendTime=" + sendTime + ", time=" + time);
     }
@@ -475,15 +1283,15 @@ public class Network<TN extends Node> {
     assert !(m instanceof Task);
     fromNode.msgSent++;
     fromNode.bytesSent += m.size();
-    if (partitionId(fromNode) == partitionId(toNode) && !fromNode.isDown() && !toNode.isDown()) {
+    if (samePartition(fromNode, toNode) && !fromNode.isDown() && !toNode.isDown()) {
       int nt =
-          networkLatency.getLatency(fromNode, toNode, getPseudoRandom(toNode.nodeId, randomSeed));
+          networkLatency.getLatency(fromNode, toNode, getPseudoRandom(randomNodeId, randomSeed));
       if (nt < msgDiscardTime) {
-        return new MessageArrival(toNode, sendTime + nt);
+        return sendTime + nt;
       }
     }
 
-    return null;
+    return -1;
   }
 
   /**
@@ -502,18 +1310,42 @@ public class Network<TN extends Node> {
     return a;
   }
 
+  /**
+   * When the messages are delivered in parallel a task starting at the current time must run before
+   * the next deliveries to its node: they are then delivered sequentially.
+   */
+  private void deferTask(Runnable register, int startAt) {
+    if (startAt <= time) {
+      parallelDeliveries.deferTaskNow(register);
+    } else {
+      parallelDeliveries.defer(register);
+    }
+  }
+
   public void registerTask(final Runnable task, int startAt, TN fromNode) {
+    if (inParallelDeliveries()) {
+      deferTask(() -> registerTask(task, startAt, fromNode), startAt);
+      return;
+    }
     Task<TN> sw = new Task<>(task);
     msgs.addMsg(new Envelope.SingleDestEnvelope<>(sw, fromNode, fromNode, time, startAt));
   }
 
   public void registerPeriodicTask(final Runnable task, int startAt, int period, TN fromNode) {
+    if (inParallelDeliveries()) {
+      deferTask(() -> registerPeriodicTask(task, startAt, period, fromNode), startAt);
+      return;
+    }
     PeriodicTask<TN> sw = new PeriodicTask<>(task, fromNode, period);
     msgs.addMsg(new Envelope.SingleDestEnvelope<>(sw, fromNode, fromNode, time, startAt));
   }
 
   public void registerPeriodicTask(
       final Runnable task, int startAt, int period, TN fromNode, Condition c) {
+    if (inParallelDeliveries()) {
+      deferTask(() -> registerPeriodicTask(task, startAt, period, fromNode, c), startAt);
+      return;
+    }
     PeriodicTask<TN> sw = new PeriodicTask<>(task, fromNode, period, c);
     msgs.addMsg(new Envelope.SingleDestEnvelope<>(sw, fromNode, fromNode, time, startAt));
   }
@@ -525,45 +1357,52 @@ public class Network<TN extends Node> {
       TN fromNode,
       Condition startIf,
       Condition repeatIf) {
+    if (inParallelDeliveries()) {
+      parallelDeliveries.defer(
+          () -> registerConditionalTask(task, startAt, duration, fromNode, startIf, repeatIf));
+      return;
+    }
     ConditionalTask<TN> ct =
         new ConditionalTask<>(startIf, repeatIf, task, startAt, fromNode, duration);
     conditionalTasks.add(ct);
   }
 
+  /**
+   * Nothing can happen between two messages, except the conditional tasks. So we can go directly to
+   * the next message or to the next conditional task that could start, instead of looking at all
+   * the milliseconds in between.
+   *
+   * @return the next time to look at, until + 1 if there is nothing to do until 'until'
+   */
+  private int nextEventTime(int until) {
+    int next = msgs.nextArrivalTime(time + 1);
+    if (next < 0 || next > until) {
+      next = until + 1;
+    }
+    int nextTask = conditionalTasks.nextStartTime();
+    if (nextTask < next) {
+      next = Math.max(time + 1, nextTask);
+    }
+    return next;
+  }
+
   private Envelope<?> nextMessage(int until) {
-    List<ConditionalTask<TN>> cts = null;
+    boolean scanning = false;
 
     while (time <= until) {
       Envelope<?> m = msgs.poll(time);
       if (m != null) {
         return m;
+      } else if (flushExternalDeliveries()) {
+        // The externals can add work for the current time, e.g. ExternalMockImplementation
+        continue;
       } else {
-        time++;
-
-        if (cts == null) {
-          cts = new ArrayList<>(conditionalTasks);
-        }
-
-        Iterator<ConditionalTask<TN>> it = cts.iterator();
-        while (it.hasNext()) {
-          ConditionalTask<TN> ct = it.next();
-          if (ct.minStartTime > until || ct.from.isDown()) {
-            it.remove();
-            continue;
-          }
-
-          if (ct.minStartTime <= time) {
-            it.remove();
-            if (ct.startIf.check()) {
-              assert ct.r != null;
-              ct.r.run();
-              ct.minStartTime = time + ct.duration;
-              if (!ct.repeatIf.check()) {
-                conditionalTasks.remove(ct);
-              }
-            }
-          }
+        if (!scanning) {
+          conditionalTasks.startScan();
+          scanning = true;
         }
+        time = nextEventTime(until);
+        conditionalTasks.startTasks(time, until);
       }
     }
     return null;
@@ -583,7 +1422,6 @@ public class Network<TN extends Node> {
     }
   }
 
-  @SuppressWarnings("unchecked")
   boolean receiveUntil(int until) {
     int previousTime = time;
     Envelope<?> next = nextMessage(until);
@@ -591,6 +1429,7 @@ public class Network<TN extends Node> {
       // If there is no message the state cannot change so we're done
       return false;
     }
+    boolean parallel = parallelDeliveries != null && !hasExternal();
     while (next != null) {
       Envelope<?> m = next;
       int na = m.nextArrivalTime(this);
@@ -600,46 +1439,140 @@ public class Network<TN extends Node> {
         }
       }
 
-      TN from = allNodes.get(m.getFromId());
-      TN to = allNodes.get(m.getNextDestId());
-
-      if (!to.isDown() && partitionId(from) == partitionId(to)) {
-        if (!(m.getMessage() instanceof Task<?>)) {
-          if (m.getMessage().size() == 0) {
-            throw new IllegalStateException("Message size should be greater than zero: " + m);
-          }
-          to.msgReceived++;
-          to.bytesReceived = Math.addExact(to.bytesReceived, m.getMessage().size());
-        }
-        @SuppressWarnings("unchecked")
-        Message<TN> mc = (Message<TN>) m.getMessage();
-        if (to.getExternal() != null) {
-          EnvelopeInfo<TN> ei = (EnvelopeInfo<TN>) m.curInfos(this);
-          List<SendMessage> sms = to.getExternal().receive(ei);
-          for (SendMessage sm : sms) {
-            List<TN> dest = sm.to.stream().map(this::getNodeById).collect(Collectors.toList());
-            Message<TN> mtn = (Message<TN>) sm.message;
-            send(mtn, sm.sendTime, getNodeById(sm.from), dest, sm.delayBetweenSend);
-          }
-        } else {
-          mc.action(this, from, to);
-        }
+      if (parallel) {
+        deliverInParallel(m);
+      } else {
+        deliver(m);
       }
 
-      m.markRead();
-      if (m.hasNextReader()) {
-        msgs.addMsg(m);
-      }
       previousTime = time;
       next = nextMessage(until);
     }
     return true;
   }
 
+  /**
+   * Gives the messages of the current millisecond to their External, a call per External, in the
+   * order of their first delivery. The messages they send back are sent in the order they are
+   * returned, so the run doesn't depend on the External's timing.
+   *
+   * @return true if there were messages to give.
+   */
+  @SuppressWarnings("unchecked")
+  private boolean flushExternalDeliveries() {
+    if (externalDeliveries.isEmpty()) {
+      return false;
+    }
+    List<External> externals = new ArrayList<>(externalDeliveries.keySet());
+    List<List<EnvelopeInfo<?>>> batches = new ArrayList<>(externalDeliveries.values());
+    externalDeliveries.clear();
+    for (int i = 0; i < externals.size(); i++) {
+      for (SendMessage sm : externals.get(i).receiveAll(batches.get(i))) {
+        List<TN> dest = sm.to.stream().map(this::getNodeById).collect(Collectors.toList());
+        Message<TN> mtn = (Message<TN>) sm.message;
+        send(mtn, sm.sendTime, getNodeById(sm.from), dest, sm.delayBetweenSend);
+      }
+    }
+    return true;
+  }
+
+  private boolean hasExternal() {
+    int changes = Node.externalChanges.get();
+    if (changes != externalChanges) {
+      hasExternal = false;
+      for (TN n : allNodes) {
+        if (n != null && n.getExternal() != null) {
+          hasExternal = true;
+          break;
+        }
+      }
+      externalChanges = changes;
+    }
+    return hasExternal;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void deliver(Envelope<?> m) {
+    TN from = allNodes.get(m.getFromId());
+    TN to = allNodes.get(m.getNextDestId());
+
+    if (to.getExternal() != null) {
+      if (!to.isDown() && samePartition(from, to)) {
+        countReceived(to, m.getMessage());
+        externalDeliveries
+            .computeIfAbsent(to.getExternal(), e -> new ArrayList<>())
+            .add(m.curInfos(this));
+      }
+    } else {
+      deliver(from, to, (Message<TN>) m.getMessage());
+    }
+
+    msgs.markRead(m);
+  }
+
+  /**
+   * Deliver 'first' and all the other envelopes arriving at the same time. The envelopes are read
+   * in the sequential order before the actions are executed: the actions can't send a message
+   * arriving at the current time.
+   */
+  @SuppressWarnings("unchecked")
+  private void deliverInParallel(Envelope<?> first) {
+    parallelDeliveries.clear();
+    for (Envelope<?> m = first; m != null; m = msgs.poll(time)) {
+      TN from = allNodes.get(m.getFromId());
+      TN to = allNodes.get(m.getNextDestId());
+      Message<TN> mc = (Message<TN>) m.getMessage();
+      Envelope<?> requeue = msgs.markReadNow(m);
+      parallelDeliveries.add(from, to, mc, requeue, requeue == null && m.hasNextReader());
+    }
+    parallelDeliveries.deliverAll();
+  }
+
+  /** Delivers sequentially the tasks registered to start at the current time. */
+  void deliverTasksNow() {
+    for (Envelope<?> m = msgs.poll(time); m != null; m = msgs.poll(time)) {
+      deliver(m);
+    }
+  }
+
+  /** Executes the message action if it can be received. Called by the delivery threads. */
+  void deliver(TN from, TN to, Message<TN> mc) {
+    if (!to.isDown() && samePartition(from, to)) {
+      countReceived(to, mc);
+      mc.action(this, from, to);
+    }
+  }
+
+  private static void countReceived(Node to, Message<?> mc) {
+    if (!(mc instanceof Task<?>)) {
+      if (mc.size() == 0) {
+        throw new IllegalStateException("Message size should be greater than zero: " + mc);
+      }
+      to.msgReceived++;
+      to.bytesReceived = Math.addExact(to.bytesReceived, mc.size());
+    }
+  }
+
   int partitionId(Node to) {
+    return partitions == null ? 0 : partitions[to.nodeId];
+  }
+
+  private boolean samePartition(Node a, Node b) {
+    return partitions == null || partitions[a.nodeId] == partitions[b.nodeId];
+  }
+
+  /** @return the partition of this node, calculated from the cuts or from the assignment. */
+  private int calcPartitionId(TN n) {
+    if (partitionOf != null) {
+      int pId = partitionOf.applyAsInt(n);
+      if (pId < Short.MIN_VALUE || pId > Short.MAX_VALUE) {
+        throw new IllegalArgumentException("partition id should fit in a short: " + pId);
+      }
+      return pId;
+    }
     int pId = 0;
     for (Integer x : partitionsInX) {
-      if (x > to.x) {
+      if (x > n.x) {
         return pId;
       } else {
         pId++;
@@ -648,6 +1581,19 @@ public class Network<TN extends Node> {
     return pId;
   }
 
+  private void updatePartitions() {
+    if (partitionsInX.isEmpty() && partitionOf == null) {
+      partitions = null;
+      return;
+    }
+    partitions = new short[allNodes.size()];
+    for (TN n : allNodes) {
+      if (n != null) {
+        partitions[n.nodeId] = (short) calcPartitionId(n);
+      }
+    }
+  }
+
   public void addNode(TN node) {
     while (allNodes.size() <= node.nodeId) {
       allNodes.add(null);
@@ -656,6 +1602,21 @@ public class Network<TN extends Node> {
       throw new IllegalStateException("There is already a node with this id (" + node.nodeId + ")");
     }
     allNodes.set(node.nodeId, node);
+    node.conditionalTasks = conditionalTasks;
+    seedNode(node);
+    if (node.getExternal() != null) {
+      externalChanges = -1;
+    }
+    if (partitions != null) {
+      if (partitions.length < allNodes.size()) {
+        partitions = Arrays.copyOf(partitions, allNodes.size());
+      }
+      partitions[node.nodeId] = (short) calcPartitionId(node);
+    }
+  }
+
+  private void seedNode(Node n) {
+    n.random.setSeed(SplitMixRandom.streamSeed(((NetworkRandom) rd).seed, n.nodeId));
   }
 
   public List<TN> liveNodes() {
@@ -694,15 +1655,41 @@ public class Network<TN extends Node> {
     if (part <= 0 || part >= 1) {
       throw new IllegalArgumentException("part needs to be a percentage between 0 & 100 excluded");
     }
+    if (partitionOf != null) {
+      throw new IllegalStateException("The network is partitioned with an assignment already");
+    }
     int xPoint = (int) (Node.MAX_X * part);
     if (partitionsInX.contains(xPoint)) {
       throw new IllegalArgumentException("this partition exists already");
     }
     partitionsInX.add(xPoint);
     Collections.sort(partitionsInX);
+    updatePartitions();
+  }
+
+  /**
+   * Partition the network with an explicit assignment, e.g. by city with {@code n -> n.cityId}: the
+   * nodes can communicate only with the nodes having the same partition id. It replaces the current
+   * partition, if any, and applies to the nodes added later as well.
+   */
+  public void partition(ToIntFunction<? super TN> partitionOf) {
+    partitionsInX.clear();
+    this.partitionOf = Objects.requireNonNull(partitionOf);
+    updatePartitions();
+  }
+
+  /** Isolates these nodes from the rest of the network. */
+  public void partition(Collection<? extends Node> isolated) {
+    BitSet ids = new BitSet();
+    for (Node n : isolated) {
+      ids.set(n.nodeId);
+    }
+    partition(n -> ids.get(n.nodeId) ? 1 : 0);
   }
 
   public void endPartition() {
     partitionsInX.clear();
+    partitionOf = null;
+    updatePartitions();
   }
 }
@@ -2,7 +2,7 @@ package net.consensys.wittgenstein.core;
 
 import java.util.*;
 import net.consensys.wittgenstein.core.utils.GeneralizedParetoDistribution;
-import net.consensys.wittgenstein.tools.CSVLatencyReader;
+import net.consensys.wittgenstein.tools.LatencyDataset;
 
 /**
  * Latency is sometimes the round-trip-time (RTT) sometimes the time for a one-way trip. Here it's
@@ -151,45 +151,84 @@ public abstract class NetworkLatency {
     }
   }
 
+  /**
+   * The latencies of the LatencyDataset in a flat array indexed by city ids, shared by all the
+   * models.
+   */
+  static final class CityLatencyMatrix {
+    private static final CityLatencyMatrix INSTANCE = new CityLatencyMatrix(LatencyDataset.get());
+
+    /** Number of rows and columns: the greatest id of a city with latencies, plus one. */
+    final int size;
+    /** Latency from city i to city j at i * size + j; NaN if we don't have it. */
+    final float[] latencies;
+
+    CityLatencyMatrix(LatencyDataset dataset) {
+      List<String> cities = dataset.cities();
+      int[] ids = new int[cities.size()];
+      int max = CityIds.DEFAULT;
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = CityIds.id(cities.get(i));
+        max = Math.max(max, ids[i]);
+      }
+
+      size = max + 1;
+      latencies = new float[size * size];
+      Arrays.fill(latencies, Float.NaN);
+      for (int f = 0; f < ids.length; f++) {
+        for (int t = 0; t < ids.length; t++) {
+          latencies[ids[f] * size + ids[t]] = dataset.latency(f, t);
+        }
+      }
+    }
+
+    static CityLatencyMatrix get() {
+      return INSTANCE;
+    }
+
+    float getLatency(int cityFrom, int cityTo) {
+      float res =
+          cityFrom >= 0 && cityFrom < size && cityTo >= 0 && cityTo < size
+              ? latencies[cityFrom * size + cityTo]
+              : Float.NaN;
+      if (Float.isNaN(res)) {
+        throw new IllegalArgumentException(
+            "Can't find latencies for " + CityIds.name(cityFrom) + " -> " + CityIds.name(cityTo));
+      }
+      return res;
+    }
+  }
+
   /**
    * Network latency depending on this city, taken from https://wondernetwork.com/ Latency between
    * two nodes in the same city is considered to be 1 (that's a little bit more than what you have
    * if you're in the same datacenter)
    */
   public static class NetworkLatencyByCity extends NetworkLatency {
-    private final Map<String, Map<String, Float>> latencyMatrix;
+    private final CityLatencyMatrix latencyMatrix;
 
     public NetworkLatencyByCity() {
-      CSVLatencyReader csvLatencyReader = new CSVLatencyReader();
-      this.latencyMatrix = csvLatencyReader.getLatencyMatrix();
+      this.latencyMatrix = CityLatencyMatrix.get();
+    }
+
+    protected void checkCities(Node from, Node to) {
+      if (from.cityId == CityIds.DEFAULT || to.cityId == CityIds.DEFAULT) {
+        throw new IllegalStateException(
+            "Can't use NetworkLatencyByCity model with default city location");
+      }
     }
 
     public int getExtendedLatency(Node from, Node to, int delta) {
       if (from.nodeId == to.nodeId) {
         return 1;
       }
+      checkCities(from, to);
 
-      String cityFrom = from.cityName;
-      String cityTo = to.cityName;
-
-      if (cityFrom.equals(Node.DEFAULT_CITY) || cityTo.equals(Node.DEFAULT_CITY)) {
-        throw new IllegalStateException(
-            "Can't use NetworkLatencyByCity model with default city location");
-      }
-
-      return Math.max(1, Math.round(0.5f * getLatency(cityFrom, cityTo)));
+      return Math.max(1, Math.round(0.5f * getLatency(from.cityId, to.cityId)));
     }
 
-    protected float getLatency(String cityFrom, String cityTo) {
-      Map<String, Float> from = latencyMatrix.get(cityFrom);
-      if (from == null) {
-        throw new IllegalArgumentException("Can't find latencies for " + cityFrom);
-      }
-      Float res = from.get(cityTo);
-      if (res == null) {
-        res = latencyMatrix.get(cityTo).get(cityFrom);
-      }
-      return res;
+    protected float getLatency(int cityFrom, int cityTo) {
+      return latencyMatrix.getLatency(cityFrom, cityTo);
     }
   }
 
@@ -200,10 +239,17 @@ public abstract class NetworkLatency {
   public static class NetworkLatencyByCityWJitter extends NetworkLatencyByCity {
     final GeneralizedParetoDistribution gpd = new GeneralizedParetoDistribution(1.4, -0.3, 0.35);
 
-    public NetworkLatencyByCityWJitter() {}
+    /** The jitter for all the possible deltas, as the distribution is costly to evaluate. */
+    private final double[] jitters = new double[100];
+
+    public NetworkLatencyByCityWJitter() {
+      for (int i = 0; i < jitters.length; i++) {
+        jitters[i] = gpd.inverseF(i / 100.0);
+      }
+    }
 
     private double getJitter(int delta) {
-      return gpd.inverseF(delta / 100.0);
+      return delta >= 0 && delta < jitters.length ? jitters[delta] : gpd.inverseF(delta / 100.0);
     }
 
     @Override
@@ -211,21 +257,15 @@ public abstract class NetworkLatency {
       if (from.nodeId == to.nodeId) {
         return 1;
       }
-
-      String cityFrom = from.cityName;
-      String cityTo = to.cityName;
-      if (cityFrom.equals(Node.DEFAULT_CITY) || cityTo.equals(Node.DEFAULT_CITY)) {
-        throw new IllegalStateException(
-            "Can't use NetworkLatencyByCity model with default city location");
-      }
+      checkCities(from, to);
 
       double raw = getJitter(delta);
-      if (cityFrom.equals(cityTo)) {
+      if (from.cityId == to.cityId) {
         // Latency inside a city depends on many factor. This is a reasonable approximation,
         //  maybe on the pessimistic side.
         raw += 10;
       } else {
-        raw += getLatency(cityFrom, cityTo);
+        raw += getLatency(from.cityId, to.cityId);
       }
 
       return Math.max(1, (int) Math.round(0.5 * raw));
@@ -1,5 +1,6 @@
 package net.consensys.wittgenstein.core;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import java.io.Closeable;
@@ -8,6 +9,7 @@ import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 import net.consensys.wittgenstein.core.json.ExternalConverter;
 import net.consensys.wittgenstein.core.utils.GeneralizedParetoDistribution;
+import net.consensys.wittgenstein.core.utils.SplitMixRandom;
 
 @SuppressWarnings({"WeakerAccess"})
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "type")
@@ -62,12 +64,25 @@ public class Node implements Closeable {
   /** For some model latency we need to know in which town the node is. */
   public final String cityName;
 
+  /** The id of cityName, used by the latency models to index their tables. */
+  public final int cityId;
+
+  /**
+   * The random generator of this node, for the decisions taken by the node during the run. Its
+   * values don't depend on the draws of the other nodes, so the results don't change with the
+   * processing order of the events. The network seeds it from its own seed and the node id.
+   */
+  @JsonIgnore public final Random random;
+
   /**
    * A basic error scenario is a node down. When a node is down it cannot receive not send messages,
    * but the other nodes don't know about this.
    */
   private boolean down;
 
+  /** The conditional tasks of the network of this node, told when the node starts. */
+  @JsonIgnore ConditionalTaskQueue<?> conditionalTasks;
+
   /** The time when the protocol ended for this node 0 if it has not ended yet. */
   public long doneAt = 0;
 
@@ -87,6 +102,9 @@ public class Node implements Closeable {
   @JsonSerialize(converter = ExternalConverter.class)
   private External external = null;
 
+  /** Incremented each time an External is set, so the networks don't look for them each time. */
+  static final AtomicInteger externalChanges = new AtomicInteger();
+
   public long getMsgReceived() {
     return msgReceived;
   }
@@ -119,6 +137,9 @@ public class Node implements Closeable {
   /** Called when a node starts or restarts. */
   public void start() {
     down = false;
+    if (conditionalTasks != null) {
+      conditionalTasks.nodeStarted(this);
+    }
   }
 
   /** Called when a node is stopped. */
@@ -132,6 +153,7 @@ public class Node implements Closeable {
 
   public void setExternal(External ext) {
     this.external = ext;
+    externalChanges.incrementAndGet();
   }
 
   public External getExternal() {
@@ -249,8 +271,10 @@ public class Node implements Closeable {
     if (this.nodeId < 0) {
       throw new IllegalArgumentException("bad nodeId:" + nodeId);
     }
+    this.random = new SplitMixRandom(0, nodeId);
     int rdNode = rd.nextInt();
     this.cityName = nb.getCityName(rdNode);
+    this.cityId = nb.getCityId(cityName);
     this.x = nb.getX(rdNode);
     this.y = nb.getY(rdNode);
     if (this.x <= 0 || this.x > MAX_X) {
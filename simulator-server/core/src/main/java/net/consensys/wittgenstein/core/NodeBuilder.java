@@ -7,6 +7,7 @@ import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -20,16 +21,20 @@ public class NodeBuilder implements Cloneable {
   /** Last node id allocated. */
   private int nodeIds = 0;
   /** Used to calculate a hash */
-  private final MessageDigest digest;
+  private MessageDigest digest;
   /** List of the aspects we can add to the node (speed, latency, ...) */
   public final List<Node.Aspect> aspects = new ArrayList<>();
 
   /** Unique reference shared by all nodes when they need to allocate a unique id. */
-  private final AtomicInteger uIntId = new AtomicInteger();
+  private AtomicInteger uIntId = new AtomicInteger();
 
   public NodeBuilder() {
+    digest = createDigest();
+  }
+
+  private static MessageDigest createDigest() {
     try {
-      digest = MessageDigest.getInstance("SHA-256");
+      return MessageDigest.getInstance("SHA-256");
     } catch (NoSuchAlgorithmException e) {
       throw new IllegalStateException();
     }
@@ -37,12 +42,15 @@ public class NodeBuilder implements Cloneable {
 
   /**
    * Same node builder with the node ids reset to zero, allowing to construct another network with
-   * the same parameters.
+   * the same parameters. The copy shares nothing mutable with the original, so networks built from
+   * different copies can run in different threads.
    */
   public NodeBuilder copy() {
     try {
       NodeBuilder nb = (NodeBuilder) this.clone();
       nb.nodeIds = 0;
+      nb.uIntId = new AtomicInteger();
+      nb.digest = createDigest();
       return nb;
     } catch (CloneNotSupportedException e) {
       throw new IllegalStateException(e);
@@ -65,6 +73,10 @@ public class NodeBuilder implements Cloneable {
     return Node.DEFAULT_CITY;
   }
 
+  protected int getCityId(String cityName) {
+    return CityIds.id(cityName);
+  }
+
   /** Many protocols wants a hash of the node id. */
   protected byte[] getHash(int nodeId) {
     return digest.digest(ByteBuffer.allocate(4).putInt(nodeId).array());
@@ -98,6 +110,8 @@ public class NodeBuilder implements Cloneable {
   public static class NodeBuilderWithCity extends NodeBuilder {
     final List<String> cities;
     final Map<String, CityInfo> citiesInfo;
+    /** The ids of the cities in citiesInfo, interned once for all the nodes we will build. */
+    final Map<String, Integer> cityIds = new HashMap<>();
 
     public NodeBuilderWithCity(List<String> cities, Geo geoInfo) {
       this.cities = cities.stream().map(String::toUpperCase).collect(Collectors.toList());
@@ -106,6 +120,9 @@ public class NodeBuilder implements Cloneable {
           geoInfo.citiesPosition().entrySet().stream()
               .filter(x -> this.cities.contains(x.getKey().toUpperCase()))
               .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+      for (String city : citiesInfo.keySet()) {
+        cityIds.put(city, CityIds.id(city));
+      }
     }
 
     @Override
@@ -113,6 +130,12 @@ public class NodeBuilder implements Cloneable {
       return getRandomCityInfo(rdInt);
     }
 
+    @Override
+    protected int getCityId(String cityName) {
+      Integer id = cityIds.get(cityName);
+      return id != null ? id : super.getCityId(cityName);
+    }
+
     public Map<String, CityInfo> getCitiesInfo() {
       return this.citiesInfo;
     }
@@ -2,6 +2,7 @@ package net.consensys.wittgenstein.core;
 
 import java.util.*;
 import net.consensys.wittgenstein.core.messages.FloodMessage;
+import net.consensys.wittgenstein.core.utils.LongHashSet;
 
 /**
  * A peer-to-peer network, i.e. network with nodes interconnected with a small number of peers
@@ -11,7 +12,12 @@ import net.consensys.wittgenstein.core.messages.FloodMessage;
 public class P2PNetwork<TN extends P2PNode<TN>> extends Network<TN> {
   private final int connectionCount;
   private final boolean minimum;
-  private Set<Long> existingLinks = new HashSet<>();
+
+  /** The links, as (smallest node id << 32) + highest node id. */
+  private final LongHashSet existingLinks = new LongHashSet();
+
+  /** The peers of each node, read by P2PNode#peers. */
+  final PeerGraph peerGraph = new PeerGraph();
 
   /**
    * @param connectionCount - the target for the number of connection
@@ -23,6 +29,48 @@ public class P2PNetwork<TN extends P2PNode<TN>> extends Network<TN> {
     this.minimum = minimum;
   }
 
+  @Override
+  public void addNode(TN node) {
+    super.addNode(node);
+    node.network = this;
+    peerGraph.ensureNodes(allNodes.size());
+  }
+
+  /** The links created by setPeers, added to the peer graph all at once at the end. */
+  private final class NewLinks {
+    final int[] degree;
+    int[] n1 = new int[1024];
+    int[] n2 = new int[1024];
+    int count;
+
+    NewLinks() {
+      degree = new int[allNodes.size()];
+      for (int i = 0; i < degree.length; i++) {
+        degree[i] = peerGraph.degree(i);
+      }
+    }
+
+    void create(int pp1, int pp2) {
+      if (pp1 == pp2 || !existingLinks.add(link(pp1, pp2))) {
+        return;
+      }
+      checkNodes(pp1, pp2);
+      if (count == n1.length) {
+        n1 = Arrays.copyOf(n1, count * 2);
+        n2 = Arrays.copyOf(n2, count * 2);
+      }
+      n1[count] = pp1;
+      n2[count] = pp2;
+      count++;
+      degree[pp1]++;
+      degree[pp2]++;
+    }
+  }
+
+  /**
+   * Creates the links between the nodes. The links are added to the nodes' peers at the end, all at
+   * once.
+   */
   public void setPeers() {
     if (connectionCount >= allNodes.size()) {
       throw new IllegalArgumentException(
@@ -32,26 +80,42 @@ public class P2PNetwork<TN extends P2PNode<TN>> extends Network<TN> {
               + connectionCount);
     }
 
+    int nodeCount = allNodes.size();
+    NewLinks links = new NewLinks();
     if (!minimum) {
-      int toCreate = (allNodes.size() * connectionCount) / 2;
-      while (toCreate != existingLinks.size()) {
-        int pp1 = rd.nextInt(allNodes.size());
-        int pp2 = rd.nextInt(allNodes.size());
-        createLink(existingLinks, pp1, pp2);
+      long toCreate = ((long) nodeCount * connectionCount) / 2;
+      while (existingLinks.size() < toCreate) {
+        int pp1 = rd.nextInt(nodeCount);
+        int pp2 = rd.nextInt(nodeCount);
+        links.create(pp1, pp2);
       }
     }
 
-    // We need to go through the list in a random order, if not we can
+    // We need to go through the nodes in a random order, if not we can
     //  have some side effects if all the dead nodes are at the beginning for example.
-    // For this reason we work on a shuffled version of the node list.
-    ArrayList<TN> an = new ArrayList<>(allNodes);
-    Collections.shuffle(an, rd);
-    for (TN n : an) {
-      while (n.peers.size() < (minimum ? connectionCount : Math.min(3, this.connectionCount))) {
-        int pp2 = rd.nextInt(allNodes.size());
-        createLink(existingLinks, n.nodeId, pp2);
+    // The shuffle is the one of Collections#shuffle, so the links are the same as with a list.
+    int[] order = new int[nodeCount];
+    for (int i = 0; i < nodeCount; i++) {
+      order[i] = i;
+    }
+    shuffle(order, rd);
+    int min = minimum ? connectionCount : Math.min(3, this.connectionCount);
+    for (int id : order) {
+      while (links.degree[id] < min) {
+        links.create(id, rd.nextInt(nodeCount));
       }
     }
+
+    peerGraph.addAll(links.n1, links.n2, links.count);
+  }
+
+  private static void shuffle(int[] a, Random rd) {
+    for (int i = a.length; i > 1; i--) {
+      int j = rd.nextInt(i);
+      int t = a[i - 1];
+      a[i - 1] = a[j];
+      a[j] = t;
+    }
   }
 
   public void disconnect(TN p) {
@@ -61,55 +125,40 @@ public class P2PNetwork<TN extends P2PNode<TN>> extends Network<TN> {
   }
 
   public void createLink(TN p1, TN p2) {
-    createLink(existingLinks, p1.nodeId, p2.nodeId);
+    int pp1 = p1.nodeId;
+    int pp2 = p2.nodeId;
+    if (pp1 == pp2 || !existingLinks.add(link(pp1, pp2))) {
+      return;
+    }
+    checkNodes(pp1, pp2);
+    peerGraph.add(pp1, pp2);
   }
 
   public void removeLink(TN p1, TN p2) {
-    removeLink(existingLinks, p1.nodeId, p2.nodeId);
-  }
-
-  private void createLink(Set<Long> existingLinks, int pp1, int pp2) {
+    int pp1 = p1.nodeId;
+    int pp2 = p2.nodeId;
     if (pp1 == pp2) {
       return;
     }
-    long l1 = Math.min(pp1, pp2);
-    long l2 = Math.max(pp1, pp2);
-    long link = (l1 << 32) + l2;
-    if (!existingLinks.add(link)) {
-      return;
-    }
-
-    TN p1 = allNodes.get(pp1);
-    TN p2 = allNodes.get(pp2);
-
-    if (p1 == null || p2 == null) {
-      throw new IllegalStateException(
-          "should not be null: p1=" + p1 + ", p2=" + p2 + ", pp1=" + pp1 + ", pp2=" + pp2);
+    if (!existingLinks.remove(link(pp1, pp2))) {
+      throw new IllegalStateException("link between " + pp1 + " and " + pp2 + " does not exist");
     }
-
-    p1.peers.add(p2);
-    p2.peers.add(p1);
+    peerGraph.remove(pp1, pp2);
   }
 
-  private void removeLink(Set<Long> existingLinks, int pp1, int pp2) {
-    if (pp1 == pp2) {
-      return;
-    }
+  private static long link(int pp1, int pp2) {
     long l1 = Math.min(pp1, pp2);
     long l2 = Math.max(pp1, pp2);
-    long link = (l1 << 32) + l2;
-    if (!existingLinks.remove(link)) {
-      throw new IllegalStateException("link between " + pp1 + " and " + pp2 + " does not exist");
-    }
+    return (l1 << 32) + l2;
+  }
+
+  private void checkNodes(int pp1, int pp2) {
     TN p1 = allNodes.get(pp1);
     TN p2 = allNodes.get(pp2);
     if (p1 == null || p2 == null) {
       throw new IllegalStateException(
           "should not be null: p1=" + p1 + ", p2=" + p2 + ", pp1=" + pp1 + ", pp2=" + pp2);
     }
-
-    p1.peers.remove(p2);
-    p2.peers.remove(p1);
   }
 
   public int avgPeers() {
@@ -125,9 +174,7 @@ public class P2PNetwork<TN extends P2PNode<TN>> extends Network<TN> {
   }
 
   public void sendPeers(FloodMessage<TN> msg, TN from) {
-    msg.addToReceived(from);
-    List<TN> dest = new ArrayList<>(from.peers);
-    Collections.shuffle(dest, rd);
-    send(msg, from, dest);
+    msg.addToReceived(from, time);
+    msg.sendPeers(this, from, null);
   }
 }
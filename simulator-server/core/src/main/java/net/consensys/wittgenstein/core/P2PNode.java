@@ -1,19 +1,41 @@
 package net.consensys.wittgenstein.core;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import java.util.*;
 import net.consensys.wittgenstein.core.json.ListNodeConverter;
+import net.consensys.wittgenstein.core.messages.BoundedSeenMessages;
 import net.consensys.wittgenstein.core.messages.FloodMessage;
+import net.consensys.wittgenstein.core.messages.SeenMessages;
 
 public class P2PNode<TN extends P2PNode> extends Node {
 
+  /**
+   * The peers of this node, a read-only view of the links of its network. They are changed with
+   * P2PNetwork#createLink and P2PNetwork#removeLink.
+   */
   @JsonSerialize(converter = ListNodeConverter.class)
-  public final List<TN> peers = new ArrayList<>();
+  public final List<TN> peers = new Peers();
 
-  protected Map<Long, Set<FloodMessage>> received = new HashMap<>();
+  /** The network this node was added to, null if none. */
+  @JsonIgnore P2PNetwork<?> network;
 
+  /** The flood messages seen by this node. By default they are all kept. */
+  private SeenMessages seenMessages = new BoundedSeenMessages();
+
+  /** @return the flood messages received with this id, as a read-only set. */
   public Set<FloodMessage> getMsgReceived(long id) {
-    return received.computeIfAbsent(id, k -> new HashSet<>());
+    return seenMessages.get(id);
+  }
+
+  @JsonIgnore
+  public SeenMessages getSeenMessages() {
+    return seenMessages;
+  }
+
+  /** Replaces the store of the seen flood messages. To be called before any message is received. */
+  public void setSeenMessages(SeenMessages seenMessages) {
+    this.seenMessages = seenMessages;
   }
 
   public P2PNode(Random rd, NodeBuilder nb) {
@@ -25,4 +47,33 @@ public class P2PNode<TN extends P2PNode> extends Node {
   }
 
   public void onFlood(TN from, FloodMessage floodMessage) {}
+
+  private final class Peers extends AbstractList<TN> implements RandomAccess {
+    @Override
+    @SuppressWarnings("unchecked")
+    public TN get(int index) {
+      if (network == null) {
+        throw new IndexOutOfBoundsException("node " + nodeId + " is not in a p2p network");
+      }
+      return (TN) network.getNodeById(network.peerGraph.peer(nodeId, index));
+    }
+
+    @Override
+    public int size() {
+      return network == null ? 0 : network.peerGraph.degree(nodeId);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+      if (network == null || !(o instanceof Node)) {
+        return -1;
+      }
+      return network.peerGraph.indexOf(nodeId, ((Node) o).nodeId);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return indexOf(o) >= 0;
+    }
+  }
 }
@@ -0,0 +1,242 @@
+package net.consensys.wittgenstein.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.consensys.wittgenstein.core.messages.Message;
+
+/**
+ * Delivers the messages arriving at the same millisecond on a pool of threads. The latency is at
+ * least 1ms, so nothing sent during this millisecond can arrive before the next one: the deliveries
+ * of a millisecond depend only on what happened before it. The destination nodes are split between
+ * the threads, each thread delivering the messages of its nodes in the sequential order.
+ *
+ * <p>The messages sent and the tasks registered during a delivery are kept in the outbox of this
+ * delivery. Once all the deliveries of the millisecond are done, the outboxes are executed by the
+ * simulation thread in the sequential order, so the random draws of the network and the order of
+ * the message queue are the same as with a sequential execution.
+ *
+ * <p>A task registered to start at the current time would run, with a sequential execution, before
+ * the next deliveries to its node. So once a delivery registers such a task the thread skips the
+ * next deliveries to this node, and the simulation thread delivers them sequentially, the tasks of
+ * the millisecond being run where the sequential execution would run them.
+ *
+ * <p>It requires the message actions, and the tasks they register for the current time, to modify
+ * only their destination node. They must use the random generator of this node: the values drawn
+ * from the network one would depend on the thread scheduling, so it fails instead.
+ */
+final class ParallelDeliveries<TN extends Node> {
+  /** Below this number of deliveries we don't use the threads, it would be slower. */
+  static final int MIN_PARALLEL_DELIVERIES = 32;
+
+  /** A message to deliver, with the actions it generated. */
+  static final class Delivery<TN extends Node> {
+    TN from;
+    TN to;
+    Message<TN> message;
+
+    /** The envelope to queue again after the outbox, if it has other destinations later. */
+    Envelope<?> requeue;
+
+    /** True if the next delivery of this millisecond is for the same envelope. */
+    boolean continues;
+
+    /** True if the outbox registers a task starting at the current time. */
+    boolean tasksNow;
+
+    /** True if the thread didn't deliver it, it's delivered by the simulation thread. */
+    boolean skipped;
+
+    final List<Runnable> outbox = new ArrayList<>();
+  }
+
+  private final Network<TN> network;
+  private final int threads;
+  private final AtomicInteger threadCount = new AtomicInteger();
+  /** Created when needed, shut down at the end of each run. */
+  private ExecutorService executor;
+
+  private final List<Callable<Void>> workers = new ArrayList<>();
+  private final ThreadLocal<Delivery<TN>> current = new ThreadLocal<>();
+
+  /** The deliveries of the current millisecond; the objects are reused from one ms to another. */
+  private final List<Delivery<TN>> deliveries = new ArrayList<>();
+
+  private int size;
+
+  /** Set while the threads are delivering, only the outboxes can be modified then. */
+  private boolean running;
+
+  ParallelDeliveries(Network<TN> network, int threads) {
+    if (threads < 2) {
+      throw new IllegalArgumentException("threads must be greater than 1: " + threads);
+    }
+    this.network = network;
+    this.threads = threads;
+    for (int i = 0; i < threads; i++) {
+      final int worker = i;
+      workers.add(
+          () -> {
+            deliver(worker);
+            return null;
+          });
+    }
+  }
+
+  boolean isRunning() {
+    return running;
+  }
+
+  void clear() {
+    for (int i = 0; i < size; i++) {
+      Delivery<TN> d = deliveries.get(i);
+      d.from = null;
+      d.to = null;
+      d.message = null;
+      d.requeue = null;
+      d.continues = false;
+      d.tasksNow = false;
+      d.skipped = false;
+      d.outbox.clear();
+    }
+    size = 0;
+  }
+
+  void add(TN from, TN to, Message<TN> message, Envelope<?> requeue, boolean continues) {
+    if (size == deliveries.size()) {
+      deliveries.add(new Delivery<>());
+    }
+    Delivery<TN> d = deliveries.get(size++);
+    d.from = from;
+    d.to = to;
+    d.message = message;
+    d.requeue = requeue;
+    d.continues = continues;
+  }
+
+  /** Adds an action to the outbox of the delivery in progress on this thread. */
+  void defer(Runnable action) {
+    current().outbox.add(action);
+  }
+
+  /**
+   * Adds to the outbox the registration of a task starting at the current time. The next deliveries
+   * to this node will be delivered after the task, by the simulation thread.
+   */
+  void deferTaskNow(Runnable register) {
+    Delivery<TN> d = current();
+    d.outbox.add(register);
+    d.tasksNow = true;
+  }
+
+  private Delivery<TN> current() {
+    Delivery<TN> d = current.get();
+    if (d == null) {
+      throw new IllegalStateException("No delivery in progress on " + Thread.currentThread());
+    }
+    return d;
+  }
+
+  /**
+   * Delivers the messages added since the last clear, then executes their outboxes. The tasks
+   * starting at the current time are delivered after the last delivery of the envelope that
+   * registered them, as the sequential execution takes the messages of a millisecond last in first
+   * out.
+   */
+  void deliverAll() {
+    boolean parallel = size >= MIN_PARALLEL_DELIVERIES;
+    if (parallel) {
+      deliverInThreads();
+    }
+
+    boolean tasksNow = false;
+    for (int i = 0; i < size; i++) {
+      Delivery<TN> d = deliveries.get(i);
+      if (parallel && !d.skipped) {
+        for (Runnable r : d.outbox) {
+          r.run();
+        }
+      } else {
+        network.deliver(d.from, d.to, d.message);
+      }
+      network.msgs.requeue(d.requeue);
+
+      // We don't know what a sequential delivery registered, we have to look at the queue
+      tasksNow |= d.tasksNow || !parallel || d.skipped;
+      if (tasksNow && !d.continues) {
+        network.deliverTasksNow();
+        tasksNow = false;
+      }
+    }
+  }
+
+  private void deliverInThreads() {
+    if (executor == null) {
+      executor =
+          Executors.newFixedThreadPool(
+              threads,
+              r -> {
+                Thread t = new Thread(r, "network-delivery-" + threadCount.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+              });
+    }
+
+    running = true;
+    try {
+      for (Future<Void> f : executor.invokeAll(workers)) {
+        f.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      running = false;
+    }
+  }
+
+  private void deliver(int worker) {
+    // The nodes with a task starting now: their next deliveries must wait for the task
+    BitSet waiting = null;
+    try {
+      for (int i = 0; i < size; i++) {
+        Delivery<TN> d = deliveries.get(i);
+        if (d.to.nodeId % threads == worker) {
+          if (waiting != null && waiting.get(d.to.nodeId)) {
+            d.skipped = true;
+            continue;
+          }
+          current.set(d);
+          network.deliver(d.from, d.to, d.message);
+          if (d.tasksNow) {
+            if (waiting == null) {
+              waiting = new BitSet();
+            }
+            waiting.set(d.to.nodeId);
+          }
+        }
+      }
+    } finally {
+      current.remove();
+    }
+  }
+
+  /** Stops the threads. They will be created again if there are other deliveries. */
+  void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package net.consensys.wittgenstein.core;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * Executes the independent runs of a scenario (one per random seed) on a bounded pool of threads.
+ * Each run must work on its own copy of the protocol: the results are the same as a sequential
+ * execution as long as the protocol does not share mutable static state between its copies.
+ */
+class ParallelRuns {
+
+  private ParallelRuns() {}
+
+  /**
+   * Runs 'run' for all the seeds from 0 to runCount - 1, with at most 'parallelism' runs at the
+   * same time.
+   *
+   * @return the results, in seed order whatever the execution order.
+   */
+  static <R> List<R> map(int runCount, int parallelism, IntFunction<R> run) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be greater than 0: " + parallelism);
+    }
+
+    List<R> res = new ArrayList<>(runCount);
+    if (parallelism == 1 || runCount <= 1) {
+      for (int i = 0; i < runCount; i++) {
+        res.add(run.apply(i));
+      }
+      return res;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, runCount));
+    try {
+      List<Future<R>> futures = new ArrayList<>(runCount);
+      for (int i = 0; i < runCount; i++) {
+        final int seed = i;
+        futures.add(executor.submit(() -> run.apply(seed)));
+      }
+      for (Future<R> f : futures) {
+        res.add(f.get());
+      }
+      return res;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Checks that the protocol's classes don't have mutable static fields: they would be shared
+   * between runs executed in parallel. We look at the protocol class, its super classes, their
+   * inner classes and the classes of the nodes already created.
+   *
+   * @throws IllegalStateException if there is such a field.
+   */
+  static void checkNoSharedStaticState(Protocol p) {
+    Set<Class<?>> toCheck = new HashSet<>();
+    addClass(toCheck, p.getClass());
+    for (Node n : p.network().allNodes) {
+      addClass(toCheck, n.getClass());
+    }
+
+    List<String> shared = new ArrayList<>();
+    for (Class<?> c : toCheck) {
+      for (Field f : c.getDeclaredFields()) {
+        int m = f.getModifiers();
+        if (Modifier.isStatic(m) && !Modifier.isFinal(m) && !f.isSynthetic()) {
+          shared.add(c.getName() + "." + f.getName());
+        }
+      }
+    }
+
+    if (!shared.isEmpty()) {
+      throw new IllegalStateException(
+          p + " can't be run in parallel, it has mutable static fields: " + shared);
+    }
+  }
+
+  private static void addClass(Set<Class<?>> toCheck, Class<?> c) {
+    while (c != null && c != Object.class && toCheck.add(c)) {
+      for (Class<?> inner : c.getDeclaredClasses()) {
+        addClass(toCheck, inner);
+      }
+      c = c.getSuperclass();
+    }
+  }
+}
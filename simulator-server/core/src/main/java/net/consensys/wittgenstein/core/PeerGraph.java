@@ -0,0 +1,162 @@
+package net.consensys.wittgenstein.core;
+
+import java.util.Arrays;
+
+/**
+ * The links between the nodes of a P2PNetwork, as node ids in a compressed sparse row layout: the
+ * peers of all the nodes are in a single int array, each node having its own segment in this array.
+ * The peers of a node are kept in the order the links were created.
+ *
+ * <p>When a node's segment is full, it's moved to the end of the array with twice the capacity. The
+ * array is compacted when the space left by the moved segments becomes too large.
+ */
+final class PeerGraph {
+  private static final int[] EMPTY = new int[0];
+  private static final int MIN_CAPACITY = 4;
+
+  /** Where the segment of each node starts in 'peers'. */
+  private int[] start = EMPTY;
+
+  private int[] degree = EMPTY;
+  private int[] capacity = EMPTY;
+  private int[] peers = EMPTY;
+
+  /** The end of the used part of 'peers'. */
+  private int end;
+
+  /** The space in 'peers' not used anymore because its segment was moved. */
+  private int holes;
+
+  void ensureNodes(int nodeCount) {
+    if (nodeCount > degree.length) {
+      int size = Math.max(nodeCount, degree.length * 2);
+      start = Arrays.copyOf(start, size);
+      degree = Arrays.copyOf(degree, size);
+      capacity = Arrays.copyOf(capacity, size);
+    }
+  }
+
+  int degree(int node) {
+    return node < degree.length ? degree[node] : 0;
+  }
+
+  /** @return the id of the i-th peer of this node. */
+  int peer(int node, int i) {
+    if (i < 0 || i >= degree(node)) {
+      throw new IndexOutOfBoundsException("node " + node + " has no peer " + i);
+    }
+    return peers[start[node] + i];
+  }
+
+  /** @return the position of 'peer' in the peers of 'node', -1 if they are not linked. */
+  int indexOf(int node, int peer) {
+    if (node >= degree.length) {
+      return -1;
+    }
+    int s = start[node];
+    for (int i = 0; i < degree(node); i++) {
+      if (peers[s + i] == peer) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Links the two nodes. The caller checks that they are not already linked. */
+  void add(int n1, int n2) {
+    ensureNodes(Math.max(n1, n2) + 1);
+    append(n1, n2);
+    append(n2, n1);
+  }
+
+  void remove(int n1, int n2) {
+    removePeer(n1, n2);
+    removePeer(n2, n1);
+  }
+
+  /**
+   * Adds many links at once, in a new array without holes, the segments being exactly the size
+   * needed. The result is the same as with a call to add for each link.
+   */
+  void addAll(int[] n1, int[] n2, int count) {
+    int maxNode = -1;
+    for (int i = 0; i < count; i++) {
+      maxNode = Math.max(maxNode, Math.max(n1[i], n2[i]));
+    }
+    ensureNodes(maxNode + 1);
+
+    int[] newDegree = Arrays.copyOf(degree, degree.length);
+    for (int i = 0; i < count; i++) {
+      newDegree[n1[i]]++;
+      newDegree[n2[i]]++;
+    }
+
+    int[] newStart = new int[degree.length];
+    int total = 0;
+    for (int n = 0; n < degree.length; n++) {
+      newStart[n] = total;
+      total += newDegree[n];
+    }
+    int[] newPeers = new int[total];
+    for (int n = 0; n < degree.length; n++) {
+      System.arraycopy(peers, start[n], newPeers, newStart[n], degree[n]);
+    }
+
+    start = newStart;
+    capacity = newDegree;
+    degree = Arrays.copyOf(degree, degree.length);
+    peers = newPeers;
+    end = total;
+    holes = 0;
+    for (int i = 0; i < count; i++) {
+      peers[start[n1[i]] + degree[n1[i]]++] = n2[i];
+      peers[start[n2[i]] + degree[n2[i]]++] = n1[i];
+    }
+  }
+
+  private void append(int node, int peer) {
+    if (degree[node] == capacity[node]) {
+      move(node, Math.max(MIN_CAPACITY, capacity[node] * 2));
+    }
+    peers[start[node] + degree[node]++] = peer;
+  }
+
+  private void removePeer(int node, int peer) {
+    int pos = indexOf(node, peer);
+    if (pos < 0) {
+      throw new IllegalStateException("node " + node + " is not linked to " + peer);
+    }
+    int s = start[node];
+    System.arraycopy(peers, s + pos + 1, peers, s + pos, degree[node] - pos - 1);
+    degree[node]--;
+  }
+
+  private void move(int node, int newCapacity) {
+    if (end + newCapacity > peers.length) {
+      if (holes > end / 2) {
+        compact();
+      }
+      if (end + newCapacity > peers.length) {
+        peers = Arrays.copyOf(peers, Math.max(peers.length * 2, end + newCapacity));
+      }
+    }
+    System.arraycopy(peers, start[node], peers, end, degree[node]);
+    holes += capacity[node];
+    start[node] = end;
+    capacity[node] = newCapacity;
+    end += newCapacity;
+  }
+
+  private void compact() {
+    int[] newPeers = new int[peers.length];
+    int pos = 0;
+    for (int n = 0; n < degree.length; n++) {
+      System.arraycopy(peers, start[n], newPeers, pos, degree[n]);
+      start[n] = pos;
+      pos += capacity[n];
+    }
+    peers = newPeers;
+    end = pos;
+    holes = 0;
+  }
+}
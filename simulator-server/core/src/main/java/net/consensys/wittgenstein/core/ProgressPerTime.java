@@ -22,6 +22,7 @@ public class ProgressPerTime {
   private final OnSingleRunEnd endCallback;
   private final int statEachXms;
   private final TimeUnit timeUnit;
+  private int parallelism = 1;
 
   public ProgressPerTime(
       Protocol template,
@@ -51,7 +52,36 @@ public class ProgressPerTime {
     void end(Protocol p);
   }
 
+  /**
+   * Run the rounds on 'parallelism' threads. The series and the averages are merged in round order,
+   * so the graph is the same as with a sequential execution. Protocols with mutable static fields
+   * are rejected. With more than one thread the end callback is called under a lock, in the order
+   * the rounds finish.
+   */
+  public ProgressPerTime setParallelism(int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be greater than 0: " + parallelism);
+    }
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /** What we keep from a round once it's done. */
+  private static class RoundResult {
+    final Map<String, Graph.Series> rawResult = new HashMap<>();
+    StatsHelper.SimpleStats bytesSent;
+    StatsHelper.SimpleStats bytesRcv;
+    StatsHelper.SimpleStats msgSent;
+    StatsHelper.SimpleStats msgRcv;
+    StatsHelper.SimpleStats doneAt;
+  }
+
   public void run(Predicate<? extends Protocol> contIf) {
+    if (parallelism > 1) {
+      ParallelRuns.checkNoSharedStaticState(protocol);
+    }
+
+    List<RoundResult> rounds = ParallelRuns.map(roundCount, parallelism, r -> runRound(r, contIf));
 
     Map<String, ArrayList<Graph.Series>> rawResults = new HashMap<>();
     for (String field : statsGetter.fields()) {
@@ -64,57 +94,15 @@ public class ProgressPerTime {
     long msgRcvSum = 0;
     long doneAtSum = 0;
 
-    for (int r = 0; r < roundCount; r++) {
-      long startAt = System.currentTimeMillis();
-
-      Protocol p = protocol.copy();
-      p.network().rd.setSeed(r);
-      p.init();
-      System.out.println("round=" + r + ", " + p + " " + configDesc);
-
-      Map<String, Graph.Series> rawResult = new HashMap<>();
+    for (RoundResult rr : rounds) {
       for (String field : statsGetter.fields()) {
-        Graph.Series gs = new Graph.Series();
-        rawResult.put(field, gs);
-        rawResults.get(field).add(gs);
+        rawResults.get(field).add(rr.rawResult.get(field));
       }
-
-      List<? extends Node> liveNodes;
-      StatsHelper.Stat s;
-      do {
-        p.network().runMs(statEachXms);
-        liveNodes =
-            p.network().allNodes.stream().filter(n -> !n.isDown()).collect(Collectors.toList());
-        s = statsGetter.get(liveNodes);
-        for (String field : statsGetter.fields()) {
-          rawResult.get(field).addLine(new Graph.ReportLine(p.network().time, s.get(field)));
-        }
-        if (p.network().time % 10000 == 0) {
-          System.out.println("time goes by... time=" + (p.network().time / 1000) + ", stats=" + s);
-        }
-      } while (((Predicate) contIf).test(p));
-      long endAt = System.currentTimeMillis();
-
-      if (endCallback != null) {
-        endCallback.end(p);
-      }
-      StatsHelper.SimpleStats bytesSent = StatsHelper.getStatsOn(liveNodes, Node::getBytesSent);
-      StatsHelper.SimpleStats bytesRcv = StatsHelper.getStatsOn(liveNodes, Node::getBytesReceived);
-      StatsHelper.SimpleStats msgSent = StatsHelper.getStatsOn(liveNodes, Node::getMsgSent);
-      StatsHelper.SimpleStats msgRcv = StatsHelper.getStatsOn(liveNodes, Node::getMsgReceived);
-      StatsHelper.SimpleStats doneAt = StatsHelper.getStatsOn(liveNodes, Node::getDoneAt);
-      System.out.println("bytes sent: " + bytesSent);
-      System.out.println("bytes rcvd: " + bytesRcv);
-      System.out.println("msg sent: " + msgSent);
-      System.out.println("msg rcvd: " + msgRcv);
-      System.out.println("done at: " + doneAt);
-      System.out.println("Simulation execution time: " + ((endAt - startAt) / 1000) + "s");
-
-      bytesSentSum += bytesSent.avg;
-      bytesRcvSum += bytesRcv.avg;
-      msgSentSum += msgSent.avg;
-      msgRcvSum += msgRcv.avg;
-      doneAtSum += doneAt.avg;
+      bytesSentSum += rr.bytesSent.avg;
+      bytesRcvSum += rr.bytesRcv.avg;
+      msgSentSum += rr.msgSent.avg;
+      msgRcvSum += rr.msgRcv.avg;
+      doneAtSum += rr.doneAt.avg;
     }
 
     if (roundCount > 1) {
@@ -146,4 +134,69 @@ public class ProgressPerTime {
       throw new IllegalStateException(e);
     }
   }
+
+  @SuppressWarnings("unchecked")
+  private RoundResult runRound(int r, Predicate<? extends Protocol> contIf) {
+    long startAt = System.currentTimeMillis();
+
+    Protocol p;
+    synchronized (protocol) {
+      p = protocol.copy();
+    }
+    p.network().rd.setSeed(r);
+    p.init();
+    if (parallelism > 1) {
+      ParallelRuns.checkNoSharedStaticState(p);
+    }
+    System.out.println("round=" + r + ", " + p + " " + configDesc);
+
+    RoundResult rr = new RoundResult();
+    for (String field : statsGetter.fields()) {
+      rr.rawResult.put(field, new Graph.Series());
+    }
+
+    List<? extends Node> liveNodes;
+    StatsHelper.Stat s;
+    do {
+      p.network().runMs(statEachXms);
+      liveNodes =
+          p.network().allNodes.stream().filter(n -> !n.isDown()).collect(Collectors.toList());
+      s = statsGetter.get(liveNodes);
+      for (String field : statsGetter.fields()) {
+        rr.rawResult.get(field).addLine(new Graph.ReportLine(p.network().time, s.get(field)));
+      }
+      if (p.network().time % 10000 == 0) {
+        System.out.println("time goes by... time=" + (p.network().time / 1000) + ", stats=" + s);
+      }
+    } while (((Predicate) contIf).test(p));
+    long endAt = System.currentTimeMillis();
+
+    if (endCallback != null) {
+      synchronized (endCallback) {
+        endCallback.end(p);
+      }
+    }
+    rr.bytesSent = StatsHelper.getStatsOn(liveNodes, Node::getBytesSent);
+    rr.bytesRcv = StatsHelper.getStatsOn(liveNodes, Node::getBytesReceived);
+    rr.msgSent = StatsHelper.getStatsOn(liveNodes, Node::getMsgSent);
+    rr.msgRcv = StatsHelper.getStatsOn(liveNodes, Node::getMsgReceived);
+    rr.doneAt = StatsHelper.getStatsOn(liveNodes, Node::getDoneAt);
+    // A single println so the lines of parallel rounds don't get mixed.
+    System.out.println(
+        "bytes sent: "
+            + rr.bytesSent
+            + "\nbytes rcvd: "
+            + rr.bytesRcv
+            + "\nmsg sent: "
+            + rr.msgSent
+            + "\nmsg rcvd: "
+            + rr.msgRcv
+            + "\ndone at: "
+            + rr.doneAt
+            + "\nSimulation execution time: "
+            + ((endAt - startAt) / 1000)
+            + "s");
+
+    return rr;
+  }
 }
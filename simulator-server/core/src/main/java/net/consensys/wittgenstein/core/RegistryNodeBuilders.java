@@ -5,7 +5,7 @@ import java.util.Map;
 import net.consensys.wittgenstein.core.geoinfo.Geo;
 import net.consensys.wittgenstein.core.geoinfo.GeoAWS;
 import net.consensys.wittgenstein.core.geoinfo.GeoAllCities;
-import net.consensys.wittgenstein.tools.CSVLatencyReader;
+import net.consensys.wittgenstein.tools.LatencyDataset;
 
 public class RegistryNodeBuilders {
   private Map<String, NodeBuilder> registry = new HashMap<>();
@@ -33,7 +33,6 @@ public class RegistryNodeBuilders {
   }
 
   private RegistryNodeBuilders() {
-    CSVLatencyReader lr = new CSVLatencyReader();
     Geo geoAWS = new GeoAWS();
     Geo geoAllCities = new GeoAllCities();
 
@@ -48,7 +47,7 @@ public class RegistryNodeBuilders {
                       NetworkLatency.AwsRegionNetworkLatency.cities(), geoAWS);
               break;
             case CITIES:
-              nb = new NodeBuilder.NodeBuilderWithCity(lr.cities(), geoAllCities);
+              nb = new NodeBuilder.NodeBuilderWithCity(LatencyDataset.get().cities(), geoAllCities);
               break;
             case RANDOM:
               nb = new NodeBuilder.NodeBuilderWithRandomPosition();
@@ -1,9 +1,7 @@
 package net.consensys.wittgenstein.core;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.function.Predicate;
 import net.consensys.wittgenstein.core.utils.StatsHelper;
 
@@ -16,6 +14,7 @@ public class RunMultipleTimes<TP extends Protocol> {
   private final int maxTime;
   private final List<StatsHelper.StatsGetter> statsGetters;
   private final Predicate<TP> finalCheck;
+  private int parallelism = 1;
 
   /**
    * @param p - the protocol to execute
@@ -38,49 +37,77 @@ public class RunMultipleTimes<TP extends Protocol> {
     this.finalCheck = finalCheck;
   }
 
+  /**
+   * Run the executions on 'parallelism' threads. The results are merged in seed order, so they are
+   * the same as with a sequential execution. Protocols with mutable static fields are rejected. The
+   * default is 1, i.e. the executions are run one after another in the calling thread.
+   */
+  public RunMultipleTimes<TP> setParallelism(int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be greater than 0: " + parallelism);
+    }
+    this.parallelism = parallelism;
+    return this;
+  }
+
   public List<StatsHelper.Stat> run(Predicate<TP> contIf) {
-    Map<StatsHelper.StatsGetter, List<StatsHelper.Stat>> allStats = new HashMap<>();
+    if (parallelism > 1) {
+      ParallelRuns.checkNoSharedStaticState(p);
+    }
 
-    for (int i = 0; i < runCount; i++) {
-      @SuppressWarnings("unchecked")
-      TP c = (TP) p.copy();
-      c.network().rd.setSeed(i);
-      c.init();
-      boolean didSomething;
-      do {
-        try {
-          didSomething = c.network().runMs(10);
-        } catch (Throwable t) {
-          throw new IllegalStateException(
-              "Failed execution of "
-                  + c
-                  + " for random seed of "
-                  + i
-                  + ", time="
-                  + c.network().time,
-              t);
-        }
-      } while ((maxTime == 0 || c.network().time < maxTime)
-          && (!didSomething || (contIf != null && contIf.test(c))));
+    List<List<StatsHelper.Stat>> statsBySeed =
+        ParallelRuns.map(runCount, parallelism, i -> runOnce(i, contIf));
 
-      if (finalCheck != null && !finalCheck.test(c)) {
-        throw new IllegalStateException("Failed execution of " + c + " for random seed of " + i);
+    List<StatsHelper.Stat> res = new ArrayList<>();
+    for (int s = 0; s < statsGetters.size(); s++) {
+      List<StatsHelper.Stat> stats = new ArrayList<>(runCount);
+      for (List<StatsHelper.Stat> seedStats : statsBySeed) {
+        stats.add(seedStats.get(s));
       }
+      res.add(StatsHelper.avg(stats));
+    }
 
-      for (StatsHelper.StatsGetter sg : statsGetters) {
-        List<StatsHelper.Stat> res = allStats.computeIfAbsent(sg, (k) -> new ArrayList<>());
-        StatsHelper.Stat s = sg.get(c.network().liveNodes());
-        res.add(s);
+    return res;
+  }
+
+  /** @return the stats of a single execution, one per stats getter. */
+  private List<StatsHelper.Stat> runOnce(int seed, Predicate<TP> contIf) {
+    TP c;
+    synchronized (p) {
+      @SuppressWarnings("unchecked")
+      TP copy = (TP) p.copy();
+      c = copy;
+    }
+    c.network().rd.setSeed(seed);
+    c.init();
+    if (parallelism > 1) {
+      ParallelRuns.checkNoSharedStaticState(c);
+    }
+    boolean didSomething;
+    do {
+      try {
+        didSomething = c.network().runMs(10);
+      } catch (Throwable t) {
+        throw new IllegalStateException(
+            "Failed execution of "
+                + c
+                + " for random seed of "
+                + seed
+                + ", time="
+                + c.network().time,
+            t);
       }
+    } while ((maxTime == 0 || c.network().time < maxTime)
+        && (!didSomething || (contIf != null && contIf.test(c))));
+
+    if (finalCheck != null && !finalCheck.test(c)) {
+      throw new IllegalStateException("Failed execution of " + c + " for random seed of " + seed);
     }
 
-    List<StatsHelper.Stat> res = new ArrayList<>();
+    List<StatsHelper.Stat> res = new ArrayList<>(statsGetters.size());
     for (StatsHelper.StatsGetter sg : statsGetters) {
-      List<StatsHelper.Stat> stats = allStats.get(sg);
-      StatsHelper.Stat s = StatsHelper.avg(stats);
-      res.add(s);
+      res.add(sg.get(c.network().liveNodes()));
     }
-
     return res;
   }
 
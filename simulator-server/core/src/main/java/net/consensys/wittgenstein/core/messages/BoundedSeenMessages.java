@@ -0,0 +1,177 @@
+package net.consensys.wittgenstein.core.messages;
+
+import java.util.*;
+
+/**
+ * The default store of seen flood messages. A message id with a single message, like a status
+ * message, takes a single map entry. The messages can be forgotten after a while or when there are
+ * too many of them, so the memory used by a long run stays bounded.
+ *
+ * <p>A message that is forgotten will be flooded again if it's received again, so the maximum age
+ * must be greater than the time it takes to flood a message through the network. An expired status
+ * message lets an older version be accepted again.
+ */
+public class BoundedSeenMessages implements SeenMessages {
+  /** The time after which a message is forgotten, 0 to keep them for ever. */
+  private final int maxAge;
+  /** The maximum number of messages kept, the oldest ones being forgotten first. 0 for no limit. */
+  private final int maxCount;
+
+  /** By message id: a single FloodMessage or, if there are more, an identity set of them. */
+  private final Map<Long, Object> byId = new HashMap<>();
+
+  private int size;
+
+  /**
+   * The messages in the order they were seen, with the time they were seen, in a circular buffer.
+   * Only used if the messages can be forgotten. It can contain messages already removed by
+   * 'replace': they are skipped.
+   */
+  private FloodMessage<?>[] order = new FloodMessage<?>[0];
+
+  private int[] seenAt = new int[0];
+  private int head;
+  private int orderSize;
+
+  /** Keeps all the messages. */
+  public BoundedSeenMessages() {
+    this(0, 0);
+  }
+
+  public BoundedSeenMessages(int maxAge, int maxCount) {
+    if (maxAge < 0 || maxCount < 0) {
+      throw new IllegalArgumentException("maxAge=" + maxAge + ", maxCount=" + maxCount);
+    }
+    this.maxAge = maxAge;
+    this.maxCount = maxCount;
+  }
+
+  private boolean bounded() {
+    return maxAge > 0 || maxCount > 0;
+  }
+
+  @Override
+  public boolean add(FloodMessage<?> m, int time) {
+    Long id = m.msgId();
+    Object cur = byId.get(id);
+    if (cur == null) {
+      byId.put(id, m);
+    } else if (cur == m) {
+      return false;
+    } else if (cur instanceof FloodMessage) {
+      Set<FloodMessage<?>> set = Collections.newSetFromMap(new IdentityHashMap<>());
+      set.add((FloodMessage<?>) cur);
+      set.add(m);
+      byId.put(id, set);
+    } else {
+      @SuppressWarnings("unchecked")
+      Set<FloodMessage<?>> set = (Set<FloodMessage<?>>) cur;
+      if (!set.add(m)) {
+        return false;
+      }
+    }
+    size++;
+    seen(m, time);
+    return true;
+  }
+
+  @Override
+  public void replace(FloodMessage<?> m, int time) {
+    Object previous = byId.put(m.msgId(), m);
+    if (previous instanceof FloodMessage) {
+      size--;
+    } else if (previous != null) {
+      size -= ((Set<?>) previous).size();
+    }
+    size++;
+    seen(m, time);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Set<FloodMessage> get(long msgId) {
+    Object cur = byId.get(msgId);
+    if (cur == null) {
+      return Collections.emptySet();
+    }
+    if (cur instanceof FloodMessage) {
+      return Collections.singleton((FloodMessage) cur);
+    }
+    return Collections.unmodifiableSet((Set<FloodMessage>) cur);
+  }
+
+  /** @return the number of messages kept. */
+  public int size() {
+    return size;
+  }
+
+  private void seen(FloodMessage<?> m, int time) {
+    if (!bounded()) {
+      return;
+    }
+    if (orderSize == order.length) {
+      grow();
+    }
+    int pos = (head + orderSize) % order.length;
+    order[pos] = m;
+    seenAt[pos] = time;
+    orderSize++;
+
+    while (orderSize > 0
+        && ((maxAge > 0 && seenAt[head] + maxAge <= time) || (maxCount > 0 && size > maxCount))) {
+      forget(order[head]);
+      order[head] = null;
+      head = (head + 1) % order.length;
+      orderSize--;
+    }
+  }
+
+  private void forget(FloodMessage<?> m) {
+    Long id = m.msgId();
+    Object cur = byId.get(id);
+    if (cur == m) {
+      byId.remove(id);
+      size--;
+    } else if (cur != null && !(cur instanceof FloodMessage)) {
+      Set<?> set = (Set<?>) cur;
+      if (set.remove(m)) {
+        size--;
+        if (set.isEmpty()) {
+          byId.remove(id);
+        }
+      }
+    }
+  }
+
+  /** Removes the messages already replaced, and makes some room if needed. */
+  private void grow() {
+    int live = 0;
+    for (int i = 0; i < orderSize; i++) {
+      if (isKept(order[(head + i) % order.length])) {
+        live++;
+      }
+    }
+    int capacity = Math.max(16, live * 2);
+    FloodMessage<?>[] newOrder = new FloodMessage<?>[capacity];
+    int[] newSeenAt = new int[capacity];
+    int pos = 0;
+    for (int i = 0; i < orderSize; i++) {
+      int p = (head + i) % order.length;
+      if (isKept(order[p])) {
+        newOrder[pos] = order[p];
+        newSeenAt[pos] = seenAt[p];
+        pos++;
+      }
+    }
+    order = newOrder;
+    seenAt = newSeenAt;
+    head = 0;
+    orderSize = pos;
+  }
+
+  private boolean isKept(FloodMessage<?> m) {
+    Object cur = byId.get(m.msgId());
+    return cur == m
+        || (cur != null && !(cur instanceof FloodMessage) && ((Set<?>) cur).contains(m));
+  }
+}
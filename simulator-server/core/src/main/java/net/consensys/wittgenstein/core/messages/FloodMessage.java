@@ -1,7 +1,6 @@
 package net.consensys.wittgenstein.core.messages;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.List;
 import net.consensys.wittgenstein.core.Network;
 import net.consensys.wittgenstein.core.P2PNode;
 
@@ -22,6 +21,7 @@ public class FloodMessage<TN extends P2PNode<TN>> extends Message<TN> {
    * It's possible to send the message immediately to all peers, but as well to wait between peers.
    */
   public final int delayBetweenPeers;
+
   public int hopCount = 0;
 
   public long msgId() {
@@ -40,20 +40,58 @@ public class FloodMessage<TN extends P2PNode<TN>> extends Message<TN> {
     this.delayBetweenPeers = delayBetweenPeers;
   }
 
-  public boolean addToReceived(TN to) {
-    return to.getMsgReceived(msgId()).add(this);
+  /**
+   * Marks this message as seen by 'to'.
+   *
+   * @return true if 'to' had not seen it before, i.e. it must be flooded.
+   */
+  public boolean addToReceived(TN to, int time) {
+    return to.getSeenMessages().add(this, time);
   }
 
   @Override
   public void action(Network<TN> network, TN from, TN to) {
-    if (addToReceived(to)) {
+    if (addToReceived(to, network.time)) {
       to.onFlood(from, this);
-      List<TN> dest = to.peers.stream().filter(n -> n != from).collect(Collectors.toList());
-      Collections.shuffle(dest, network.rd);
-      network.send(this, to, dest);
+      sendPeers(network, to, from);
     }
   }
 
+  /** The ids of the peers we're sending to, reused by all the messages of a thread. */
+  private static final ThreadLocal<int[]> peerIds = ThreadLocal.withInitial(() -> new int[64]);
+
+  /**
+   * Sends this message to the peers of 'from' except 'exclude', in a random order drawn with the
+   * random generator of 'from', after 'localDelay' and with 'delayBetweenPeers' between each peer.
+   *
+   * @param exclude - the peer that sent us this message, null if none.
+   */
+  public void sendPeers(Network<TN> network, TN from, TN exclude) {
+    List<TN> peers = from.peers;
+    int[] ids = peerIds.get();
+    if (ids.length < peers.size()) {
+      ids = new int[Math.max(peers.size(), ids.length * 2)];
+      peerIds.set(ids);
+    }
+    int count = 0;
+    for (int i = 0; i < peers.size(); i++) {
+      TN p = peers.get(i);
+      if (p != exclude) {
+        ids[count++] = p.nodeId;
+      }
+    }
+
+    // Same draws as Collections#shuffle on a list of these peers
+    for (int i = count; i > 1; i--) {
+      int j = from.random.nextInt(i);
+      int t = ids[i - 1];
+      ids[i - 1] = ids[j];
+      ids[j] = t;
+    }
+
+    network.send(this, network.time + 1 + localDelay, from, ids, count, delayBetweenPeers);
+  }
+
   @Override
   public int size() {
     return size;
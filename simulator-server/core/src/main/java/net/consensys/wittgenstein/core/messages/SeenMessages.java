@@ -0,0 +1,25 @@
+package net.consensys.wittgenstein.core.messages;
+
+import java.util.Set;
+
+/**
+ * The flood messages a P2PNode has already seen, so it floods each of them only once. The messages
+ * are kept by message id: all the messages with the default id (-1) share the same set.
+ *
+ * @see BoundedSeenMessages for the default implementation.
+ */
+public interface SeenMessages {
+
+  /**
+   * Adds the message to the ones seen with its id.
+   *
+   * @return false if this message was already seen.
+   */
+  boolean add(FloodMessage<?> m, int time);
+
+  /** Replaces all the messages seen with this message's id by this message. */
+  void replace(FloodMessage<?> m, int time);
+
+  /** @return the messages seen with this id and still kept, as a read-only set. */
+  Set<FloodMessage> get(long msgId);
+}
@@ -32,15 +32,15 @@ public class StatusFloodMessage<TN extends P2PNode<TN>> extends FloodMessage<TN>
 
   /** We're adding this message to the node's received set only if the seq number is greater. */
   @Override
-  public boolean addToReceived(TN to) {
+  public boolean addToReceived(TN to, int time) {
     Set<?> previousSet = to.getMsgReceived(msgId);
     Object previous = previousSet.isEmpty() ? null : previousSet.iterator().next();
     StatusFloodMessage psf = (StatusFloodMessage) previous;
     if (psf != null && psf.seq >= seq) {
       return false;
     }
-    previousSet.clear(); // By definition we want only one element in the set
-    to.getMsgReceived(msgId).add(this);
+    // By definition we want only one element in the set
+    to.getSeenMessages().replace(this, time);
     return true;
   }
 }
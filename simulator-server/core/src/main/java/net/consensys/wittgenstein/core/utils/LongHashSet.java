@@ -0,0 +1,134 @@
+package net.consensys.wittgenstein.core.utils;
+
+import java.util.Arrays;
+
+/**
+ * A set of longs without boxing: open addressing with linear probing in a single long[]. It takes
+ * between 10 and 20 bytes per value, when a HashSet<Long> takes around 60 bytes per value.
+ */
+public final class LongHashSet {
+  private static final long FREE = 0;
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] keys;
+  private int mask;
+  /** The value 0 marks a free slot, so it's kept apart. */
+  private boolean hasZero;
+
+  private int size;
+
+  public LongHashSet() {
+    this(0);
+  }
+
+  /** @param expectedSize the number of values the set will contain without resizing. */
+  public LongHashSet(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * 3L < expectedSize * 4L) {
+      capacity <<= 1;
+    }
+    keys = new long[capacity];
+    mask = capacity - 1;
+  }
+
+  private static int hash(long v) {
+    v = (v ^ (v >>> 33)) * 0xff51afd7ed558ccdL;
+    v = (v ^ (v >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return (int) (v ^ (v >>> 33));
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean contains(long v) {
+    if (v == FREE) {
+      return hasZero;
+    }
+    for (int i = hash(v) & mask; keys[i] != FREE; i = (i + 1) & mask) {
+      if (keys[i] == v) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** @return true if the value was not already in the set. */
+  public boolean add(long v) {
+    if (v == FREE) {
+      if (hasZero) {
+        return false;
+      }
+      hasZero = true;
+      size++;
+      return true;
+    }
+    int i = hash(v) & mask;
+    for (; keys[i] != FREE; i = (i + 1) & mask) {
+      if (keys[i] == v) {
+        return false;
+      }
+    }
+    keys[i] = v;
+    if (++size * 4L > keys.length * 3L) {
+      rehash(keys.length * 2);
+    }
+    return true;
+  }
+
+  /** @return true if the value was in the set. */
+  public boolean remove(long v) {
+    if (v == FREE) {
+      if (!hasZero) {
+        return false;
+      }
+      hasZero = false;
+      size--;
+      return true;
+    }
+    int i = hash(v) & mask;
+    for (; keys[i] != v; i = (i + 1) & mask) {
+      if (keys[i] == FREE) {
+        return false;
+      }
+    }
+
+    // Move back the values that were placed after the removed one because of a collision
+    int free = i;
+    for (int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+      int home = hash(keys[j]) & mask;
+      if (((j - home) & mask) >= ((j - free) & mask)) {
+        keys[free] = keys[j];
+        free = j;
+      }
+    }
+    keys[free] = FREE;
+    size--;
+    return true;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, FREE);
+    hasZero = false;
+    size = 0;
+  }
+
+  private void rehash(int capacity) {
+    long[] old = keys;
+    keys = new long[capacity];
+    mask = capacity - 1;
+    for (long v : old) {
+      if (v != FREE) {
+        int i = hash(v) & mask;
+        while (keys[i] != FREE) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = v;
+      }
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package net.consensys.wittgenstein.core.utils;
+
+import java.util.Random;
+
+/**
+ * A java.util.Random using the SplitMix64 algorithm of java.util.SplittableRandom, so it can be
+ * given to Collections.shuffle & co. Unlike java.util.Random it's not thread safe: there is no
+ * atomic operation when drawing a number.
+ *
+ * <p>Each stream is identified by a number: the streams created from the same seed are independent
+ * from each other, and a stream gives the same values whatever the draws made on the other streams.
+ */
+public class SplitMixRandom extends Random {
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+  // Not initialized here: it's set by setSeed, called by the constructor of Random
+  private long state;
+
+  public SplitMixRandom(long seed) {
+    super(seed);
+  }
+
+  /** A generator for the stream 'stream' of this seed. */
+  public SplitMixRandom(long seed, long stream) {
+    this(streamSeed(seed, stream));
+  }
+
+  /** @return the seed of the stream 'stream' of this seed. */
+  public static long streamSeed(long seed, long stream) {
+    return mix64(seed + mix64(stream * GOLDEN_GAMMA + GOLDEN_GAMMA));
+  }
+
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  @Override
+  public synchronized void setSeed(long seed) {
+    super.setSeed(seed);
+    state = seed;
+  }
+
+  @Override
+  protected int next(int bits) {
+    return (int) (nextLong() >>> (64 - bits));
+  }
+
+  @Override
+  public long nextLong() {
+    state += GOLDEN_GAMMA;
+    return mix64(state);
+  }
+
+  @Override
+  public int nextInt() {
+    return (int) (nextLong() >>> 32);
+  }
+
+  @Override
+  public double nextDouble() {
+    return (nextLong() >>> 11) * DOUBLE_UNIT;
+  }
+}
@@ -0,0 +1,197 @@
+package net.consensys.wittgenstein.tools;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * The latencies between the cities of CSVLatencyReader, as a city table and a dense matrix. Parsing
+ * the csv files takes seconds, so the build compiles them into a binary resource (see the
+ * 'compileLatencyDataset' task in core/build.gradle), and the process shares a single instance read
+ * from this resource. If the resource is not there, for example when running from an IDE without
+ * the gradle build, the csv files are parsed instead.
+ *
+ * <p>The binary format is: the magic number, the version, the number of cities, the city names
+ * (DataOutput#writeUTF), then the matrix as floats, row by row.
+ */
+public final class LatencyDataset {
+  static final String RESOURCE_NAME = "/Data/latencies.bin";
+  private static final int MAGIC = 0x574c4154; // "WLAT"
+  private static final int VERSION = 1;
+
+  private final List<String> cities;
+  private final Map<String, Integer> cityIndex = new HashMap<>();
+  /** The latency from city i to city j at i * size + j. */
+  private final FloatBuffer latencies;
+
+  private static final class Holder {
+    private static final LatencyDataset INSTANCE = load();
+  }
+
+  private LatencyDataset(List<String> cities, FloatBuffer latencies) {
+    if (latencies.remaining() != cities.size() * cities.size()) {
+      throw new IllegalArgumentException(
+          "Expected " + cities.size() * cities.size() + " latencies, got " + latencies.remaining());
+    }
+    this.cities = Collections.unmodifiableList(new ArrayList<>(cities));
+    for (int i = 0; i < cities.size(); i++) {
+      cityIndex.put(cities.get(i), i);
+    }
+    this.latencies = latencies;
+  }
+
+  /** @return the dataset shared by the whole process. */
+  public static LatencyDataset get() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * Builds a dataset from csv latencies, for example a custom dataset. If a latency from a city to
+   * another is missing, we use the latency in the other direction.
+   */
+  public static LatencyDataset fromReader(CSVLatencyReader reader) {
+    Map<String, Map<String, Float>> lm = reader.getLatencyMatrix();
+    List<String> cities = reader.cities();
+    int size = cities.size();
+    float[] latencies = new float[size * size];
+    for (int f = 0; f < size; f++) {
+      Map<String, Float> from = lm.get(cities.get(f));
+      for (int t = 0; t < size; t++) {
+        Float l = from.get(cities.get(t));
+        if (l == null) {
+          l = lm.get(cities.get(t)).get(cities.get(f));
+        }
+        latencies[f * size + t] = l;
+      }
+    }
+    return new LatencyDataset(cities, FloatBuffer.wrap(latencies));
+  }
+
+  private static LatencyDataset load() {
+    URL url = LatencyDataset.class.getResource(RESOURCE_NAME);
+    if (url == null) {
+      return fromReader(new CSVLatencyReader());
+    }
+    try {
+      return read(map(url));
+    } catch (IOException e) {
+      throw new IllegalStateException("Can't read " + url, e);
+    }
+  }
+
+  /** Maps the resource if it's a file, reads it in memory if it's in a jar. */
+  private static ByteBuffer map(URL url) throws IOException {
+    if ("file".equals(url.getProtocol())) {
+      try (FileChannel fc = FileChannel.open(Paths.get(url.toURI()), StandardOpenOption.READ)) {
+        return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+      } catch (URISyntaxException e) {
+        throw new IOException(e);
+      }
+    }
+    try (InputStream is = url.openStream()) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      byte[] buf = new byte[64 * 1024];
+      int read;
+      while ((read = is.read(buf)) >= 0) {
+        bos.write(buf, 0, read);
+      }
+      return ByteBuffer.wrap(bos.toByteArray());
+    }
+  }
+
+  static LatencyDataset read(ByteBuffer bb) throws IOException {
+    if (bb.getInt() != MAGIC) {
+      throw new IOException("Not a latency dataset");
+    }
+    int version = bb.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported latency dataset version: " + version);
+    }
+    int size = bb.getInt();
+    List<String> cities = new ArrayList<>(size);
+    DataInputStream names = new DataInputStream(new ByteBufferInputStream(bb));
+    for (int i = 0; i < size; i++) {
+      cities.add(names.readUTF());
+    }
+    FloatBuffer latencies = bb.slice().asFloatBuffer();
+    latencies.limit(size * size);
+    return new LatencyDataset(cities, latencies);
+  }
+
+  public void write(OutputStream os) throws IOException {
+    DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os));
+    dos.writeInt(MAGIC);
+    dos.writeInt(VERSION);
+    dos.writeInt(cities.size());
+    for (String c : cities) {
+      dos.writeUTF(c);
+    }
+    for (int i = 0; i < latencies.limit(); i++) {
+      dos.writeFloat(latencies.get(i));
+    }
+    dos.flush();
+  }
+
+  /** @return the cities, in the order of CSVLatencyReader#cities. */
+  public List<String> cities() {
+    return cities;
+  }
+
+  /** @return the index of this city in cities(), -1 if we don't have it. */
+  public int cityIndex(String city) {
+    Integer i = cityIndex.get(city);
+    return i == null ? -1 : i;
+  }
+
+  /** @return the latency between these two cities, by their index in cities(). */
+  public float latency(int cityFrom, int cityTo) {
+    return latencies.get(cityFrom * cities.size() + cityTo);
+  }
+
+  /** Reads a ByteBuffer from its current position, moving this position. */
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer bb;
+
+    ByteBufferInputStream(ByteBuffer bb) {
+      this.bb = bb;
+    }
+
+    @Override
+    public int read() {
+      return bb.hasRemaining() ? bb.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (!bb.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(len, bb.remaining());
+      bb.get(b, off, n);
+      return n;
+    }
+  }
+
+  /**
+   * Compiles the csv files of CSVLatencyReader into the binary resource.
+   *
+   * @param args - the directory where the resource is written.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      throw new IllegalArgumentException("Usage: LatencyDataset <output resources directory>");
+    }
+    Path out = Paths.get(args[0], RESOURCE_NAME.substring(1));
+    out.getParent().toFile().mkdirs();
+    try (OutputStream os = new FileOutputStream(out.toFile())) {
+      fromReader(new CSVLatencyReader()).write(os);
+    }
+  }
+}
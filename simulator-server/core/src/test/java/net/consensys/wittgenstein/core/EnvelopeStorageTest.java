@@ -1,5 +1,6 @@
 package net.consensys.wittgenstein.core;
 
+import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -102,6 +103,24 @@ public class EnvelopeStorageTest {
     Assert.assertEquals(0, network.msgs.size());
   }
 
+  @Test
+  public void testNextArrivalTime() {
+    Assert.assertEquals(-1, network.msgs.nextArrivalTime(0));
+
+    Envelope<Node> m1 = new Envelope.SingleDestEnvelope<>(dummy, n0, n1, 1, 130);
+    Envelope<Node> m2 = new Envelope.SingleDestEnvelope<>(dummy, n0, n1, 1, Network.duration + 7);
+    network.msgs.addMsg(m1);
+    network.msgs.addMsg(m2);
+
+    Assert.assertEquals(130, network.msgs.nextArrivalTime(0));
+    Assert.assertEquals(130, network.msgs.nextArrivalTime(130));
+    Assert.assertEquals(Network.duration + 7, network.msgs.nextArrivalTime(131));
+
+    Assert.assertEquals(m1, network.msgs.poll(130));
+    Assert.assertEquals(Network.duration + 7, network.msgs.nextArrivalTime(0));
+    Assert.assertEquals(-1, network.msgs.nextArrivalTime(Network.duration + 8));
+  }
+
   @Test
   public void testEdgeCase1() {
     Assert.assertNull(network.msgs.peek(0));
@@ -117,7 +136,7 @@ public class EnvelopeStorageTest {
     Envelope<Node> m1 = new Envelope.SingleDestEnvelope<>(dummy, n0, n1, 1, Network.duration);
     network.msgs.addMsg(m1);
     Assert.assertNotNull(network.msgs.peek(Network.duration));
-    Assert.assertEquals(2, network.msgs.msgsBySlot.size());
+    Assert.assertEquals(1, network.msgs.msgsBySlot.size());
   }
 
   @Test
@@ -127,4 +146,70 @@ public class EnvelopeStorageTest {
     Network<Node>.MsgsSlot s = network.msgs.findSlot(59997);
     Assert.assertTrue(59997 > s.startTime);
   }
+
+  @Test
+  public void testSparseSlots() {
+    int far = 10 * 60 * 60 * 1000 + 3;
+    Envelope<Node> m1 = new Envelope.SingleDestEnvelope<>(dummy, n0, n1, 1, 5);
+    Envelope<Node> m2 = new Envelope.SingleDestEnvelope<>(dummy, n0, n1, 1, far);
+    network.msgs.addMsg(m2);
+    network.msgs.addMsg(m1);
+
+    Assert.assertEquals(2, network.msgs.msgsBySlot.size());
+    Assert.assertEquals(2, network.msgs.size());
+    Assert.assertEquals(m1, network.msgs.peekFirst());
+    Assert.assertEquals(m1, network.msgs.pollFirst());
+    Assert.assertEquals(m2, network.msgs.peekFirst());
+
+    Network<Node>.MsgsSlot first = network.msgs.msgsBySlot.get(0);
+    network.time = far - 1;
+    Assert.assertEquals(m2, network.msgs.poll(far));
+    Assert.assertEquals(1, network.msgs.msgsBySlot.size());
+
+    Envelope<Node> m3 = new Envelope.SingleDestEnvelope<>(dummy, n0, n1, 1, far + Network.duration);
+    network.msgs.addMsg(m3);
+    Assert.assertSame(first, network.msgs.msgsBySlot.get(1));
+    Assert.assertEquals(far + Network.duration, network.msgs.nextArrivalTime(0));
+    Assert.assertEquals(1, network.msgs.size());
+  }
+
+  @Test
+  public void testCounters() {
+    network.send(dummy, n0, Arrays.asList(n1, n2, n3));
+    network.send(dummy, n0, n1);
+    Assert.assertEquals(2, network.msgs.size());
+    Assert.assertEquals(4, network.msgs.pendingDeliveries());
+
+    MessageQueueMetrics before = network.msgs.metrics();
+    Assert.assertEquals(2, before.envelopes);
+    Assert.assertEquals(2, before.peakEnvelopes);
+    Assert.assertEquals(0, before.deliveries);
+    Assert.assertEquals(2, before.envelopesCreated);
+
+    network.run(1);
+    Assert.assertFalse(network.hasMessage());
+    MessageQueueMetrics after = network.msgs.metrics();
+    Assert.assertEquals(0, after.envelopes);
+    Assert.assertEquals(0, after.pendingDeliveries);
+    Assert.assertEquals(2, after.peakEnvelopes);
+    Assert.assertEquals(4, after.deliveries);
+    Assert.assertEquals(2, after.envelopesCreated);
+    Assert.assertEquals(1000, after.time);
+  }
+
+  @Test
+  public void testCountersOnCleanup() {
+    network.msgs.addMsg(new Envelope.SingleDestEnvelope<>(dummy, n0, n1, 1, 10));
+    network.msgs.addMsg(new Envelope.SingleDestEnvelope<>(dummy, n0, n1, 1, Network.duration * 2));
+    Assert.assertEquals(2, network.msgs.size());
+
+    network.time = Network.duration;
+    network.msgs.cleanup();
+    Assert.assertEquals(1, network.msgs.size());
+    Assert.assertEquals(1, network.msgs.pendingDeliveries());
+
+    network.msgs.clear();
+    Assert.assertEquals(0, network.msgs.size());
+    Assert.assertEquals(0, network.msgs.pendingDeliveries());
+  }
 }
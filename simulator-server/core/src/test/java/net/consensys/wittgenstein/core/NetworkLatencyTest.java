@@ -3,6 +3,7 @@ package net.consensys.wittgenstein.core;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 import net.consensys.wittgenstein.core.geoinfo.Geo;
@@ -107,6 +108,70 @@ public class NetworkLatencyTest {
     }
   }
 
+  @Test
+  public void testCityLatencyMatrix() {
+    CSVLatencyReader lr = new CSVLatencyReader();
+    NetworkLatency.CityLatencyMatrix m = NetworkLatency.CityLatencyMatrix.get();
+
+    for (String f : lr.cities()) {
+      for (String t : lr.cities()) {
+        Assert.assertEquals(csvLatency(lr, f, t), m.getLatency(CityIds.id(f), CityIds.id(t)), 0);
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCityLatencyMatrixUnknownCity() {
+    NetworkLatency.CityLatencyMatrix.get()
+        .getLatency(CityIds.id("Paris"), CityIds.id("not a city"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testCitiesLatencyDefaultCity() {
+    NodeBuilder nb =
+        new NodeBuilder.NodeBuilderWithCity(Collections.singletonList("Paris"), new GeoAllCities());
+    Node paris = new Node(new Random(0), nb);
+    NodeBuilder wb = new NodeBuilder();
+    wb.allocateNodeId();
+    Node world = new Node(new Random(0), wb);
+    new NetworkLatency.NetworkLatencyByCityWJitter().getExtendedLatency(paris, world, 0);
+  }
+
+  @Test
+  public void testCitiesLatencyWJitter() {
+    CSVLatencyReader lr = new CSVLatencyReader();
+    NodeBuilder nb = new NodeBuilder.NodeBuilderWithCity(lr.cities(), new GeoAllCities());
+    NetworkLatency.NetworkLatencyByCityWJitter nl =
+        new NetworkLatency.NetworkLatencyByCityWJitter();
+
+    Random rd = new Random(0);
+    List<Node> ln = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      ln.add(new Node(rd, nb));
+    }
+
+    for (Node f : ln) {
+      Assert.assertEquals(f.cityName, CityIds.name(f.cityId));
+      for (Node t : ln) {
+        if (f == t) {
+          continue;
+        }
+        for (int delta = 0; delta < 100; delta++) {
+          double raw = nl.gpd.inverseF(delta / 100.0);
+          raw += f.cityName.equals(t.cityName) ? 10 : csvLatency(lr, f.cityName, t.cityName);
+          Assert.assertEquals(
+              Math.max(1, (int) Math.round(0.5 * raw)), nl.getExtendedLatency(f, t, delta));
+        }
+      }
+    }
+  }
+
+  private static float csvLatency(CSVLatencyReader lr, String from, String to) {
+    Map<String, Map<String, Float>> lm = lr.getLatencyMatrix();
+    Float res = lm.get(from).get(to);
+    return res != null ? res : lm.get(to).get(from);
+  }
+
   @Test
   public void testEstimateLatency() {
     NetworkLatency nl = new NetworkLatency.EthScanNetworkLatency();
@@ -4,6 +4,8 @@ import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import net.consensys.wittgenstein.core.messages.Message;
+import net.consensys.wittgenstein.core.messages.SendMessage;
+import net.consensys.wittgenstein.core.utils.SplitMixRandom;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -184,18 +186,54 @@ public class NetworkTest {
     Assert.assertEquals(3, ab.get());
   }
 
+  /** @return the random seed the node will use for the next message it sends. */
+  private static int nextSeed(Node from) {
+    from.random.setSeed(42);
+    return new SplitMixRandom(42).nextInt();
+  }
+
+  /**
+   * @return the destination id and the arrival time of each destination, calculated from the
+   *     latency model, sorted by arrival time then by position in 'dests'.
+   */
+  private static List<int[]> expectedArrivals(
+      Network<?> network,
+      Node from,
+      List<Node> dests,
+      int sendTime,
+      int randomSeed,
+      int delaysBetweenMessage) {
+    List<int[]> res = new ArrayList<>();
+    for (Node to : dests) {
+      int lat =
+          network.networkLatency.getLatency(
+              from, to, Network.getPseudoRandom(to.nodeId, randomSeed));
+      res.add(new int[] {to.nodeId, sendTime + lat});
+      sendTime += delaysBetweenMessage + (delaysBetweenMessage > 0 ? 1 : 0);
+    }
+    res.sort(Comparator.comparingInt(a -> a[1]));
+    return res;
+  }
+
+  /** Reads all the destinations of the envelope, checking they are the expected ones. */
+  private static void assertArrivals(Network<?> network, List<int[]> expected, Envelope<?> e) {
+    Assert.assertEquals(expected.size(), e.remainingReaders());
+    for (int[] ea : expected) {
+      Assert.assertTrue(e.hasNextReader());
+      Assert.assertEquals(ea[0], e.getNextDestId());
+      Assert.assertEquals(ea[1], e.nextArrivalTime(network));
+      e.markRead();
+    }
+    Assert.assertFalse(e.hasNextReader());
+  }
+
   @Test
   public void testMsgArrival() {
-    List<Network.MessageArrival> mas =
-        network.createMessageArrivals(m, 1, n0, List.of(n1, n2, n3), 1, 10);
-    Assert.assertEquals(3, mas.size());
-    Collections.sort(mas);
-    Assert.assertEquals(2, mas.get(0).arrival);
-    Assert.assertEquals(13, mas.get(1).arrival);
-    Assert.assertEquals(24, mas.get(2).arrival);
-
-    Envelope.MultipleDestWithDelayEnvelope<Node> e =
-        new Envelope.MultipleDestWithDelayEnvelope<>(m, n0, mas, 1);
+    network.send(m, 1, n0, List.of(n1, n2, n3), 10);
+    Envelope<?> e = network.msgs.pollFirst();
+    Assert.assertTrue(e instanceof Envelope.MultipleDestWithDelayEnvelope);
+    Assert.assertEquals(3, e.remainingReaders());
+
     Assert.assertEquals(2, e.nextArrivalTime(network));
     e.markRead();
     Assert.assertEquals(13, e.nextArrivalTime(network));
@@ -221,21 +259,586 @@ public class NetworkTest {
     network.addNode(n3);
 
     network.networkLatency = new NetworkLatency.NetworkLatencyByDistanceWJitter();
-    List<Network.MessageArrival> mas =
-        network.createMessageArrivals(m, 1, n0, List.of(n1, n2, n3), 2, 0);
-    Assert.assertEquals(3, mas.size());
-    Collections.sort(mas);
-
-    Envelope.MultipleDestEnvelope<Node> e = new Envelope.MultipleDestEnvelope<>(m, n0, mas, 1, 2);
-    Assert.assertEquals(2, e.randomSeed);
-    Assert.assertEquals(mas.get(0).arrival, e.nextArrivalTime(network));
-    e.markRead();
-    Assert.assertEquals(mas.get(1).arrival, e.nextArrivalTime(network));
-    e.markRead();
-    Assert.assertEquals(mas.get(2).arrival, e.nextArrivalTime(network));
-    Assert.assertTrue(e.hasNextReader());
-    e.markRead();
-    Assert.assertFalse(e.hasNextReader());
+    int seed = nextSeed(n0);
+    network.send(m, 1, n0, List.of(n1, n2, n3));
+    Envelope<?> e = network.msgs.pollFirst();
+    Assert.assertEquals(Envelope.MultipleDestEnvelope.class, e.getClass());
+    Assert.assertEquals(seed, ((Envelope.MultipleDestEnvelope<?>) e).randomSeed);
+
+    assertArrivals(network, expectedArrivals(network, n0, List.of(n1, n2, n3), 1, seed, 0), e);
+  }
+
+  @Test
+  public void testMsgArrivalCached() {
+    Network<Node> network = new Network<>();
+    NodeBuilder nb = new NodeBuilder.NodeBuilderWithRandomPosition();
+    Node n0 = new Node(network.rd, nb);
+    Node n1 = new Node(network.rd, nb);
+    Node n2 = new Node(network.rd, nb);
+    Node n3 = new Node(network.rd, nb);
+    network.setNetworkLatency(new NetworkLatency.NetworkLatencyByDistanceWJitter());
+    network.addNode(n0);
+    network.addNode(n1);
+    network.addNode(n2);
+    network.addNode(n3);
+
+    // The same message, with the same seed, recalculating or keeping the latencies
+    int seed = nextSeed(n0);
+    network.send(m, 1, n0, List.of(n1, n2, n3));
+    Envelope<?> e = network.msgs.pollFirst();
+    Assert.assertEquals(Envelope.MultipleDestEnvelope.class, e.getClass());
+
+    network.setEnvelopeStrategy(Network.EnvelopeStrategy.CACHED);
+    Assert.assertEquals(seed, nextSeed(n0));
+    network.send(m, 1, n0, List.of(n1, n2, n3));
+    Envelope<?> c = network.msgs.pollFirst();
+    Assert.assertTrue(c instanceof Envelope.MultipleDestCachedEnvelope);
+
+    Assert.assertEquals(e.infos(network).toString(), c.infos(network).toString());
+    assertArrivals(network, expectedArrivals(network, n0, List.of(n1, n2, n3), 1, seed, 0), c);
+  }
+
+  @Test
+  public void testSendOrder() {
+    Network<Node> network = new Network<>();
+    network.setNetworkLatency(new NetworkLatency.NetworkLatencyByDistanceWJitter());
+    NodeBuilder nb = new NodeBuilder.NodeBuilderWithRandomPosition();
+    for (int i = 0; i < 200; i++) {
+      network.addNode(new Node(network.rd, nb));
+    }
+    List<Node> dests = new ArrayList<>(network.allNodes.subList(1, 200));
+    Collections.shuffle(dests, network.rd);
+    Node from = network.getNodeById(0);
+
+    network.send(m, 1, from, dests);
+    Envelope<?> e = network.msgs.pollFirst();
+    Assert.assertNotNull(e);
+    // Same arrivals, and same order for the same arrival time, as a stable sort of the arrivals
+    int seed = ((Envelope.MultipleDestEnvelope<?>) e).randomSeed;
+    assertArrivals(network, expectedArrivals(network, from, dests, 1, seed, 0), e);
+
+    // With the same latency everywhere the order is the order of the list
+    network.msgs.clear();
+    network.networkLatency = new NetworkLatency.NetworkNoLatency();
+    network.send(m, 1, from, dests);
+    e = network.msgs.pollFirst();
+    Assert.assertNotNull(e);
+    for (Node n : dests) {
+      Assert.assertEquals(n.nodeId, e.getNextDestId());
+      e.markRead();
+    }
+  }
+
+  @Test
+  public void testEnvelopeStrategies() {
+    List<String> ref = null;
+    for (Network.EnvelopeStrategy es : Network.EnvelopeStrategy.values()) {
+      Network<Node> network = new Network<>();
+      network.setEnvelopeStrategy(es);
+      network.setNetworkLatency(new NetworkLatency.NetworkLatencyByDistanceWJitter());
+      NodeBuilder nb = new NodeBuilder.NodeBuilderWithRandomPosition();
+      for (int i = 0; i < 50; i++) {
+        network.addNode(new Node(network.rd, nb));
+      }
+
+      List<String> received = new ArrayList<>();
+      Message<Node> rm =
+          new Message<>() {
+            @Override
+            public void action(Network<Node> network, Node from, Node to) {
+              received.add(network.time + ":" + from.nodeId + "->" + to.nodeId);
+            }
+          };
+      for (Node n : network.allNodes) {
+        network.sendAll(rm, n);
+      }
+
+      Class<?> expected =
+          es == Network.EnvelopeStrategy.RECOMPUTE
+              ? Envelope.BroadcastEnvelope.class
+              : Envelope.MultipleDestCachedEnvelope.class;
+      Assert.assertEquals(expected, network.msgs.peekFirst().getClass());
+
+      network.run(10);
+      Assert.assertEquals(50 * 50, received.size());
+      if (ref == null) {
+        ref = received;
+      } else {
+        Assert.assertEquals(es.toString(), ref, received);
+      }
+    }
+  }
+
+  private static List<String> broadcasts(
+      boolean useSendAll, int nodes, NetworkLatency networkLatency) {
+    Network<Node> network = new Network<>();
+    network.setNetworkLatency(networkLatency);
+    network.setMsgDiscardTime(150);
+    NodeBuilder nb = new NodeBuilder.NodeBuilderWithRandomPosition();
+    for (int i = 0; i < nodes; i++) {
+      network.addNode(new Node(network.rd, nb));
+    }
+    network.getNodeById(7).stop();
+
+    List<String> received = new ArrayList<>();
+    Message<Node> rm =
+        new Message<>() {
+          @Override
+          public void action(Network<Node> network, Node from, Node to) {
+            received.add(network.time + ":" + from.nodeId + "->" + to.nodeId);
+          }
+        };
+    for (Node n : network.allNodes) {
+      if (useSendAll) {
+        network.sendAll(rm, n);
+      } else {
+        network.send(rm, n, new ArrayList<>(network.allNodes));
+      }
+    }
+    Class<?> expected =
+        useSendAll ? Envelope.BroadcastEnvelope.class : Envelope.MultipleDestEnvelope.class;
+    Assert.assertEquals(expected, network.msgs.peekFirst().getClass());
+
+    network.runMs(20);
+    for (EnvelopeInfo<?> ei : network.msgs.peekMessages()) {
+      received.add("pending:" + ei.arrivingAt + ":" + ei.from + "->" + ei.to);
+    }
+    network.run(1);
+    for (Node n : network.allNodes) {
+      received.add(n.nodeId + ":" + n.msgSent + "/" + n.bytesSent + "/" + n.msgReceived);
+    }
+    MessageQueueMetrics mqm = network.msgs.metrics();
+    received.add(mqm.deliveries + "/" + mqm.envelopesCreated + "/" + mqm.peakEnvelopes);
+    return received;
+  }
+
+  @Test
+  public void testBroadcastEnvelope() {
+    // A single window of destinations, a few windows, all the windows
+    for (int nodes : new int[] {20, 100, 500}) {
+      NetworkLatency nl = new NetworkLatency.NetworkLatencyByDistanceWJitter();
+      Assert.assertEquals(broadcasts(false, nodes, nl), broadcasts(true, nodes, nl));
+    }
+    // All the destinations at the same time
+    NetworkLatency nl = new NetworkLatency.NetworkFixedLatency(10);
+    Assert.assertEquals(broadcasts(false, 100, nl), broadcasts(true, 100, nl));
+  }
+
+  @Test
+  public void testExternalBatches() {
+    Network<Node> network = new Network<>();
+    network.setNetworkLatency(new NetworkLatency.NetworkFixedLatency(100));
+    NodeBuilder nb = new NodeBuilder.NodeBuilderWithRandomPosition();
+    for (int i = 0; i < 5; i++) {
+      network.addNode(new Node(network.rd, nb));
+    }
+    AtomicInteger received = new AtomicInteger();
+    Message<Node> reply =
+        new Message<>() {
+          @Override
+          public void action(Network<Node> network, Node from, Node to) {
+            Assert.assertEquals(202, network.time);
+            received.incrementAndGet();
+          }
+        };
+
+    List<List<EnvelopeInfo<?>>> batchesA = new ArrayList<>();
+    List<List<EnvelopeInfo<?>>> batchesB = new ArrayList<>();
+    External a =
+        new External() {
+          @Override
+          public <TN extends Node> List<SendMessage> receive(EnvelopeInfo<TN> ei) {
+            throw new IllegalStateException();
+          }
+
+          @Override
+          public List<SendMessage> receiveAll(List<EnvelopeInfo<?>> eis) {
+            Assert.assertEquals(101, network.time);
+            batchesA.add(eis);
+            return Collections.singletonList(
+                new SendMessage(1, Collections.singletonList(4), network.time + 1, 0, reply));
+          }
+        };
+    External b =
+        new External() {
+          @Override
+          public <TN extends Node> List<SendMessage> receive(EnvelopeInfo<TN> ei) {
+            batchesB.add(Collections.singletonList(ei));
+            return Collections.emptyList();
+          }
+        };
+    network.getNodeById(1).setExternal(a);
+    network.getNodeById(2).setExternal(a);
+    network.getNodeById(3).setExternal(b);
+
+    Message<Node> m =
+        new Message<>() {
+          @Override
+          public void action(Network<Node> network, Node from, Node to) {
+            Assert.fail();
+          }
+        };
+    network.send(m, network.getNodeById(0), network.allNodes.subList(1, 4));
+    network.run(1);
+
+    Assert.assertEquals(1, batchesA.size());
+    Assert.assertEquals(2, batchesA.get(0).size());
+    Assert.assertEquals(1, batchesB.size());
+    Assert.assertEquals(1, received.get());
+    Assert.assertEquals(1, network.getNodeById(1).msgReceived);
+    Assert.assertEquals(1, network.getNodeById(2).msgReceived);
+  }
+
+  static class CursorMessage extends Message<Node> {
+    @Override
+    public void action(Network<Node> network, Node from, Node to) {}
+  }
+
+  @Test
+  public void testMessageCursor() {
+    Network<Node> network = new Network<>();
+    network.setNetworkLatency(new NetworkLatency.NetworkLatencyByDistanceWJitter());
+    NodeBuilder nb = new NodeBuilder.NodeBuilderWithRandomPosition();
+    for (int i = 0; i < 30; i++) {
+      network.addNode(new Node(network.rd, nb));
+    }
+    Message<Node> other =
+        new Message<>() {
+          @Override
+          public void action(Network<Node> network, Node from, Node to) {}
+        };
+    network.sendAll(new CursorMessage(), network.getNodeById(1));
+    network.send(other, network.getNodeById(2), new ArrayList<>(network.allNodes));
+    network.send(new CursorMessage(), 150, network.getNodeById(3), network.getNodeById(4));
+    network.sendFromMany(n -> other, network.allNodes.subList(5, 30), network.getNodeById(0));
+    network.runMs(40);
+
+    List<EnvelopeInfo<?>> all = network.msgs.peekMessages();
+    Assert.assertEquals(network.msgs.pendingDeliveries(), all.size());
+    Set<String> expected = new HashSet<>();
+    for (Network<Node>.MsgsSlot ms : network.msgs.msgsBySlot) {
+      for (int t = ms.nextArrivalTime(0); t >= 0; t = ms.nextArrivalTime(t + 1)) {
+        for (Envelope<?> e = ms.peek(t); e != null; e = e.getNextSameTime()) {
+          for (EnvelopeInfo<?> ei : e.infos(network)) {
+            expected.add(ei.from + "->" + ei.to + "@" + ei.arrivingAt + "/" + ei.msg.getClass());
+          }
+        }
+      }
+    }
+    Set<String> actual = new HashSet<>();
+    for (int i = 0; i < all.size(); i++) {
+      EnvelopeInfo<?> ei = all.get(i);
+      Assert.assertTrue(ei.arrivingAt >= network.time);
+      Assert.assertTrue(i == 0 || all.get(i - 1).arrivingAt <= ei.arrivingAt);
+      actual.add(ei.from + "->" + ei.to + "@" + ei.arrivingAt + "/" + ei.msg.getClass());
+    }
+    Assert.assertEquals(expected, actual);
+
+    MessageFilter filter = new MessageFilter(1, -1, 50, 200, "CursorMessage");
+    Network<Node>.MessageCursor c = network.msgs.cursor(filter);
+    int count = 0;
+    while (c.next()) {
+      Assert.assertEquals(1, c.from());
+      Assert.assertTrue(c.arrivingAt() >= 50 && c.arrivingAt() <= 200);
+      Assert.assertTrue(c.message() instanceof CursorMessage);
+      count++;
+    }
+    long expectedCount =
+        all.stream()
+            .filter(ei -> ei.from == 1 && ei.arrivingAt >= 50 && ei.arrivingAt <= 200)
+            .count();
+    Assert.assertTrue(expectedCount > 0);
+    Assert.assertEquals(expectedCount, count);
+
+    c = network.msgs.cursor(new MessageFilter(-1, 4, 0, Integer.MAX_VALUE, null));
+    count = 0;
+    while (c.next()) {
+      Assert.assertEquals(4, c.to());
+      count++;
+    }
+    Assert.assertEquals(all.stream().filter(ei -> ei.to == 4).count(), count);
+  }
+
+  @Test
+  public void testSendFromMany() {
+    Network<Node> network = new Network<>();
+    network.setNetworkLatency(new NetworkLatency.NetworkLatencyByDistanceWJitter());
+    NodeBuilder nb = new NodeBuilder.NodeBuilderWithRandomPosition();
+    for (int i = 0; i < 50; i++) {
+      network.addNode(new Node(network.rd, nb));
+    }
+    Node leader = network.getNodeById(0);
+    network.getNodeById(7).stop();
+
+    Map<Integer, Integer> received = new HashMap<>();
+    List<Message<Node>> votes = new ArrayList<>();
+    for (Node n : network.allNodes) {
+      Message<Node> vote =
+          new Message<>() {
+            @Override
+            public void action(Network<Node> network, Node from, Node to) {
+              Assert.assertSame(leader, to);
+              Assert.assertSame(this, votes.get(from.nodeId));
+              Assert.assertNull(received.put(from.nodeId, network.time));
+            }
+
+            @Override
+            public int size() {
+              return 10 + n.nodeId;
+            }
+          };
+      votes.add(vote);
+    }
+
+    List<Node> senders = network.allNodes.subList(1, 50);
+    network.sendFromMany(n -> votes.get(n.nodeId), senders, leader);
+    Assert.assertEquals(1, network.msgs.size());
+    Envelope.MultipleSourceEnvelope<?> e =
+        (Envelope.MultipleSourceEnvelope<?>) network.msgs.peekFirst();
+    Assert.assertEquals(48, e.remainingReaders());
+
+    network.run(1);
+    Assert.assertEquals(48, received.size());
+    Assert.assertFalse(received.containsKey(7));
+    for (Node n : senders) {
+      Assert.assertEquals(1, n.msgSent);
+      Assert.assertEquals(10 + n.nodeId, n.bytesSent);
+      if (n.nodeId != 7) {
+        int lat =
+            network.networkLatency.getLatency(
+                n, leader, Network.getPseudoRandom(n.nodeId, e.randomSeed));
+        Assert.assertEquals(1 + lat, (int) received.get(n.nodeId));
+      }
+    }
+    Assert.assertEquals(48, leader.msgReceived);
+  }
+
+  @Test
+  public void testSendFromManySameMessage() {
+    List<String> received = new ArrayList<>();
+    Message<Node> vote =
+        new Message<>() {
+          @Override
+          public void action(Network<Node> network, Node from, Node to) {
+            received.add(from.nodeId + "->" + to.nodeId);
+          }
+        };
+    network.sendFromMany(n -> vote, Arrays.asList(n1, n2, n3), n0);
+    Assert.assertEquals(1, network.msgs.size());
+
+    network.run(1);
+    Assert.assertEquals(Arrays.asList("1->0", "2->0", "3->0"), received);
+    Assert.assertEquals(3, n0.msgReceived);
+  }
+
+  @Test
+  public void testNodeRandomStreams() {
+    Network<Node> network = new Network<>();
+    NodeBuilder nb = new NodeBuilder();
+    Node n0 = new Node(network.rd, nb);
+    Node n1 = new Node(network.rd, nb);
+    network.addNode(n0);
+    network.addNode(n1);
+
+    network.rd.setSeed(42);
+    int n0First = n0.random.nextInt();
+    long n1First = n1.random.nextLong();
+    Assert.assertNotEquals(n0First, (int) (n1First >>> 32));
+
+    // The draws of a node don't change the values of the other nodes
+    network.rd.setSeed(42);
+    for (int i = 0; i < 10; i++) {
+      n0.random.nextInt();
+      network.rd.nextInt();
+    }
+    Assert.assertEquals(n1First, n1.random.nextLong());
+
+    // A node added after the seed is set gets a stream of this seed
+    Node n2 = new Node(network.rd, nb);
+    network.addNode(n2);
+    int n2First = n2.random.nextInt();
+    network.rd.setSeed(42);
+    Assert.assertEquals(n0First, n0.random.nextInt());
+    Assert.assertEquals(n2First, n2.random.nextInt());
+
+    network.rd.setSeed(43);
+    Assert.assertNotEquals(n0First, n0.random.nextInt());
+  }
+
+  /** A gossip: each node forwards the first messages it receives, and sends a task result later. */
+  private static List<String> gossip(int threads, boolean useNetworkRandom) {
+    Network<Node> network = new Network<>();
+    network.setParallelism(threads);
+    network.setNetworkLatency(new NetworkLatency.NetworkLatencyByDistanceWJitter());
+    NodeBuilder nb = new NodeBuilder.NodeBuilderWithRandomPosition();
+    int nodeCount = 500;
+    for (int i = 0; i < nodeCount; i++) {
+      network.addNode(new Node(network.rd, nb));
+    }
+
+    List<List<String>> received = new ArrayList<>();
+    for (int i = 0; i < nodeCount; i++) {
+      received.add(new ArrayList<>());
+    }
+    Message<Node> gm =
+        new Message<>() {
+          @Override
+          public void action(Network<Node> network, Node from, Node to) {
+            List<String> r = received.get(to.nodeId);
+            r.add(network.time + ":" + from.nodeId);
+            if (r.size() <= 3) {
+              List<Node> dests = new ArrayList<>();
+              for (int i = 1; i <= 5; i++) {
+                dests.add(network.getNodeById((to.nodeId * 7 + r.size() * 13 + i) % nodeCount));
+              }
+              network.send(this, to, dests);
+              dests.clear();
+              int delay = 1 + (useNetworkRandom ? network.rd : to.random).nextInt(10);
+              network.registerTask(
+                  () -> network.send(this, to, network.getNodeById(0)), network.time + delay, to);
+            }
+          }
+        };
+    for (int i = 0; i < nodeCount; i += 50) {
+      network.sendAll(gm, network.getNodeById(i));
+    }
+    network.run(10);
+
+    List<String> res = new ArrayList<>();
+    for (Node n : network.allNodes) {
+      res.add(n.nodeId + ":" + n.msgReceived + ":" + n.msgSent + ":" + received.get(n.nodeId));
+    }
+    res.add("rd:" + network.rd.nextInt() + ", deliveries:" + network.msgs.metrics().deliveries);
+    network.setParallelism(1);
+    return res;
+  }
+
+  @Test
+  public void testParallelDeliveries() {
+    List<String> seq = gossip(1, false);
+    Assert.assertEquals(seq, gossip(4, false));
+    Assert.assertEquals(seq, gossip(3, false));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testParallelDeliveriesNetworkRandom() {
+    gossip(4, true);
+  }
+
+  /**
+   * Each node receives two messages at the same time, and registers for each a task starting now:
+   * with a sequential execution the task runs before the second message.
+   */
+  private static List<String> tasksNow(int threads) {
+    Network<Node> network = new Network<>();
+    network.setParallelism(threads);
+    NodeBuilder nb = new NodeBuilder();
+    int nodeCount = 100;
+    for (int i = 0; i < nodeCount; i++) {
+      network.addNode(new Node(network.rd, nb));
+    }
+    List<List<String>> events = new ArrayList<>();
+    for (int i = 0; i < nodeCount; i++) {
+      events.add(new ArrayList<>());
+    }
+    class TaskNowMessage extends Message<Node> {
+      private final String name;
+
+      private TaskNowMessage(String name) {
+        this.name = name;
+      }
+
+      @Override
+      public void action(Network<Node> network, Node from, Node to) {
+        List<String> e = events.get(to.nodeId);
+        e.add(network.time + ":" + name + ":" + e.size());
+        network.registerTask(
+            () -> {
+              e.add(network.time + ":task-" + name + ":" + e.size());
+              network.send(new TaskNowMessage(name + "'"), to, network.getNodeById(0));
+            },
+            network.time,
+            to);
+      }
+    }
+    network.sendAll(new TaskNowMessage("a"), network.getNodeById(0));
+    network.sendAll(new TaskNowMessage("b"), network.getNodeById(0));
+    network.run(1);
+
+    List<String> res = new ArrayList<>();
+    for (Node n : network.allNodes) {
+      res.add(n.nodeId + ":" + n.msgReceived + ":" + n.msgSent + ":" + events.get(n.nodeId));
+    }
+    res.add("deliveries:" + network.msgs.metrics().deliveries);
+    return res;
+  }
+
+  @Test
+  public void testParallelDeliveriesTaskNow() {
+    List<String> seq = tasksNow(1);
+    // Both messages arrive at the same time, the task of the first one runs before the second one
+    Assert.assertTrue(
+        seq.get(1), seq.get(1).matches("1:2:2:\\[(\\d+):(a|b):0, \\1:task-\\2:1, \\1:[ab]:2, .*"));
+    Assert.assertEquals(seq, tasksNow(4));
+    Assert.assertEquals(seq, tasksNow(3));
+  }
+
+  private static int deliveryThreads() {
+    int res = 0;
+    for (Thread t : Thread.getAllStackTraces().keySet()) {
+      if (t.getName().startsWith("network-delivery-") && t.isAlive()) {
+        res++;
+      }
+    }
+    return res;
+  }
+
+  @Test
+  public void testParallelDeliveriesThreadsStop() throws InterruptedException {
+    gossip(4, false);
+    long end = System.currentTimeMillis() + 10_000;
+    while (deliveryThreads() != 0 && System.currentTimeMillis() < end) {
+      Thread.sleep(5);
+    }
+    Assert.assertEquals(0, deliveryThreads());
+  }
+
+  @Test
+  public void testParallelDeliveriesExternalSetLater() {
+    Network<Node> network = new Network<>();
+    network.setParallelism(2);
+    NodeBuilder nb = new NodeBuilder();
+    for (int i = 0; i < 100; i++) {
+      network.addNode(new Node(network.rd, nb));
+    }
+    AtomicInteger actions = new AtomicInteger();
+    Message<Node> am =
+        new Message<>() {
+          @Override
+          public void action(Network<Node> network, Node from, Node to) {
+            actions.incrementAndGet();
+          }
+        };
+    network.sendAll(am, network.getNodeById(0));
+    network.run(1);
+    Assert.assertEquals(100, actions.get());
+
+    // The network has looked for the externals already, it must see this one
+    List<EnvelopeInfo<?>> received = new ArrayList<>();
+    network
+        .getNodeById(1)
+        .setExternal(
+            new External() {
+              @Override
+              public <TN extends Node> List<SendMessage> receive(EnvelopeInfo<TN> ei) {
+                received.add(ei);
+                return Collections.emptyList();
+              }
+            });
+    network.sendAll(am, network.getNodeById(0));
+    network.run(1);
+    Assert.assertEquals(1, received.size());
+    Assert.assertEquals(199, actions.get());
   }
 
   @Test
@@ -253,21 +856,12 @@ public class NetworkTest {
     network.addNode(n3);
 
     network.networkLatency = new NetworkLatency.NetworkLatencyByDistanceWJitter();
-    List<Network.MessageArrival> mas =
-        network.createMessageArrivals(m, 1, n0, List.of(n1, n2, n3), 1, 20);
-    Assert.assertEquals(3, mas.size());
-    Collections.sort(mas);
-
-    Envelope.MultipleDestWithDelayEnvelope<Node> e =
-        new Envelope.MultipleDestWithDelayEnvelope<>(m, n0, mas, 1);
-    Assert.assertEquals(mas.get(0).arrival, e.nextArrivalTime(network));
-    e.markRead();
-    Assert.assertEquals(mas.get(1).arrival, e.nextArrivalTime(network));
-    e.markRead();
-    Assert.assertEquals(mas.get(2).arrival, e.nextArrivalTime(network));
-    Assert.assertTrue(e.hasNextReader());
-    e.markRead();
-    Assert.assertFalse(e.hasNextReader());
+    int seed = nextSeed(n0);
+    network.send(m, 1, n0, List.of(n1, n2, n3), 20);
+    Envelope<?> e = network.msgs.pollFirst();
+    Assert.assertTrue(e instanceof Envelope.MultipleDestWithDelayEnvelope);
+
+    assertArrivals(network, expectedArrivals(network, n0, List.of(n1, n2, n3), 1, seed, 20), e);
   }
 
   @Test
@@ -336,13 +930,8 @@ public class NetworkTest {
     Assert.assertTrue(e instanceof Envelope.MultipleDestEnvelope);
     Envelope.MultipleDestEnvelope mm = (Envelope.MultipleDestEnvelope) e;
 
-    List<Network.MessageArrival> mas =
-        network.createMessageArrivals(m, 1, n0, Arrays.asList(n1, n2, n3), mm.randomSeed, 0);
-
-    for (Network.MessageArrival ma : mas) {
-      Assert.assertEquals(ma.arrival, e.nextArrivalTime(network));
-      e.markRead();
-    }
+    assertArrivals(
+        network, expectedArrivals(network, n0, Arrays.asList(n1, n2, n3), 1, mm.randomSeed, 0), e);
   }
 
   @Test
@@ -421,6 +1010,43 @@ public class NetworkTest {
     net.msgs.clear();
   }
 
+  @Test
+  public void testPartitionByAssignment() {
+    AtomicInteger received = new AtomicInteger();
+    Message<Node> act =
+        new Message<>() {
+          @Override
+          public void action(Network<Node> network, Node from, Node to) {
+            received.incrementAndGet();
+          }
+        };
+
+    network.partition(Arrays.asList(n1, n3));
+    Assert.assertEquals(0, network.partitionId(n0));
+    Assert.assertEquals(1, network.partitionId(n1));
+    network.sendAll(act, n1);
+    network.runMs(10);
+    Assert.assertEquals(2, received.get());
+
+    // A message in flight is lost if the nodes are partitioned before it arrives
+    network.send(act, n0, n2);
+    network.partition(n -> n.nodeId);
+    network.runMs(10);
+    Assert.assertEquals(2, received.get());
+
+    // The nodes added later are partitioned as well
+    Node n4 = new Node(network.rd, nb);
+    network.addNode(n4);
+    Assert.assertEquals(4, network.partitionId(n4));
+    network.send(act, n4, n0);
+    Assert.assertEquals(0, network.msgs.size());
+
+    network.endPartition();
+    network.sendAll(act, n4);
+    network.runMs(10);
+    Assert.assertEquals(7, received.get());
+  }
+
   @Test
   public void testLongRunning() {
     Message<Node> act =
@@ -478,6 +1104,96 @@ public class NetworkTest {
     Assert.assertEquals(2, ai.get());
   }
 
+  @Test
+  public void testConditionalTaskBetweenMessages() {
+    final AtomicInteger ai = new AtomicInteger(0);
+    final List<Integer> times = new ArrayList<>();
+    Message<Node> act =
+        new Message<>() {
+          @Override
+          public void action(Network<Node> network, Node from, Node to) {
+            ai.incrementAndGet();
+          }
+        };
+    network.registerConditionalTask(
+        () -> times.add(network.time), 500, 300, n0, () -> ai.get() > 0, () -> true);
+    network.sendArriveAt(act, 200, n1, n2);
+    network.sendArriveAt(act, 70_000, n1, n2);
+
+    // A conditional task is looked at again only when something happened on the network
+    network.runMs(1000);
+    Assert.assertEquals(Collections.singletonList(500), times);
+
+    network.runMs(100_000);
+    Assert.assertEquals(2, ai.get());
+    Assert.assertEquals(Arrays.asList(500, 1001, 70_001), times);
+    Assert.assertEquals(0, network.msgs.size());
+  }
+
+  @Test
+  public void testConditionalTasksOrder() {
+    List<String> started = new ArrayList<>();
+    for (String name : new String[] {"a", "b", "c", "d"}) {
+      Node n = network.getNodeById("dabc".indexOf(name));
+      int startAt = name.equals("a") ? 20 : name.equals("d") ? 5 : 10;
+      network.registerConditionalTask(
+          () -> started.add(name + network.time),
+          startAt,
+          10,
+          n,
+          () -> true,
+          () -> !name.equals("a") && !name.equals("b"));
+    }
+    n3.stop();
+
+    // Same start time: the registration order. The node 3 is down.
+    network.runMs(15);
+    Assert.assertEquals(Arrays.asList("d5", "b10"), started);
+
+    // The tasks of a down node wait for the node to be up again
+    n3.start();
+    network.runMs(15);
+    Assert.assertEquals(Arrays.asList("d5", "b10", "c16", "d16", "a20"), started);
+
+    // The tasks are looked at again only when something happened on the network
+    started.clear();
+    network.runMs(100);
+    network.sendArriveAt(m, 200, n0, n1);
+    network.runMs(100);
+    Assert.assertEquals(Arrays.asList("c31", "d31", "c131", "d131", "c201", "d201"), started);
+    Assert.assertEquals(2, network.conditionalTasks.size());
+  }
+
+  @Test
+  public void testConditionalTaskRestartingNodes() {
+    List<String> started = new ArrayList<>();
+    n1.stop();
+    n2.stop();
+    network.registerConditionalTask(
+        () -> started.add("b" + network.time), 5, 10, n1, () -> true, () -> false);
+    network.registerConditionalTask(
+        () -> started.add("c" + network.time), 50, 10, n2, () -> true, () -> false);
+    network.registerConditionalTask(
+        () -> {
+          started.add("a" + network.time);
+          n1.start();
+          n2.start();
+        },
+        10,
+        10,
+        n0,
+        () -> true,
+        () -> false);
+
+    // The nodes are restarted during the scan: their tasks wait for the next one
+    network.runMs(100);
+    Assert.assertEquals(Collections.singletonList("a10"), started);
+
+    network.runMs(100);
+    Assert.assertEquals(Arrays.asList("a10", "b101", "c101"), started);
+    Assert.assertTrue(network.conditionalTasks.isEmpty());
+  }
+
   @Test
   public void testConditionalTask() {
     final AtomicBoolean ab = new AtomicBoolean(false);
@@ -1,7 +1,11 @@
 package net.consensys.wittgenstein.core;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import net.consensys.wittgenstein.core.messages.BoundedSeenMessages;
 import net.consensys.wittgenstein.core.messages.FloodMessage;
 import net.consensys.wittgenstein.core.messages.StatusFloodMessage;
 import net.consensys.wittgenstein.core.utils.MoreMath;
@@ -168,4 +172,89 @@ public class P2PNetworkTest {
     Assert.assertFalse(n0RemovedPeers.peers.contains(n0));
     Assert.assertEquals((n0P - 1), n0.peers.size());
   }
+
+  @Test
+  public void testLinkChanges() {
+    Map<P2PNodeTest, List<P2PNodeTest>> expected = new HashMap<>();
+    for (P2PNodeTest n : network.allNodes) {
+      expected.put(n, new ArrayList<>(n.peers));
+    }
+
+    Random rd = new Random(0);
+    for (int i = 0; i < 20_000; i++) {
+      P2PNodeTest a = network.allNodes.get(rd.nextInt(network.allNodes.size()));
+      P2PNodeTest b = network.allNodes.get(rd.nextInt(network.allNodes.size()));
+      if (a == b) {
+        continue;
+      }
+      if (expected.get(a).contains(b)) {
+        network.removeLink(a, b);
+        expected.get(a).remove(b);
+        expected.get(b).remove(a);
+      } else {
+        network.createLink(a, b);
+        expected.get(a).add(b);
+        expected.get(b).add(a);
+      }
+    }
+
+    for (P2PNodeTest n : network.allNodes) {
+      Assert.assertEquals(expected.get(n), n.peers);
+    }
+    network.disconnect(n0);
+    Assert.assertTrue(n0.peers.isEmpty());
+    for (P2PNodeTest n : network.allNodes) {
+      Assert.assertFalse(n.peers.contains(n0));
+    }
+  }
+
+  @Test
+  public void testSeenMessagesExpiry() {
+    for (P2PNodeTest n : network.allNodes) {
+      n.setSeenMessages(new BoundedSeenMessages(100, 0));
+    }
+    FloodMessage<P2PNodeTest> m1 = new FloodMessage<>(1, 0, 0);
+    network.sendPeers(m1, n0);
+    network.runMs(50);
+    Assert.assertEquals(network.allNodes.size(), count(m1));
+
+    network.runMs(60);
+    FloodMessage<P2PNodeTest> m2 = new FloodMessage<>(1, 0, 0);
+    network.sendPeers(m2, n0);
+    network.runMs(50);
+    for (P2PNodeTest n : network.allNodes) {
+      Assert.assertEquals(1, n.getMsgReceived(-1).size());
+      Assert.assertTrue(n.getMsgReceived(-1).contains(m2));
+    }
+  }
+
+  @Test
+  public void testSeenMessagesMaxCount() {
+    BoundedSeenMessages seen = new BoundedSeenMessages(0, 2);
+    FloodMessage<P2PNodeTest> m1 = new FloodMessage<>(1, 0, 0);
+    FloodMessage<P2PNodeTest> m2 = new FloodMessage<>(1, 0, 0);
+    FloodMessage<P2PNodeTest> m3 = new FloodMessage<>(1, 0, 0);
+    StatusFloodMessage<P2PNodeTest> s1 = new StatusFloodMessage<>(1, 1, 1, 0, 0);
+    StatusFloodMessage<P2PNodeTest> s2 = new StatusFloodMessage<>(1, 2, 1, 0, 0);
+
+    Assert.assertTrue(seen.add(m1, 0));
+    Assert.assertFalse(seen.add(m1, 0));
+    Assert.assertTrue(seen.add(m2, 1));
+    seen.replace(s1, 2);
+    Assert.assertEquals(2, seen.size());
+    Assert.assertFalse(seen.get(-1).contains(m1));
+    Assert.assertTrue(seen.get(-1).contains(m2));
+
+    seen.replace(s2, 3);
+    Assert.assertEquals(2, seen.size());
+    Assert.assertEquals(s2, seen.get(1).iterator().next());
+    Assert.assertTrue(seen.add(m3, 4));
+    Assert.assertEquals(2, seen.size());
+    Assert.assertEquals(1, seen.get(-1).size());
+    Assert.assertTrue(seen.get(-1).contains(m3));
+
+    Assert.assertTrue(seen.add(m1, 5));
+    Assert.assertEquals(2, seen.size());
+    Assert.assertTrue(seen.get(1).isEmpty());
+  }
 }
@@ -0,0 +1,64 @@
+package net.consensys.wittgenstein.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyDatasetTest {
+
+  private static LatencyDataset smallDataset() {
+    Map<String, Map<String, Float>> lm = new HashMap<>();
+    Map<String, Float> c1 = new HashMap<>();
+    c1.put("city1", 30f);
+    c1.put("city2", 140f);
+    Map<String, Float> c2 = new HashMap<>();
+    c2.put("city2", 30f);
+    lm.put("city1", c1);
+    lm.put("city2", c2);
+    return LatencyDataset.fromReader(new CSVLatencyReader(lm));
+  }
+
+  @Test
+  public void testFromReader() {
+    LatencyDataset ld = smallDataset();
+    int c1 = ld.cityIndex("city1");
+    int c2 = ld.cityIndex("city2");
+    Assert.assertEquals(2, ld.cities().size());
+    Assert.assertEquals(-1, ld.cityIndex("city3"));
+    Assert.assertEquals(140f, ld.latency(c1, c2), 0);
+    // Missing from city2 to city1: we take the other direction
+    Assert.assertEquals(140f, ld.latency(c2, c1), 0);
+    Assert.assertEquals(30f, ld.latency(c2, c2), 0);
+  }
+
+  @Test
+  public void testWriteRead() throws IOException {
+    LatencyDataset ld = smallDataset();
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ld.write(bos);
+
+    LatencyDataset read = LatencyDataset.read(ByteBuffer.wrap(bos.toByteArray()));
+    Assert.assertEquals(ld.cities(), read.cities());
+    for (int f = 0; f < ld.cities().size(); f++) {
+      for (int t = 0; t < ld.cities().size(); t++) {
+        Assert.assertEquals(ld.latency(f, t), read.latency(f, t), 0);
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testReadWrongFormat() throws IOException {
+    LatencyDataset.read(ByteBuffer.wrap(new byte[12]));
+  }
+
+  @Test
+  public void testShared() {
+    LatencyDataset ld = LatencyDataset.get();
+    Assert.assertSame(ld, LatencyDataset.get());
+    Assert.assertEquals(new CSVLatencyReader().cities(), ld.cities());
+  }
+}
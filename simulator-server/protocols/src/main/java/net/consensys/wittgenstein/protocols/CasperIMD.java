@@ -250,7 +250,7 @@ public class CasperIMD implements Protocol {
       if (params.randomOnTies) {
         // VB: I’d say break ties via client-side randomness. Seems safest in the existing cases
         // where it’s been studied.
-        return network.rd.nextBoolean() ? o1 : o2;
+        return random.nextBoolean() ? o1 : o2;
       } else {
         return b1.id >= b2.id ? o1 : o2;
       }
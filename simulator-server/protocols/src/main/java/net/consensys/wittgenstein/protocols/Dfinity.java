@@ -230,7 +230,7 @@ public class Dfinity implements Protocol {
       DfinityBlock newBlock = new DfinityBlock(this, height, head, true, network.time);
 
       List<DfinityNode> attestersS = new ArrayList<>(params.attesters);
-      Collections.shuffle(attestersS, network.rd);
+      Collections.shuffle(attestersS, random);
       network.send(
           new BlockProposal(newBlock),
           network.time + params.blockConstructionTime,
@@ -305,7 +305,7 @@ public class Dfinity implements Protocol {
           } else {
             Vote v = new Vote(b);
             List<DfinityNode> attestersS = new ArrayList<>(params.attesters);
-            Collections.shuffle(attestersS, network.rd);
+            Collections.shuffle(attestersS, random);
             network.send(v, network.time + params.attestationConstructionTime, this, attestersS);
           }
         }
@@ -341,7 +341,7 @@ public class Dfinity implements Protocol {
             sent.add(b);
             Vote v = new Vote(b);
             List<DfinityNode> attestersS = new ArrayList<>(params.attesters);
-            Collections.shuffle(attestersS, network.rd);
+            Collections.shuffle(attestersS, random);
             network.send(v, network.time + params.attestationConstructionTime, this, attestersS);
           }
         }
@@ -402,7 +402,7 @@ public class Dfinity implements Protocol {
           RandomBeaconExchange rbe = new RandomBeaconExchange(height);
 
           List<DfinityNode> rdsSends = new ArrayList<>(params.rds);
-          Collections.shuffle(rdsSends, network.rd);
+          Collections.shuffle(rdsSends, random);
           network.send(rbe, wt, this, rdsSends);
         }
       }
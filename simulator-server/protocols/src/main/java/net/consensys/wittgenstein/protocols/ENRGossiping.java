@@ -280,12 +280,12 @@ public class ENRGossiping implements Protocol {
       if (network.time > 1) {
         // The nodes added at the beginning won't exit the network: this makes the simulation
         // simpler
-        startExit = network.time + network.rd.nextInt(params.timeToLeave);
+        startExit = network.time + random.nextInt(params.timeToLeave);
         network.registerTask(this::exitNetwork, startExit, this);
       }
 
       // Nodes broadcast their capabilities every capGossipTime ms with a lag of rand*100 ms
-      int startBroadcast = network.time + network.rd.nextInt(params.capGossipTime) + 1;
+      int startBroadcast = network.time + random.nextInt(params.capGossipTime) + 1;
       if (startBroadcast < startExit) {
         // If you're very unlucky you will die before having really started.
         network.registerPeriodicTask(
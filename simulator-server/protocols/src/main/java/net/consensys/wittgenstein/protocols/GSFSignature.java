@@ -467,7 +467,7 @@ public class GSFSignature implements Protocol {
         res.add(network.getNodeById(cur));
       }
 
-      Collections.shuffle(res, network.rd);
+      Collections.shuffle(res, random);
       if (res.size() > nodeCt) {
         return res.subList(0, nodeCt);
       } else {
@@ -510,7 +510,7 @@ public class Handel implements Protocol {
         for (List<HNode> ranks : emissions) {
           if (ranks != null && !ranks.isEmpty()) {
             if (ranks.size() > 1) {
-              Collections.shuffle(ranks, network.rd);
+              Collections.shuffle(ranks, random);
             }
             peers.addAll(ranks);
           }
@@ -786,7 +786,7 @@ public class Handel implements Protocol {
     }
 
     private SigToVerify chooseBestFromLevels(List<SigToVerify> bestByLevels) {
-      return bestByLevels.get(network.rd.nextInt(bestByLevels.size()));
+      return bestByLevels.get(random.nextInt(bestByLevels.size()));
     }
 
     private void checkSigs() {
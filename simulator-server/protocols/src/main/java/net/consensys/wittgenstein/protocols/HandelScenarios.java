@@ -62,7 +62,7 @@ public class HandelScenarios {
     return defaultParams(null, null, null, null, null, null, null, null, null);
   }
 
-  private static Handel.HandelParameters defaultParams(
+  static Handel.HandelParameters defaultParams(
       Integer nodes,
       Double deadRatio,
       Double tor,
@@ -382,7 +382,7 @@ public class P2PHandel implements Protocol {
      * well eg.
      */
     private P2PHandelNode randomDest() {
-      return peers.get(network.rd.nextInt(peers.size()));
+      return peers.get(random.nextInt(peers.size()));
     }
 
     /** The only difficulty here is to calculate the actual number of signatures we're sending. */
@@ -298,7 +298,7 @@ public class Paxos implements Protocol {
 
     private void sendToAcceptors(Message<PaxosNode> m, int sentTime) {
       List<PaxosNode> dest = new ArrayList<>(acceptors);
-      Collections.shuffle(dest, network.rd);
+      Collections.shuffle(dest, random);
       network.send(m, sentTime, this, dest);
     }
 
@@ -0,0 +1,49 @@
+package net.consensys.wittgenstein.protocols;
+
+import net.consensys.wittgenstein.core.Network;
+
+/**
+ * PingPong used as a benchmark of the network layer: a node pings all the other nodes once per
+ * slot, so most of the simulated milliseconds are empty. This is the typical workload of the slot
+ * based protocols (Solana, Ouroboros, ...).
+ */
+@SuppressWarnings({"unused", "SameParameterValue"})
+public class PingPongScenarios {
+
+  /** Run the simulation and print the number of simulated milliseconds per second of wall clock. */
+  static void sparseTraffic(int nodeCt, int slotDurationInMs, int simulatedSeconds) {
+    PingPong p = new PingPong(new PingPong.PingPongParameters(nodeCt, null, null));
+    p.init();
+    Network<PingPong.PingPongNode> network = p.network();
+    PingPong.PingPongNode n0 = network.getNodeById(0);
+    network.registerPeriodicTask(
+        () -> network.sendAll(new PingPong.Ping(), n0), 1, slotDurationInMs, n0);
+
+    long startAt = System.nanoTime();
+    network.run(simulatedSeconds);
+    long wallMs = Math.max(1, (System.nanoTime() - startAt) / 1_000_000);
+
+    System.out.println(
+        "nodes="
+            + nodeCt
+            + ", slot="
+            + slotDurationInMs
+            + "ms, simulated="
+            + simulatedSeconds
+            + "s, wall="
+            + wallMs
+            + "ms, simulated ms per wall second="
+            + (simulatedSeconds * 1000L * 1000L) / wallMs
+            + ", pongs="
+            + n0.pong);
+  }
+
+  public static void main(String... args) {
+    // warm up
+    sparseTraffic(200, 400, 600);
+
+    sparseTraffic(200, 400, 3600);
+    sparseTraffic(200, 1000, 3600);
+    sparseTraffic(200, 20_000, 3600 * 6);
+  }
+}
@@ -0,0 +1,330 @@
+package net.consensys.wittgenstein.protocols;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import net.consensys.wittgenstein.core.MessageQueueMetrics;
+import net.consensys.wittgenstein.core.Protocol;
+import net.consensys.wittgenstein.core.RunMultipleTimes;
+import net.consensys.wittgenstein.core.utils.Strings;
+import net.consensys.wittgenstein.protocols.ethpow.ETHPoW;
+import net.consensys.wittgenstein.protocols.solana.Solana;
+import net.consensys.wittgenstein.protocols.solana.SolanaConfig;
+import net.consensys.wittgenstein.protocols.utils.OutputSink;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Macro benchmarks: whole protocols at production sizes, with a fixed random seed. For each profile
+ * we measure the wall time, the number of simulated ms per wall second, the memory allocated by the
+ * simulation thread, the peak heap and the number of events processed and envelopes created by the
+ * network.
+ *
+ * <p>A protocol adds its profiles with one of the register methods. Usage: ProtocolProfiles
+ * [--seed=n] [--csv=file] [--json=file] [profile...]; all the profiles are run if none is given.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ProtocolProfiles {
+  private static final Map<String, Profile<?>> profiles = new LinkedHashMap<>();
+
+  /** A named and reproducible run of a protocol. */
+  public static class Profile<P extends Protocol> {
+    public final String name;
+    final Supplier<P> protocol;
+    /** Runs the simulation, once the protocol is initialized. */
+    final Consumer<P> run;
+
+    Profile(String name, Supplier<P> protocol, Consumer<P> run) {
+      this.name = name;
+      this.protocol = protocol;
+      this.run = run;
+    }
+  }
+
+  public static class ProfileResult {
+    public final String name;
+    public final long seed;
+    public final long initMs;
+    public final long wallMs;
+    public final long simulatedMs;
+    public final long simulatedMsPerWallSecond;
+    /** Allocated by the simulation thread during the run; -1 if the JVM can't tell. */
+    public final long allocatedMB;
+
+    public final long allocationRateMBPerSecond;
+    /** The sum of the peaks of the heap memory pools, from the protocol creation to the end. */
+    public final long peakHeapMB;
+
+    public final long gcCount;
+    public final long gcMs;
+    /** The number of envelope deliveries, including the tasks. */
+    public final long events;
+
+    public final long envelopesCreated;
+    public final int peakEnvelopes;
+
+    ProfileResult(
+        String name,
+        long seed,
+        long initMs,
+        long wallMs,
+        long simulatedMs,
+        long allocatedBytes,
+        long peakHeapBytes,
+        long gcCount,
+        long gcMs,
+        MessageQueueMetrics metrics) {
+      this.name = name;
+      this.seed = seed;
+      this.initMs = initMs;
+      this.wallMs = wallMs;
+      this.simulatedMs = simulatedMs;
+      this.simulatedMsPerWallSecond = (simulatedMs * 1000) / Math.max(1, wallMs);
+      this.allocatedMB = allocatedBytes < 0 ? -1 : allocatedBytes / (1024 * 1024);
+      this.allocationRateMBPerSecond =
+          allocatedBytes < 0 ? -1 : (allocatedMB * 1000) / Math.max(1, wallMs);
+      this.peakHeapMB = peakHeapBytes / (1024 * 1024);
+      this.gcCount = gcCount;
+      this.gcMs = gcMs;
+      this.events = metrics.deliveries;
+      this.envelopesCreated = metrics.envelopesCreated;
+      this.peakEnvelopes = metrics.peakEnvelopes;
+    }
+
+    // for json
+    public ProfileResult() {
+      this(null, 0, 0, 0, 0, 0, 0, 0, 0, new MessageQueueMetrics());
+    }
+
+    @Override
+    public String toString() {
+      return Strings.toString(this);
+    }
+  }
+
+  /** Register a profile driven by the protocol itself, e.g. for the slot based protocols. */
+  public static synchronized <P extends Protocol> void register(
+      String name, Supplier<P> protocol, Consumer<P> run) {
+    if (profiles.containsKey(name)) {
+      throw new IllegalArgumentException("There is already a profile called " + name);
+    }
+    profiles.put(name, new Profile<>(name, protocol, run));
+  }
+
+  /**
+   * Register a profile running the network until maxSimulatedMs or until contIf returns false,
+   * checking every 10ms as RunMultipleTimes does.
+   */
+  public static <P extends Protocol> void register(
+      String name, Supplier<P> protocol, int maxSimulatedMs, Predicate<P> contIf) {
+    register(
+        name,
+        protocol,
+        p -> {
+          while (p.network().time < maxSimulatedMs && (contIf == null || contIf.test(p))) {
+            p.network().runMs(10);
+          }
+        });
+  }
+
+  public static synchronized Profile<?> getProfile(String name) {
+    Profile<?> p = profiles.get(name);
+    if (p == null) {
+      throw new IllegalArgumentException("Unknown profile: " + name + ", known: " + profiles());
+    }
+    return p;
+  }
+
+  public static synchronized List<String> profiles() {
+    return new ArrayList<>(profiles.keySet());
+  }
+
+  static {
+    register(
+        "handel-4096-cities",
+        () ->
+            new Handel(
+                HandelScenarios.defaultParams(
+                    4096, null, null, null, null, null, null, null, null)),
+        60_000,
+        Handel.newContIf());
+
+    register(
+        "p2pflood-50k",
+        () -> new P2PFlood(new P2PFlood.P2PFloodParameters(50_000, 0, 1, 1, 1, 13, 0, null, null)),
+        60_000,
+        RunMultipleTimes.contUntilDone());
+
+    register("solana-10k-1epoch", () -> solana(10_000), s -> s.simulate(1));
+
+    register(
+        "ethpow-24h",
+        () -> new ETHPoW(new ETHPoW.ETHPoWParameters(null, null, 10, null, 0)),
+        p -> p.network().runH(24));
+  }
+
+  private static Solana solana(int nodes) {
+    SolanaConfig c = new SolanaConfig();
+    c.networkSize = nodes;
+    c.numberOfEpochs = 1;
+    c.epochDurationInSlots = 200;
+    c.leaderScheduleTrigger = c.epochDurationInSlots / 3 * 2;
+    c.slotDurationInMs = 400;
+    c.txSizeInBytes = 670;
+    c.expectedTxPerBlock = 1000;
+    c.uniformStakeDistribution = true;
+    c.outputSink = OutputSink.Type.NONE;
+    c.outputQueueCapacity = 0;
+    try {
+      return new Solana(c);
+    } catch (UnknownHostException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static ProfileResult run(Profile<?> profile, long seed) {
+    return runProfile(profile, seed);
+  }
+
+  private static <P extends Protocol> ProfileResult runProfile(Profile<P> profile, long seed) {
+    System.gc();
+    List<MemoryPoolMXBean> heapPools =
+        ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(mp -> mp.getType() == MemoryType.HEAP)
+            .collect(Collectors.toList());
+    heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+    P p = profile.protocol.get();
+    p.network().rd.setSeed(seed);
+    long startInit = System.nanoTime();
+    p.init();
+    long initMs = (System.nanoTime() - startInit) / 1_000_000;
+
+    long gcCount0 = gcCount();
+    long gcMs0 = gcMs();
+    long allocated0 = allocatedBytes();
+    int simulated0 = p.network().time;
+    long start = System.nanoTime();
+
+    profile.run.accept(p);
+
+    long wallMs = (System.nanoTime() - start) / 1_000_000;
+    long allocated = allocated0 < 0 ? -1 : allocatedBytes() - allocated0;
+    long peakHeap = heapPools.stream().mapToLong(mp -> mp.getPeakUsage().getUsed()).sum();
+
+    return new ProfileResult(
+        profile.name,
+        seed,
+        initMs,
+        wallMs,
+        p.network().time - simulated0,
+        allocated,
+        peakHeap,
+        gcCount() - gcCount0,
+        gcMs() - gcMs0,
+        p.network().msgs.metrics());
+  }
+
+  /** @return the bytes allocated by the current thread so far, -1 if it's not supported. */
+  private static long allocatedBytes() {
+    ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+    if (tmx instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) tmx)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  private static long gcCount() {
+    return ManagementFactory.getGarbageCollectorMXBeans().stream()
+        .mapToLong(GarbageCollectorMXBean::getCollectionCount)
+        .sum();
+  }
+
+  private static long gcMs() {
+    return ManagementFactory.getGarbageCollectorMXBeans().stream()
+        .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+        .sum();
+  }
+
+  static void writeCsv(List<ProfileResult> results, Path file) throws IOException {
+    Field[] fields = ProfileResult.class.getFields();
+    try (Writer w = Files.newBufferedWriter(file)) {
+      List<String> header = new ArrayList<>();
+      for (Field f : fields) {
+        header.add(f.getName());
+      }
+      w.write(String.join(",", header));
+      w.write('\n');
+      for (ProfileResult r : results) {
+        List<String> row = new ArrayList<>();
+        for (Field f : fields) {
+          row.add(String.valueOf(f.get(r)));
+        }
+        w.write(String.join(",", row));
+        w.write('\n');
+      }
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static void writeJson(List<ProfileResult> results, Path file) throws IOException {
+    new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file.toFile(), results);
+  }
+
+  public static void main(String... args) throws IOException {
+    Options options =
+        new Options()
+            .addOption(
+                Option.builder().longOpt("seed").hasArg().desc("Random seed, 0 by default").build())
+            .addOption(Option.builder().longOpt("csv").hasArg().desc("CSV report file").build())
+            .addOption(Option.builder().longOpt("json").hasArg().desc("JSON report file").build());
+    CommandLine cmd;
+    try {
+      cmd = new DefaultParser().parse(options, args);
+    } catch (ParseException e) {
+      new HelpFormatter().printHelp("ProtocolProfiles [options] [profile...]", options);
+      return;
+    }
+
+    long seed = Long.parseLong(cmd.getOptionValue("seed", "0"));
+    List<String> names = cmd.getArgList().isEmpty() ? profiles() : cmd.getArgList();
+
+    List<ProfileResult> results = new ArrayList<>();
+    for (String name : names) {
+      ProfileResult r = run(getProfile(name), seed);
+      System.out.println(r);
+      results.add(r);
+    }
+
+    if (cmd.hasOption("csv")) {
+      writeCsv(results, Paths.get(cmd.getOptionValue("csv")));
+    }
+    if (cmd.hasOption("json")) {
+      writeJson(results, Paths.get(cmd.getOptionValue("json")));
+    }
+  }
+}
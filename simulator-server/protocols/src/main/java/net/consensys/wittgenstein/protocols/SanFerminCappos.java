@@ -127,7 +127,7 @@ public class SanFerminCappos implements Protocol {
     }
 
     // compute candidate set once all peers have been created
-    for (SanFerminNode n : allNodes) n.helper = new SanFerminHelper<>(n, allNodes, this.network.rd);
+    for (SanFerminNode n : allNodes) n.helper = new SanFerminHelper<>(n, allNodes, n.random);
 
     params.finishedNodes = new ArrayList<>();
     for (SanFerminNode n : allNodes) network.registerTask(n::goNextLevel, 1, n);
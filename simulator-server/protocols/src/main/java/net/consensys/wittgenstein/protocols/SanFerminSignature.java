@@ -124,7 +124,7 @@ public class SanFerminSignature implements Protocol {
 
     // register the sanfermin helper with all the nodes
     this.allNodes.forEach(
-        n -> n.candidateTree = new SanFerminHelper<>(n, allNodes, this.network.rd));
+        n -> n.candidateTree = new SanFerminHelper<>(n, allNodes, n.random));
 
     finishedNodes = new ArrayList<>();
   }
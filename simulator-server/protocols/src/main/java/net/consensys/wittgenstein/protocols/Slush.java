@@ -127,7 +127,7 @@ public class Slush implements Protocol {
       List<SlushNode> res = new ArrayList<>(params.K);
 
       while (res.size() != params.K) {
-        int r = network.rd.nextInt(params.NODES_AV);
+        int r = random.nextInt(params.NODES_AV);
         if (r != nodeId && !res.contains(network.getNodeById(r))) {
           res.add(network.getNodeById(r));
         }
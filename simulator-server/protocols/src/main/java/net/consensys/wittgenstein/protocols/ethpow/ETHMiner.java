@@ -120,7 +120,7 @@ public class ETHMiner extends ETHPoW.ETHPoWNode {
       startNewMining(head);
     }
     assert inMining != null;
-    if (network.rd.nextDouble() < threshold) {
+    if (random.nextDouble() < threshold) {
       onFoundNewBlock(inMining);
       return true;
     } else {
@@ -66,7 +66,7 @@ public class HNode extends Node {
    */
   Attestation create(int height) {
     int h = 0;
-    while (handelEth2.network().rd.nextDouble() < 0.2) {
+    while (random.nextDouble() < 0.2) {
       h++;
     }
     return new Attestation(height, h, nodeId);
@@ -172,7 +172,7 @@ public class Fbft {
 
         if (block.pRand != null) {
             // logger.info(String.format("Received pRand=%d, node %d, epoch %d, slot %d, shard %d", block.pRand, me.nodeId, block.epoch, block.slot, block.shard));
-            int rand = network.rd.nextInt() ^ block.pRand; // simulate calculation of final rand
+            int rand = me.random.nextInt() ^ block.pRand; // simulate calculation of final rand
             IntStream.range(0, harmonyConfig.vdfInSlots -1).forEach(i -> this.rand.add(null)); // simulate vdf that takes N blocks
             this.rand.add(rand);
         }
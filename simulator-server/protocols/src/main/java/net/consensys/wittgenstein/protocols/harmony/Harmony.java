@@ -8,6 +8,7 @@ import net.consensys.wittgenstein.protocols.harmony.output.dto.OutputInfo;
 import net.consensys.wittgenstein.protocols.harmony.rbs.RandomnessBasedSharding;
 import net.consensys.wittgenstein.protocols.solana.Solana;
 import net.consensys.wittgenstein.protocols.utils.ByzantineShare;
+import net.consensys.wittgenstein.protocols.utils.SimulationProgress;
 import net.consensys.wittgenstein.protocols.utils.SortMapDescending;
 import org.apache.commons.cli.*;
 
@@ -32,6 +33,7 @@ public class Harmony implements Protocol {
     public final StakeDistribution stakeDistribution;
     public final OutputDumper outputDumper;
     public final Map<Integer, List<Integer>> mapSlotToLeaders = new HashMap<>();
+    private SimulationProgress progress = new SimulationProgress();
 
     private static final Logger logger;
     static {
@@ -129,7 +131,7 @@ public class Harmony implements Protocol {
         }
         outputDumper.dumpEpochStake(epoch, stakeDistribution, network);
         for (int slot = 0; slot < harmonyConfig.epochDurationInSlots; slot++) {
-
+            progress.update(epoch, slot);
             network.run(harmonyConfig.slotDurationInMs);
             if (slot % intervalForLoggingInSlots == 0) {
                 logger.info(String.format("Simulate epoch %d/%d, Slot %d/%d [%.2f%%]",
@@ -148,6 +150,13 @@ public class Harmony implements Protocol {
         }
     }
 
+    /**
+     * Where the simulation reports the epoch and slot it's simulating.
+     */
+    public void setProgress(SimulationProgress progress) {
+        this.progress = progress;
+    }
+
     public void simulate(int epochs) {
 
         for (int epoch = 0; epoch < epochs; epoch++) {
@@ -246,27 +255,41 @@ public class Harmony implements Protocol {
         ObjectMapper objectMapper = new ObjectMapper();
         HarmonyConfig harmonyConfig = objectMapper.readValue(new File(config), HarmonyConfig.class);
         Harmony harmony = new Harmony(harmonyConfig);
-        harmony.init();
-        harmony.prepareDdosAttack();
-        logger.info("Start simulation of Harmony.");
-
-        logger.info("Input parameters:");
-        logger.info(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(harmonyConfig));
-        harmony.simulate(harmonyConfig.numberOfEpochs);
+        try {
+            harmony.init();
+            harmony.prepareDdosAttack();
+            logger.info("Start simulation of Harmony.");
+
+            logger.info("Input parameters:");
+            logger.info(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(harmonyConfig));
+            harmony.simulate(harmonyConfig.numberOfEpochs);
+        } finally {
+            harmony.outputDumper.close();
+        }
         logger.info("End simulation of Harmony.");
     }
 
     public static OutputInfo run(HarmonyConfig harmonyConfig) throws IOException {
+        return run(harmonyConfig, new SimulationProgress());
+    }
+
+    public static OutputInfo run(HarmonyConfig harmonyConfig, SimulationProgress progress) throws IOException {
         Harmony harmony = new Harmony(harmonyConfig);
-        harmony.init();
-        harmony.prepareDdosAttack();
+        try {
+            harmony.setProgress(progress);
+            harmony.init();
+            harmony.prepareDdosAttack();
 
-        logger.info("Start simulation of Harmony.");
+            logger.info("Start simulation of Harmony.");
 
 
-        logger.info("Input parameters:");
-        logger.info((new ObjectMapper()).writerWithDefaultPrettyPrinter().writeValueAsString(harmonyConfig));
-        harmony.simulate(harmonyConfig.numberOfEpochs);
+            logger.info("Input parameters:");
+            logger.info((new ObjectMapper()).writerWithDefaultPrettyPrinter().writeValueAsString(harmonyConfig));
+            harmony.simulate(harmonyConfig.numberOfEpochs);
+        } finally {
+            // Also when the simulation fails: the sink can have a writer thread and a mongo client
+            harmony.outputDumper.close();
+        }
         logger.info("End simulation of Harmony.");
         return harmony.outputDumper.outputInfo();
     }
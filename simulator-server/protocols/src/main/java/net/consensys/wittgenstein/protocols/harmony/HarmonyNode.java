@@ -36,7 +36,7 @@ public class HarmonyNode extends Harmony.AHarmonyNode {
     }
 
     public int generateTransactionsPerBlock() {
-        return expectedTxPerBlock + (int) (network.rd.nextGaussian() * (expectedTxPerBlock / 10));
+        return expectedTxPerBlock + (int) (random.nextGaussian() * (expectedTxPerBlock / 10));
     }
 
     public void onSlot(int epoch, int slot, int shard) {
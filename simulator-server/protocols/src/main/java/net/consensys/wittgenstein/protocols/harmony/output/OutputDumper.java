@@ -6,51 +6,41 @@ import net.consensys.wittgenstein.protocols.harmony.output.dto.Leader;
 import net.consensys.wittgenstein.protocols.harmony.output.dto.OutputInfo;
 import net.consensys.wittgenstein.protocols.harmony.output.dto.SlotStats;
 import net.consensys.wittgenstein.protocols.harmony.output.dto.StakeStats;
-import net.consensys.wittgenstein.protocols.utils.MongoDumper;
-import org.bson.UuidRepresentation;
-import org.mongojack.JacksonMongoCollection;
+import net.consensys.wittgenstein.protocols.utils.OutputSink;
 
 import java.net.UnknownHostException;
 import java.util.*;
 
-public class OutputDumper extends MongoDumper {
+public class OutputDumper implements AutoCloseable {
 
     private final List<SlotStats> epochSlotStats = new ArrayList<>();
     private final OutputInfo outputInfo = new OutputInfo();
     private HarmonyConfig harmonyConfig;
-    private JacksonMongoCollection<SlotStats> collectionSlotStats;
-    private JacksonMongoCollection<Leader> collectionLeaders;
-    private JacksonMongoCollection<StakeStats> collectionStakeStats;
+    private final OutputSink sink;
 
     public OutputDumper(HarmonyConfig harmonyConfig) throws UnknownHostException {
-        super(harmonyConfig);
         this.harmonyConfig = harmonyConfig;
-        collectionSlotStats = JacksonMongoCollection.builder()
-                .withObjectMapper(objectMapper)
-                .build(mongoClient, database, "Epochs", SlotStats.class, UuidRepresentation.STANDARD);
-        collectionLeaders = JacksonMongoCollection.builder()
-                .withObjectMapper(objectMapper)
-                .build(mongoClient, database, "Leaders", Leader.class, UuidRepresentation.STANDARD);
-        collectionStakeStats = JacksonMongoCollection.builder()
-                .withObjectMapper(objectMapper)
-                .build(mongoClient, database, "StakeStats", StakeStats.class, UuidRepresentation.STANDARD);
+        this.sink = OutputSink.create(harmonyConfig);
     }
 
     public void dumpSlot(SlotStats slotStats) {
         epochSlotStats.add(slotStats);
+        if (epochSlotStats.size() >= harmonyConfig.outputBatchSize) {
+            dumpEpoch();
+        }
     }
 
     public void dumpEpoch() {
         if (epochSlotStats.isEmpty()) return;
 
-        collectionSlotStats.insertMany(epochSlotStats);
+        sink.insertMany("Epochs", SlotStats.class, epochSlotStats);
 
         epochSlotStats.clear();
     }
 
     public void dumpLeaders(List<Leader> leaders) {
 
-        collectionLeaders.insertMany(leaders);
+        sink.insertMany("Leaders", Leader.class, leaders);
     }
 
     public void dumpEpochStake(int epoch, StakeDistribution stakeDistribution, Network<HarmonyNode> network) {
@@ -66,10 +56,22 @@ public class OutputDumper extends MongoDumper {
             stakeStats.add(new StakeStats(node, epoch, stake, tokens, byzantine, shardTokens));
         }
 
-        collectionStakeStats.insertMany(stakeStats);
+        sink.insertMany("StakeStats", StakeStats.class, stakeStats);
     }
 
     public OutputInfo outputInfo() {
         return outputInfo;
     }
+
+    /**
+     * Write the slots of the current epoch and close the sink.
+     */
+    @Override
+    public void close() {
+        try {
+            dumpEpoch();
+        } finally {
+            sink.close();
+        }
+    }
 }
@@ -44,7 +44,7 @@ public class RandomnessBasedSharding {
      * 2. Each validator calculates a random number from the received hash using VRF, which it sends back to the leader.
      */
     public void onLeaderInit(HarmonyNode leader, int lastBlockHash) {
-        int randomNumber = network.rd.nextInt() ^ lastBlockHash; // simulation of VRF
+        int randomNumber = me.random.nextInt() ^ lastBlockHash; // simulation of VRF
         network.send(new ValidatorInit(randomNumber), me, leader);
     }
 
@@ -4,11 +4,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import net.consensys.wittgenstein.core.*;
 import net.consensys.wittgenstein.core.geoinfo.Geo;
 import net.consensys.wittgenstein.core.geoinfo.GeoAllCities;
+import net.consensys.wittgenstein.core.messages.BoundedSeenMessages;
 import net.consensys.wittgenstein.protocols.ouroboros.output.OutputDumper;
 import net.consensys.wittgenstein.protocols.utils.AliasMethod;
 import net.consensys.wittgenstein.protocols.utils.ByzantineShare;
 import net.consensys.wittgenstein.protocols.utils.DosAttackUtil;
-import net.consensys.wittgenstein.tools.CSVLatencyReader;
+import net.consensys.wittgenstein.protocols.utils.SimulationProgress;
+import net.consensys.wittgenstein.tools.LatencyDataset;
 import org.springframework.util.DigestUtils;
 
 import java.io.IOException;
@@ -36,12 +38,12 @@ public class Ouroboros  implements Protocol {
     private final StakeDistribution stakeDistribution;
     private final OutputDumper outputDumper;
     private final DosAttackUtil dosAttackUtil = new DosAttackUtil();
+    private SimulationProgress progress = new SimulationProgress();
 
     public Ouroboros(OuroborosConfig ouroborosConfig) throws UnknownHostException {
         this.ouroborosConfig = ouroborosConfig;
         Geo geoAllCities = new GeoAllCities();
-        CSVLatencyReader lr = new CSVLatencyReader();
-        this.nb = new NodeBuilder.NodeBuilderWithCity(lr.cities(), geoAllCities);
+        this.nb = new NodeBuilder.NodeBuilderWithCity(LatencyDataset.get().cities(), geoAllCities);
         this.network = new P2PNetwork<>(ouroborosConfig.p2pConnectionCount, ouroborosConfig.p2pMinimum);
         this.leaderSchedule = new ArrayList<>();
         this.stakeDistribution = new StakeDistribution(ouroborosConfig, network.rd);
@@ -72,6 +74,10 @@ public class Ouroboros  implements Protocol {
                 outputDumper,
                 stakeDistribution
             );
+            if (ouroborosConfig.seenBlocksInSlots > 0) {
+                node.setSeenMessages(new BoundedSeenMessages(
+                    ouroborosConfig.seenBlocksInSlots * ouroborosConfig.slotDurationInMs, 0));
+            }
             network.addNode(node);
         }
         network.setPeers();
@@ -133,6 +139,13 @@ public class Ouroboros  implements Protocol {
         }
     }
 
+    /**
+     * Where the simulation reports the epoch and slot it's simulating.
+     */
+    public void setProgress(SimulationProgress progress) {
+        this.progress = progress;
+    }
+
     public void simulate() {
         for (int epoch = 0; epoch < ouroborosConfig.numberOfEpochs; epoch++) {
             logger.info(String.format("Start epoch %d/%d", epoch+1, ouroborosConfig.numberOfEpochs));
@@ -146,6 +159,7 @@ public class Ouroboros  implements Protocol {
         outputDumper.dumpStake(epoch, stakeDistribution.nodesStake, network.allNodes);
         int intervalForLoggingInSlots = 100;
         for (int slot = 0; slot < ouroborosConfig.epochDurationInSlots; slot++) {
+            progress.update(epoch, slot);
             if (slot % intervalForLoggingInSlots == 0) {
                 logger.info(String.format("Simulate epoch %d/%d, Slot %d/%d [%.2f%%]",
                     epoch+1,
@@ -207,15 +221,25 @@ public class Ouroboros  implements Protocol {
     }
 
     public static void run(OuroborosConfig ouroborosConfig) throws IOException {
+        run(ouroborosConfig, new SimulationProgress());
+    }
+
+    public static void run(OuroborosConfig ouroborosConfig, SimulationProgress progress) throws IOException {
         Ouroboros ouroboros = new Ouroboros(ouroborosConfig);
-        ouroboros.init();
-        ouroboros.prepareDosAttack();
-        ouroboros.prepareByzantineNodes();
-
-        logger.info("Start simulation of Ouroboros.");
-        ObjectMapper objectMapper = new ObjectMapper();
-        logger.info(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(ouroborosConfig));
-        ouroboros.simulate();
+        try {
+            ouroboros.setProgress(progress);
+            ouroboros.init();
+            ouroboros.prepareDosAttack();
+            ouroboros.prepareByzantineNodes();
+
+            logger.info("Start simulation of Ouroboros.");
+            ObjectMapper objectMapper = new ObjectMapper();
+            logger.info(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(ouroborosConfig));
+            ouroboros.simulate();
+        } finally {
+            // Also when the simulation fails: the sink can have a writer thread and a mongo client
+            ouroboros.outputDumper.close();
+        }
         logger.info("End simulation of Ouroboros.");
     }
 }
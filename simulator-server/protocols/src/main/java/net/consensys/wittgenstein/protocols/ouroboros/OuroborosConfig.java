@@ -25,4 +25,9 @@ public class OuroborosConfig extends SharedConfig {
      * If byzantineStake > 0 then it defines number of fork in case of byzantine leader.
      */
     public int forkRatio = 3;
+    /**
+     * Number of slots a node remembers the block announces it has seen, so it does not flood them
+     * again. It bounds the memory of long runs. 0 to remember them for ever.
+     */
+    public int seenBlocksInSlots = 100;
 }
@@ -36,12 +36,12 @@ public class OuroborosNode extends Ouroboros.AOuroborosNode {
     }
 
     public int generateTransactionsPerBlock() {
-        return ouroborosConfig.expectedTxPerBlock + (int) (rd.nextGaussian() * ouroborosConfig.expectedTxPerBlock / 10);
+        return ouroborosConfig.expectedTxPerBlock + (int) (random.nextGaussian() * ouroborosConfig.expectedTxPerBlock / 10);
     }
 
     public Block createBlock(int slot, int epoch) {
         int transactions = generateTransactionsPerBlock();
-        int hash = rd.nextInt();
+        int hash = random.nextInt();
         Block block = new Block(
             nodeId,
             slot,
@@ -62,8 +62,8 @@ public class OuroborosNode extends Ouroboros.AOuroborosNode {
         // Fork attack
         if (byzantine) {
             List<OuroborosNode> myPeers = new ArrayList<>(peers);
-            Collections.shuffle(myPeers, rd);
-            int forks = ouroborosConfig.forkRatio - rd.nextInt(ouroborosConfig.forkRatio-1);
+            Collections.shuffle(myPeers, random);
+            int forks = ouroborosConfig.forkRatio - random.nextInt(ouroborosConfig.forkRatio-1);
             for (List<OuroborosNode> peerPartition : Lists.partition(myPeers, myPeers.size() / forks + 1)) {
                 Block block = createBlock(slot, epoch);
                 network.send(new BlockAnnounce(block), this, peerPartition);
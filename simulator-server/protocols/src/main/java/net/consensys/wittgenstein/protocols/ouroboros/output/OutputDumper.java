@@ -8,9 +8,7 @@ import net.consensys.wittgenstein.protocols.ouroboros.output.dto.Leader;
 import net.consensys.wittgenstein.protocols.ouroboros.output.dto.P2P;
 import net.consensys.wittgenstein.protocols.ouroboros.output.dto.Slot;
 import net.consensys.wittgenstein.protocols.ouroboros.output.dto.Stake;
-import net.consensys.wittgenstein.protocols.utils.MongoDumper;
-import org.bson.UuidRepresentation;
-import org.mongojack.JacksonMongoCollection;
+import net.consensys.wittgenstein.protocols.utils.OutputSink;
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
@@ -18,32 +16,16 @@ import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-public class OutputDumper extends MongoDumper {
+public class OutputDumper implements AutoCloseable {
 
     private OuroborosConfig ouroborosConfig;
-    private JacksonMongoCollection<Slot> collectionSlotStats;
-    private JacksonMongoCollection<Leader> collectionLeaders;
-    private JacksonMongoCollection<Stake> collectionStakeStats;
-    private JacksonMongoCollection<P2P> collectionP2PNetwork;
+    private final OutputSink sink;
     private List<Slot> slotPool = new ArrayList<>();
 
 
     public OutputDumper(OuroborosConfig ouroborosConfig) throws UnknownHostException {
-        super(ouroborosConfig);
         this.ouroborosConfig = ouroborosConfig;
-
-        collectionSlotStats = JacksonMongoCollection.builder()
-                .withObjectMapper(objectMapper)
-                .build(mongoClient, database, "Epochs", Slot.class, UuidRepresentation.STANDARD);
-        collectionLeaders = JacksonMongoCollection.builder()
-                .withObjectMapper(objectMapper)
-                .build(mongoClient, database, "Leaders", Leader.class, UuidRepresentation.STANDARD);
-        collectionStakeStats = JacksonMongoCollection.builder()
-                .withObjectMapper(objectMapper)
-                .build(mongoClient, database, "Stake", Stake.class, UuidRepresentation.STANDARD);
-        collectionP2PNetwork = JacksonMongoCollection.builder()
-                .withObjectMapper(objectMapper)
-                .build(mongoClient, database, "P2PNetwork", P2P.class, UuidRepresentation.STANDARD);
+        this.sink = OutputSink.create(ouroborosConfig);
     }
 
     public void dumpSlot(Block block, OuroborosNode node, long time) {
@@ -59,8 +41,8 @@ public class OutputDumper extends MongoDumper {
             block.hash
         );
         slotPool.add(slot);
-        if (slotPool.size() < 100) return;
-        collectionSlotStats.insertMany(slotPool);
+        if (slotPool.size() < ouroborosConfig.outputBatchSize) return;
+        sink.insertMany("Epochs", Slot.class, slotPool);
         slotPool.clear();
     }
 
@@ -73,7 +55,7 @@ public class OutputDumper extends MongoDumper {
                 return new Leader(leaderId, slot, epoch, nodes.get(leaderId).byzantine);
             })
             .collect(Collectors.toList());
-        collectionLeaders.insertMany(leadersDto);
+        sink.insertMany("Leaders", Leader.class, leadersDto);
     }
 
     public void dumpStake(int epoch, List<Integer> nodesStake, List<OuroborosNode> nodes) {
@@ -82,11 +64,11 @@ public class OutputDumper extends MongoDumper {
             nodesStake.get(node);
             stakeDto.add(new Stake(nodesStake.get(node), node, epoch, nodes.get(node).byzantine));
         }
-        collectionStakeStats.insertMany(stakeDto);
+        sink.insertMany("Stake", Stake.class, stakeDto);
     }
 
     public void dumpP2PNetwork(List<OuroborosNode> nodes) {
-        collectionP2PNetwork.insertMany(
+        sink.insertMany("P2PNetwork", P2P.class,
             nodes.stream().map(node ->
                 new P2P(
                     node.nodeId,
@@ -96,4 +78,17 @@ public class OutputDumper extends MongoDumper {
             ).collect(Collectors.toList())
         );
     }
+
+    /**
+     * Write the slots still in the pool and close the sink.
+     */
+    @Override
+    public void close() {
+        try {
+            sink.insertMany("Epochs", Slot.class, slotPool);
+            slotPool.clear();
+        } finally {
+            sink.close();
+        }
+    }
 }
@@ -16,6 +16,7 @@ import net.consensys.wittgenstein.protocols.solana.output.dto.NodeSlot;
 import net.consensys.wittgenstein.protocols.solana.output.OutputDumper;
 import net.consensys.wittgenstein.protocols.utils.AliasMethod;
 import net.consensys.wittgenstein.protocols.utils.DosAttackUtil;
+import net.consensys.wittgenstein.protocols.utils.SimulationProgress;
 import org.apache.commons.cli.*;
 
 /**
@@ -39,6 +40,7 @@ public class Solana implements Protocol {
     private final List<Integer> leaderSchedule;
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final DosAttackUtil dosAttackUtil = new DosAttackUtil();
+    private SimulationProgress progress = new SimulationProgress();
 
     public Solana(SolanaConfig solanaConfig) throws UnknownHostException {
         this.solanaConfig = solanaConfig;
@@ -184,6 +186,7 @@ public class Solana implements Protocol {
     public void simulateEpoch(int epoch, int numberOfEpochs) {
         int intervalForLoggingInSlots = 100;
         for (int slot = 0; slot < solanaConfig.epochDurationInSlots; slot++) {
+            progress.update(epoch, slot);
             if (slot % intervalForLoggingInSlots == 0) {
                 logger.info(String.format("Simulate epoch %d/%d, Slot %d/%d [%.2f%%]",
                         epoch, numberOfEpochs, slot, solanaConfig.epochDurationInSlots, (double)slot / solanaConfig.epochDurationInSlots * 100));
@@ -192,6 +195,13 @@ public class Solana implements Protocol {
         }
     }
 
+    /**
+     * Where the simulation reports the epoch and slot it's simulating.
+     */
+    public void setProgress(SimulationProgress progress) {
+        this.progress = progress;
+    }
+
     public void simulate(int numberOfEpochs) {
         int maxNumberOfSlots = Integer.MAX_VALUE / solanaConfig.slotDurationInMs;
         int maxNumberOfEpochs = maxNumberOfSlots / solanaConfig.epochDurationInSlots;
@@ -247,23 +257,37 @@ public class Solana implements Protocol {
 
         SolanaConfig solanaConfig = (new ObjectMapper()).readValue(new File(config), SolanaConfig.class);
         Solana solana = new Solana(solanaConfig);
-        solana.init();
-        solana.prepareDdosAttack();
-        logger.info("Start simulation of Solana.");
-        logger.info(solana.objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(solanaConfig));
-        solana.simulate(solanaConfig.numberOfEpochs);
+        try {
+            solana.init();
+            solana.prepareDdosAttack();
+            logger.info("Start simulation of Solana.");
+            logger.info(solana.objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(solanaConfig));
+            solana.simulate(solanaConfig.numberOfEpochs);
+        } finally {
+            solana.stats.close();
+        }
         logger.info("End simulation of Solana.");
     }
 
     public static void run(SolanaConfig solanaConfig) throws IOException {
-        Solana solana = new Solana(solanaConfig);
-        solana.init();
-        solana.prepareDdosAttack();
+        run(solanaConfig, new SimulationProgress());
+    }
 
-        logger.info("Start simulation of Solana.");
-        ObjectMapper objectMapper = new ObjectMapper();
-        logger.info(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(solanaConfig));
-        solana.simulate(solanaConfig.numberOfEpochs);
+    public static void run(SolanaConfig solanaConfig, SimulationProgress progress) throws IOException {
+        Solana solana = new Solana(solanaConfig);
+        try {
+            solana.setProgress(progress);
+            solana.init();
+            solana.prepareDdosAttack();
+
+            logger.info("Start simulation of Solana.");
+            ObjectMapper objectMapper = new ObjectMapper();
+            logger.info(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(solanaConfig));
+            solana.simulate(solanaConfig.numberOfEpochs);
+        } finally {
+            // Also when the simulation fails: the sink can have a writer thread and a mongo client
+            solana.stats.close();
+        }
         logger.info("End simulation of Solana.");
     }
 }
@@ -51,7 +51,7 @@ public class SolanaNode extends Solana.ASolanaNode {
     }
 
     public int generateTransactionsPerBlock() {
-        return solanaConfig.expectedTxPerBlock + (int) (network.rd.nextGaussian() * (solanaConfig.expectedTxPerBlock / 10));
+        return solanaConfig.expectedTxPerBlock + (int) (random.nextGaussian() * (solanaConfig.expectedTxPerBlock / 10));
     }
 
     public boolean isLeader(int slot) {
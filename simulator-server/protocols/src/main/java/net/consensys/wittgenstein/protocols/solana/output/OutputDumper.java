@@ -6,9 +6,7 @@ import net.consensys.wittgenstein.protocols.solana.StakeDistribution;
 import net.consensys.wittgenstein.protocols.solana.output.dto.Leaders;
 import net.consensys.wittgenstein.protocols.solana.output.dto.NodeSlot;
 import net.consensys.wittgenstein.protocols.solana.output.dto.Stake;
-import net.consensys.wittgenstein.protocols.utils.MongoDumper;
-import org.bson.UuidRepresentation;
-import org.mongojack.JacksonMongoCollection;
+import net.consensys.wittgenstein.protocols.utils.OutputSink;
 
 import java.net.UnknownHostException;
 import java.util.*;
@@ -19,35 +17,22 @@ import java.util.stream.IntStream;
  * Utility helps to send data continuously into the database.
  * @author Juraj Holub <xholub40@vutbr.cz>
  */
-public class OutputDumper extends MongoDumper {
+public class OutputDumper implements AutoCloseable {
 
     private List<NodeSlot> nodeSlots = new ArrayList<>();
     private SolanaConfig solanaConfig;
-
-    private JacksonMongoCollection<NodeSlot> collectionSlotStats;
-    private JacksonMongoCollection<Leaders> collectionLeaders;
-    private JacksonMongoCollection<Stake> collectionStakeStats;
+    private final OutputSink sink;
 
     public OutputDumper(SolanaConfig solanaConfig) throws UnknownHostException {
-        super(solanaConfig);
         this.solanaConfig = solanaConfig;
-
-        collectionSlotStats = JacksonMongoCollection.builder()
-                .withObjectMapper(objectMapper)
-                .build(mongoClient, database, "Epochs", NodeSlot.class, UuidRepresentation.STANDARD);
-        collectionLeaders = JacksonMongoCollection.builder()
-                .withObjectMapper(objectMapper)
-                .build(mongoClient, database, "Leaders", Leaders.class, UuidRepresentation.STANDARD);
-        collectionStakeStats = JacksonMongoCollection.builder()
-                .withObjectMapper(objectMapper)
-                .build(mongoClient, database, "Stake", Stake.class, UuidRepresentation.STANDARD);
+        this.sink = OutputSink.create(solanaConfig);
     }
 
     public void dumpSlotState(NodeSlot nodeSlot) {
         nodeSlots.add(nodeSlot);
 
-        if (nodeSlots.size() >= 100) {
-            collectionSlotStats.insertMany(nodeSlots);
+        if (nodeSlots.size() >= solanaConfig.outputBatchSize) {
+            sink.insertMany("Epochs", NodeSlot.class, nodeSlots);
             nodeSlots.clear();
         }
     }
@@ -56,7 +41,7 @@ public class OutputDumper extends MongoDumper {
         List<Stake> stake = nodes.stream()
                 .map(n -> new Stake(n.nodeId, stakeDistribution.getStake(n.nodeId).nodeStake, epoch))
                 .collect(Collectors.toList());
-        collectionStakeStats.insertMany(stake);
+        sink.insertMany("Stake", Stake.class, stake);
 
         List<Leaders> leaders = IntStream.range(0, solanaConfig.epochDurationInSlots)
             .mapToObj(slot -> {
@@ -66,6 +51,19 @@ public class OutputDumper extends MongoDumper {
                 return new Leaders(slot, leaderId, nodes.get(leaderId).underDDoS);
             })
             .collect(Collectors.toList());
-        collectionLeaders.insertMany(leaders);
+        sink.insertMany("Leaders", Leaders.class, leaders);
+    }
+
+    /**
+     * Write the slot states still in the batch and close the sink.
+     */
+    @Override
+    public void close() {
+        try {
+            sink.insertMany("Epochs", NodeSlot.class, nodeSlots);
+            nodeSlots.clear();
+        } finally {
+            sink.close();
+        }
     }
 }
@@ -0,0 +1,197 @@
+package net.consensys.wittgenstein.protocols.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind wrapper of an output sink: the simulation thread only puts the batches in a bounded
+ * queue, a dedicated writer thread does the actual I/O. When the queue is full the simulation thread
+ * waits (back-pressure); this waiting time is measured so the queue can be sized.
+ * <p>
+ * Rows are written in the order they were inserted. An error of the writer is thrown back to the
+ * simulation thread on its next call.
+ */
+public class AsyncOutputSink implements OutputSink {
+
+    private static final Logger logger = Logger.getLogger(AsyncOutputSink.class.getName());
+
+    private static final Batch<?> FLUSH = new Batch<>(null, null, null);
+    private static final Batch<?> CLOSE = new Batch<>(null, null, null);
+
+    private final OutputSink delegate;
+    private final BlockingQueue<Batch<?>> queue;
+    private final long flushIntervalMs;
+    private final Thread writer;
+
+    private volatile Throwable writerError;
+    private boolean closed = false;
+
+    private long batches = 0;
+    private long rows = 0;
+    private long backPressureWaits = 0;
+    private long backPressureWaitNs = 0;
+
+    private static final class Batch<T> {
+        final String table;
+        final Class<T> rowClass;
+        final List<T> rows;
+
+        Batch(String table, Class<T> rowClass, List<T> rows) {
+            this.table = table;
+            this.rowClass = rowClass;
+            this.rows = rows;
+        }
+
+        void writeTo(OutputSink sink) {
+            sink.insertMany(table, rowClass, rows);
+        }
+    }
+
+    /**
+     * @param delegate the sink doing the I/O, used only by the writer thread
+     * @param queueCapacity the maximum number of batches waiting for the writer
+     * @param flushIntervalMs the maximum time between two flushes of the delegate when rows are written
+     */
+    public AsyncOutputSink(OutputSink delegate, int queueCapacity, long flushIntervalMs) {
+        if (queueCapacity <= 0 || flushIntervalMs <= 0) {
+            throw new IllegalArgumentException("queueCapacity=" + queueCapacity + ", flushIntervalMs=" + flushIntervalMs);
+        }
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flushIntervalMs = flushIntervalMs;
+        this.writer = new Thread(this::writeLoop, "output-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private void writeLoop() {
+        long lastFlush = System.currentTimeMillis();
+        boolean dirty = false;
+        while (true) {
+            Batch<?> b;
+            try {
+                b = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                writerError = e;
+                continue;
+            }
+            if (b == CLOSE) {
+                return;
+            }
+            if (writerError != null) {
+                // We continue to consume the batches so the simulation thread is never stuck on a full queue.
+                continue;
+            }
+
+            try {
+                if (b == FLUSH) {
+                    delegate.flush();
+                    dirty = false;
+                    lastFlush = System.currentTimeMillis();
+                    continue;
+                }
+                if (b != null) {
+                    b.writeTo(delegate);
+                    dirty = true;
+                }
+                if (dirty && System.currentTimeMillis() - lastFlush >= flushIntervalMs) {
+                    delegate.flush();
+                    dirty = false;
+                    lastFlush = System.currentTimeMillis();
+                }
+            } catch (Throwable t) {
+                writerError = t;
+            }
+        }
+    }
+
+    private void checkWriter() {
+        Throwable t = writerError;
+        if (t != null) {
+            throw new IllegalStateException("The output writer failed", t);
+        }
+    }
+
+    private void enqueue(Batch<?> b) {
+        if (queue.offer(b)) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            queue.put(b);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        backPressureWaits++;
+        backPressureWaitNs += System.nanoTime() - start;
+    }
+
+    /**
+     * The rows are copied: the caller can reuse the list as soon as this method returns.
+     */
+    @Override
+    public <T> void insertMany(String table, Class<T> rowClass, List<T> rows) {
+        if (closed) {
+            throw new IllegalStateException("The sink is closed");
+        }
+        checkWriter();
+        if (rows.isEmpty()) return;
+
+        enqueue(new Batch<>(table, rowClass, new ArrayList<>(rows)));
+        batches++;
+        this.rows += rows.size();
+    }
+
+    /**
+     * Ask the writer to flush the delegate once the batches already queued are written. Does not wait.
+     */
+    @Override
+    public void flush() {
+        checkWriter();
+        if (!closed) {
+            enqueue(FLUSH);
+        }
+    }
+
+    /**
+     * Write all the queued batches, wait for the writer thread to end and close the delegate.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+
+        enqueue(FLUSH);
+        enqueue(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            delegate.close();
+        }
+        logger.info("Output writer: " + batches + " batches, " + rows + " rows, back-pressure: "
+                + backPressureWaits + " waits, " + getBackPressureWaitMs() + " ms");
+        checkWriter();
+    }
+
+    /**
+     * @return the number of times the simulation thread had to wait because the queue was full.
+     */
+    public long getBackPressureWaits() {
+        return backPressureWaits;
+    }
+
+    /**
+     * @return the total time the simulation thread waited because the queue was full.
+     */
+    public long getBackPressureWaitMs() {
+        return TimeUnit.NANOSECONDS.toMillis(backPressureWaitNs);
+    }
+}
@@ -0,0 +1,275 @@
+package net.consensys.wittgenstein.protocols.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Output sink writing each table in its own directory, with one append-only file per column:
+ * <ul>
+ *     <li>schema.json: the table name, the number of rows and the columns with their numpy dtype.</li>
+ *     <li>[column].bin: the values of a primitive column, fixed width, little endian. It can be loaded
+ *     without any parsing with numpy.fromfile or numpy.memmap.</li>
+ *     <li>[column].jsonl: the values of any other column (String, List, Map...), one json value per line.</li>
+ * </ul>
+ * The columns are the public non static fields of the row class. No external service is needed, so
+ * the runs don't depend on a MongoDB instance. simulator-client/columnar.py loads a table into a pandas
+ * DataFrame.
+ */
+public class ColumnarFileSink implements OutputSink {
+
+    /** Size of the write buffer of each primitive column. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Table> tables = new HashMap<>();
+
+    /**
+     * Create the directory if necessary and drop the tables of the previous run, i.e. the sub directories
+     * containing a schema.json. Other files are left untouched.
+     */
+    public ColumnarFileSink(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> content = Files.newDirectoryStream(directory)) {
+                for (Path p : content) {
+                    if (Files.exists(p.resolve("schema.json"))) {
+                        dropTable(p);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void dropTable(Path tableDir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tableDir)) {
+            for (Path p : files) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    @Override
+    public synchronized <T> void insertMany(String table, Class<T> rowClass, List<T> rows) {
+        try {
+            Table t = tables.get(table);
+            if (t == null) {
+                t = new Table(table, rowClass);
+                tables.put(table, t);
+            } else if (t.rowClass != rowClass) {
+                throw new IllegalArgumentException("Table " + table + " contains " + t.rowClass.getName()
+                        + " rows, can't insert " + rowClass.getName());
+            }
+            for (T row : rows) {
+                t.append(row);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            for (Table t : tables.values()) {
+                t.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            for (Table t : tables.values()) {
+                t.flush();
+                t.close();
+            }
+            tables.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private final class Table {
+        final String name;
+        final Path dir;
+        final Class<?> rowClass;
+        final List<Column> columns = new ArrayList<>();
+        long rows = 0;
+
+        Table(String name, Class<?> rowClass) throws IOException {
+            this.name = name;
+            this.dir = directory.resolve(name);
+            this.rowClass = rowClass;
+
+            Files.createDirectories(dir);
+            dropTable(dir);
+
+            for (Field f : rowClass.getFields()) {
+                if (Modifier.isStatic(f.getModifiers())) continue;
+                columns.add(f.getType().isPrimitive() ? new PrimitiveColumn(dir, f) : new JsonColumn(dir, f));
+            }
+            if (columns.isEmpty()) {
+                throw new IllegalArgumentException(rowClass.getName() + " has no public field to store");
+            }
+        }
+
+        void append(Object row) throws IOException {
+            try {
+                for (Column c : columns) {
+                    c.append(row);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+            rows++;
+        }
+
+        /** Flush the columns, then write the schema with the number of complete rows. */
+        void flush() throws IOException {
+            List<Map<String, String>> cols = new ArrayList<>();
+            for (Column c : columns) {
+                c.flush();
+                Map<String, String> col = new LinkedHashMap<>();
+                col.put("name", c.field.getName());
+                col.put("type", c.dtype);
+                cols.add(col);
+            }
+            Map<String, Object> schema = new LinkedHashMap<>();
+            schema.put("table", name);
+            schema.put("rows", rows);
+            schema.put("columns", cols);
+
+            Path tmp = dir.resolve("schema.json.tmp");
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), schema);
+            Files.move(tmp, dir.resolve("schema.json"), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        void close() throws IOException {
+            for (Column c : columns) {
+                c.close();
+            }
+        }
+    }
+
+    private abstract static class Column {
+        final Field field;
+        final String dtype;
+
+        Column(Field field, String dtype) {
+            this.field = field;
+            this.dtype = dtype;
+        }
+
+        abstract void append(Object row) throws IOException, IllegalAccessException;
+
+        abstract void flush() throws IOException;
+
+        abstract void close() throws IOException;
+    }
+
+    private static final class PrimitiveColumn extends Column {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final Class<?> type;
+
+        PrimitiveColumn(Path dir, Field field) throws IOException {
+            super(field, dtype(field.getType()));
+            this.type = field.getType();
+            this.channel = FileChannel.open(dir.resolve(field.getName() + ".bin"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        /** @return the numpy dtype of a java primitive type. */
+        static String dtype(Class<?> type) {
+            if (type == int.class) return "<i4";
+            if (type == long.class) return "<i8";
+            if (type == boolean.class) return "|b1";
+            if (type == double.class) return "<f8";
+            if (type == float.class) return "<f4";
+            if (type == short.class) return "<i2";
+            if (type == byte.class) return "|i1";
+            if (type == char.class) return "<u2";
+            throw new IllegalArgumentException("Unsupported type: " + type);
+        }
+
+        @Override
+        void append(Object row) throws IOException, IllegalAccessException {
+            if (buffer.remaining() < Long.BYTES) {
+                flush();
+            }
+            if (type == int.class) buffer.putInt(field.getInt(row));
+            else if (type == long.class) buffer.putLong(field.getLong(row));
+            else if (type == boolean.class) buffer.put((byte) (field.getBoolean(row) ? 1 : 0));
+            else if (type == double.class) buffer.putDouble(field.getDouble(row));
+            else if (type == float.class) buffer.putFloat(field.getFloat(row));
+            else if (type == short.class) buffer.putShort(field.getShort(row));
+            else if (type == byte.class) buffer.put(field.getByte(row));
+            else buffer.putChar(field.getChar(row));
+        }
+
+        @Override
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private final class JsonColumn extends Column {
+        private final BufferedWriter writer;
+
+        JsonColumn(Path dir, Field field) throws IOException {
+            super(field, "json");
+            this.writer = Files.newBufferedWriter(dir.resolve(field.getName() + ".jsonl"), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        @Override
+        void append(Object row) throws IOException, IllegalAccessException {
+            writer.write(objectMapper.writeValueAsString(field.get(row)));
+            writer.write('\n');
+        }
+
+        @Override
+        void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        void close() throws IOException {
+            writer.close();
+        }
+    }
+}
@@ -6,22 +6,29 @@ import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import net.consensys.wittgenstein.protocols.harmony.Harmony;
+import org.bson.UuidRepresentation;
+import org.mongojack.JacksonMongoCollection;
 
 
 import java.net.UnknownHostException;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Utility encapsulates operations with MongoDB.
+ * Utility encapsulates operations with MongoDB. Each table is a collection of the database given in
+ * sharedConfig.mongoDatabase ('simulator' by default).
  * @author Juraj Holub <xholub40@vutbr.cz>
  */
-public class MongoDumper {
+public class MongoDumper implements OutputSink {
 
     protected final MongoClient mongoClient;
     protected final ObjectMapper objectMapper = new ObjectMapper();
-    protected final String database = "simulator";
+    protected final String database;
+    private final Map<String, JacksonMongoCollection<?>> collections = new HashMap<>();
 
     protected static final Logger logger;
     /** This omits Mongo spam in logger. */
@@ -35,8 +42,8 @@ public class MongoDumper {
     }
 
     /**
-     * Create mongo client with connection to database given in the sharedConfig.mongoServerAddress and drop it
-     * (so it is prepared for clean simulation run).
+     * Create mongo client with connection to the server given in the sharedConfig.mongoServerAddress and drop the
+     * sharedConfig.mongoDatabase database (so it is prepared for clean simulation run).
      */
     public MongoDumper(SharedConfig sharedConfig) throws UnknownHostException {
         mongoClient = MongoClients.create(
@@ -44,6 +51,24 @@ public class MongoDumper {
                         .applyToClusterSettings(builder ->
                                 builder.hosts(Arrays.asList(new ServerAddress(sharedConfig.mongoServerAddress))))
                         .build());
+        database = sharedConfig.mongoDatabase;
         mongoClient.getDatabase(database).drop();
     }
+
+    @Override
+    public <T> void insertMany(String table, Class<T> rowClass, List<T> rows) {
+        if (rows.isEmpty()) return;
+
+        @SuppressWarnings("unchecked")
+        JacksonMongoCollection<T> collection = (JacksonMongoCollection<T>) collections.computeIfAbsent(table,
+                t -> JacksonMongoCollection.builder()
+                        .withObjectMapper(objectMapper)
+                        .build(mongoClient, database, t, rowClass, UuidRepresentation.STANDARD));
+        collection.insertMany(rows);
+    }
+
+    @Override
+    public void close() {
+        mongoClient.close();
+    }
 }
@@ -0,0 +1,17 @@
+package net.consensys.wittgenstein.protocols.utils;
+
+import java.util.List;
+
+/**
+ * Output sink dropping all the rows.
+ */
+public class NullOutputSink implements OutputSink {
+
+    @Override
+    public <T> void insertMany(String table, Class<T> rowClass, List<T> rows) {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,56 @@
+package net.consensys.wittgenstein.protocols.utils;
+
+import java.net.UnknownHostException;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Destination of the simulation output. Rows are appended to named tables ('Epochs', 'Leaders',
+ * ...); all the rows of a table have the same class.
+ */
+public interface OutputSink extends AutoCloseable {
+
+    enum Type {
+        /** One document per row in the MongoDB given by SharedConfig.mongoServerAddress. */
+        MONGO,
+        /** One file per column in SharedConfig.outputDirectory, see ColumnarFileSink. */
+        COLUMNAR,
+        /** Nothing is written: for the benchmarks, when only the simulation itself matters. */
+        NONE
+    }
+
+    /**
+     * Append the rows to the table, creating the table if necessary.
+     */
+    <T> void insertMany(String table, Class<T> rowClass, List<T> rows);
+
+    /**
+     * Make the rows already inserted visible to the readers.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Flush and release the resources. The sink can't be used after this call.
+     */
+    @Override
+    void close();
+
+    /**
+     * Create the sink configured in the shared config. The existing output is dropped, so the sink is
+     * ready for a clean simulation run. Unless the queue capacity is 0, the writes are done by a
+     * dedicated thread (see AsyncOutputSink).
+     */
+    static OutputSink create(SharedConfig sharedConfig) throws UnknownHostException {
+        if (sharedConfig.outputSink == Type.NONE) {
+            return new NullOutputSink();
+        }
+        OutputSink sink = (sharedConfig.outputSink == Type.COLUMNAR)
+                ? new ColumnarFileSink(Paths.get(sharedConfig.outputDirectory))
+                : new MongoDumper(sharedConfig);
+        if (sharedConfig.outputQueueCapacity <= 0) {
+            return sink;
+        }
+        return new AsyncOutputSink(sink, sharedConfig.outputQueueCapacity, sharedConfig.outputFlushIntervalMs);
+    }
+}
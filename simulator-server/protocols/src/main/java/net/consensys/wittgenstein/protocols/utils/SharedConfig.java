@@ -41,6 +41,32 @@ public class SharedConfig {
      * Addres to mongoDB. In case of release docker it is 'mongodb'. In case of debug 'localhost:27017'.
      */
     public String mongoServerAddress;
+    /**
+     * Name of the mongoDB database of the output. It is dropped at the start of the simulation.
+     */
+    public String mongoDatabase = "simulator";
+    /**
+     * Where the simulation output goes: MONGO (database at mongoServerAddress), COLUMNAR (files in outputDirectory)
+     * or NONE (dropped).
+     */
+    public OutputSink.Type outputSink = OutputSink.Type.MONGO;
+    /**
+     * Directory of the output files when outputSink is COLUMNAR. Existing tables in this directory are overwritten.
+     */
+    public String outputDirectory = "output";
+    /**
+     * Number of rows the output dumpers accumulate before handing them to the sink.
+     */
+    public int outputBatchSize = 100;
+    /**
+     * Number of batches waiting for the output writer thread before the simulation has to wait. 0 means no writer
+     * thread: the batches are written synchronously by the simulation thread.
+     */
+    public int outputQueueCapacity = 64;
+    /**
+     * Maximum time between two flushes of the sink by the output writer thread [ms].
+     */
+    public int outputFlushIntervalMs = 1000;
     /**
      * If true then all nodes have stake from uniform distribution.
      * Otherwise, stake is taken from configuration files in resources:
@@ -0,0 +1,30 @@
+package net.consensys.wittgenstein.protocols.utils;
+
+/**
+ * Where a simulation is: the epoch and the slot being simulated. It's updated by the simulation
+ * thread and can be read by any thread, for example to report the progress of a simulation job.
+ */
+public class SimulationProgress {
+    /** The epoch in the high 32 bits, the slot in the low ones: both are read together. */
+    private volatile long position = -1;
+
+    public void update(int epoch, int slot) {
+        position = ((long) epoch << 32) | (slot & 0xffffffffL);
+    }
+
+    /**
+     * @return the epoch being simulated, -1 if the simulation has not started yet.
+     */
+    public int epoch() {
+        long p = position;
+        return p < 0 ? -1 : (int) (p >>> 32);
+    }
+
+    /**
+     * @return the slot being simulated in the current epoch, -1 if the simulation has not started yet.
+     */
+    public int slot() {
+        long p = position;
+        return p < 0 ? -1 : (int) p;
+    }
+}
@@ -1,5 +1,8 @@
 package net.consensys.wittgenstein.protocols;
 
+import java.util.Collections;
+import net.consensys.wittgenstein.core.RunMultipleTimes;
+import net.consensys.wittgenstein.core.utils.StatsHelper;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -274,4 +277,13 @@ public class CasperIMDTest {
       }
     }
   }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoParallelRuns() {
+    // CasperIMD has a static field: the runs can't be done in parallel.
+    new RunMultipleTimes<>(
+            ci, 2, 1000, Collections.singletonList(new StatsHelper.DoneAtStatGetter()), null)
+        .setParallelism(2)
+        .run(null);
+  }
 }
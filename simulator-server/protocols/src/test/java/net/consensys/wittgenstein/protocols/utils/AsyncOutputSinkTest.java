@@ -0,0 +1,115 @@
+package net.consensys.wittgenstein.protocols.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncOutputSinkTest {
+
+  /** Records the rows, optionally waiting for a latch before each insert. */
+  private static class RecordingSink implements OutputSink {
+    final List<Object> rows = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch start;
+    volatile int flushes = 0;
+    volatile boolean closed = false;
+    volatile String failOn = null;
+
+    RecordingSink(CountDownLatch start) {
+      this.start = start;
+    }
+
+    @Override
+    public <T> void insertMany(String table, Class<T> rowClass, List<T> rows) {
+      try {
+        start.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      if (table.equals(failOn)) {
+        throw new IllegalArgumentException("failing on " + table);
+      }
+      this.rows.addAll(rows);
+    }
+
+    @Override
+    public void flush() {
+      flushes++;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  @Test
+  public void testOrderAndClose() {
+    RecordingSink rs = new RecordingSink(new CountDownLatch(0));
+    AsyncOutputSink sink = new AsyncOutputSink(rs, 2, 1000);
+
+    List<Integer> batch = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      batch.add(i);
+      if (batch.size() == 10) {
+        sink.insertMany("T", Integer.class, batch);
+        batch.clear();
+      }
+    }
+    sink.close();
+
+    Assert.assertTrue(rs.closed);
+    Assert.assertTrue(rs.flushes >= 1);
+    Assert.assertEquals(100, rs.rows.size());
+    for (int i = 0; i < 100; i++) {
+      Assert.assertEquals(i, rs.rows.get(i));
+    }
+  }
+
+  @Test
+  public void testBackPressure() throws InterruptedException {
+    CountDownLatch start = new CountDownLatch(1);
+    RecordingSink rs = new RecordingSink(start);
+    AsyncOutputSink sink = new AsyncOutputSink(rs, 1, 1000);
+
+    Thread releaser =
+        new Thread(
+            () -> {
+              try {
+                Thread.sleep(50);
+              } catch (InterruptedException ignored) {
+              }
+              start.countDown();
+            });
+    releaser.start();
+
+    // The writer is blocked on the first batch, the second fills the queue, the third waits.
+    for (int i = 0; i < 3; i++) {
+      sink.insertMany("T", Integer.class, Collections.singletonList(i));
+    }
+    releaser.join();
+    sink.close();
+
+    Assert.assertEquals(Arrays.asList(0, 1, 2), rs.rows);
+    Assert.assertTrue(sink.getBackPressureWaits() >= 1);
+  }
+
+  @Test
+  public void testWriterError() {
+    RecordingSink rs = new RecordingSink(new CountDownLatch(0));
+    rs.failOn = "Bad";
+    AsyncOutputSink sink = new AsyncOutputSink(rs, 4, 1000);
+    sink.insertMany("Bad", Integer.class, Collections.singletonList(1));
+
+    try {
+      sink.close();
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+    Assert.assertTrue(rs.closed);
+  }
+}
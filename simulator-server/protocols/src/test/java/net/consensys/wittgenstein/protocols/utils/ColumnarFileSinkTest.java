@@ -0,0 +1,89 @@
+package net.consensys.wittgenstein.protocols.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ColumnarFileSinkTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  public static class Row {
+    public static int ignored = 12;
+    public int node;
+    public long time;
+    public boolean leader;
+    public List<Integer> peers;
+
+    Row(int node, long time, boolean leader, List<Integer> peers) {
+      this.node = node;
+      this.time = time;
+      this.leader = leader;
+      this.peers = peers;
+    }
+  }
+
+  private static ByteBuffer column(Path table, String name) throws IOException {
+    return ByteBuffer.wrap(Files.readAllBytes(table.resolve(name + ".bin")))
+        .order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    try (ColumnarFileSink sink = new ColumnarFileSink(dir)) {
+      sink.insertMany(
+          "Epochs",
+          Row.class,
+          Arrays.asList(new Row(1, 10, true, Arrays.asList(2, 3)), new Row(2, 20, false, null)));
+      sink.insertMany(
+          "Epochs", Row.class, Collections.singletonList(new Row(3, 1L << 40, true, null)));
+    }
+
+    Path table = dir.resolve("Epochs");
+    JsonNode schema = new ObjectMapper().readTree(table.resolve("schema.json").toFile());
+    Assert.assertEquals("Epochs", schema.get("table").asText());
+    Assert.assertEquals(3, schema.get("rows").asInt());
+    Assert.assertEquals(4, schema.get("columns").size());
+
+    ByteBuffer node = column(table, "node");
+    Assert.assertEquals(12, node.remaining());
+    Assert.assertEquals(1, node.getInt());
+    Assert.assertEquals(2, node.getInt());
+    Assert.assertEquals(3, node.getInt());
+
+    ByteBuffer time = column(table, "time");
+    Assert.assertEquals(10, time.getLong());
+    Assert.assertEquals(20, time.getLong());
+    Assert.assertEquals(1L << 40, time.getLong());
+
+    Assert.assertArrayEquals(new byte[] {1, 0, 1}, column(table, "leader").array());
+
+    List<String> peers = Files.readAllLines(table.resolve("peers.jsonl"), StandardCharsets.UTF_8);
+    Assert.assertEquals(Arrays.asList("[2,3]", "null", "null"), peers);
+  }
+
+  @Test
+  public void testDropPreviousRun() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    try (ColumnarFileSink sink = new ColumnarFileSink(dir)) {
+      sink.insertMany("Epochs", Row.class, Collections.singletonList(new Row(1, 1, true, null)));
+    }
+    Files.write(dir.resolve("keep.txt"), new byte[] {1});
+
+    new ColumnarFileSink(dir).close();
+    Assert.assertFalse(Files.exists(dir.resolve("Epochs").resolve("node.bin")));
+    Assert.assertTrue(Files.exists(dir.resolve("keep.txt")));
+  }
+}
@@ -0,0 +1,216 @@
+package net.consensys.wittgenstein.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.type.CollectionType;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import net.consensys.wittgenstein.core.EnvelopeInfo;
+import net.consensys.wittgenstein.core.External;
+import net.consensys.wittgenstein.core.Node;
+import net.consensys.wittgenstein.core.messages.Message;
+import net.consensys.wittgenstein.core.messages.SendMessage;
+import net.consensys.wittgenstein.server.ws.ObjectMapperFactory;
+
+/**
+ * An External sending all the messages of a millisecond in a single PUT, instead of one PUT per
+ * message as ExternalRest. The nodes using the same address should share the same instance, so
+ * there is a single request per address.
+ *
+ * <p>The body is the list of the EnvelopeInfo, in json or in the binary encoding below. The answer
+ * is the json list of the messages to send, applied in this order.
+ *
+ * <p>The connection is kept open between the requests: the JDK keeps the idle HTTP connections in a
+ * pool as long as the responses are read until the end.
+ *
+ * <p>The messages of the service are part of the simulation, so if a request fails, or times out,
+ * the run fails with an UncheckedIOException instead of going on without them.
+ */
+public class ExternalBatchRest implements External {
+  public enum Encoding {
+    JSON("application/json"),
+    /**
+     * The magic number, the version, the number of distinct messages then each message as json (its
+     * length then its UTF-8 bytes), the number of envelopes then for each envelope: from, to,
+     * sentAt, arrivingAt and the index of its message, as ints. A message sent to many nodes is
+     * written only once.
+     */
+    BINARY("application/x-wittgenstein-batch");
+
+    public final String contentType;
+
+    Encoding(String contentType) {
+      this.contentType = contentType;
+    }
+  }
+
+  static final int MAGIC = 0x57424154; // "WBAT"
+  static final int VERSION = 1;
+
+  public static final int DEFAULT_CONNECT_TIMEOUT_MS = 5_000;
+  public static final int DEFAULT_READ_TIMEOUT_MS = 60_000;
+
+  private final String httpFullAddress;
+  private final Encoding encoding;
+  private final ObjectMapper objectMapper;
+  private final ObjectWriter messageWriter;
+  private final ObjectWriter envelopesWriter;
+  private final CollectionType replyType;
+  private final int connectTimeoutMs;
+  private final int readTimeoutMs;
+
+  public ExternalBatchRest(String httpFullAddress, Encoding encoding) {
+    this(httpFullAddress, encoding, DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+  }
+
+  /** @param readTimeoutMs the maximum time to wait for the answer of the service. */
+  public ExternalBatchRest(
+      String httpFullAddress, Encoding encoding, int connectTimeoutMs, int readTimeoutMs) {
+    if (connectTimeoutMs <= 0 || readTimeoutMs <= 0) {
+      throw new IllegalArgumentException(
+          "connectTimeoutMs=" + connectTimeoutMs + ", readTimeoutMs=" + readTimeoutMs);
+    }
+    this.httpFullAddress = httpFullAddress;
+    this.encoding = encoding;
+    this.connectTimeoutMs = connectTimeoutMs;
+    this.readTimeoutMs = readTimeoutMs;
+    this.objectMapper = ObjectMapperFactory.objectMapper();
+    this.messageWriter = objectMapper.writerFor(Message.class);
+    this.envelopesWriter =
+        objectMapper.writerFor(
+            objectMapper.getTypeFactory().constructCollectionType(List.class, EnvelopeInfo.class));
+    this.replyType =
+        objectMapper.getTypeFactory().constructCollectionType(List.class, SendMessage.class);
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + ": " + httpFullAddress + " (" + encoding + ")";
+  }
+
+  @Override
+  public <TN extends Node> List<SendMessage> receive(EnvelopeInfo<TN> ei) {
+    return receiveAll(Collections.singletonList(ei));
+  }
+
+  @Override
+  public List<SendMessage> receiveAll(List<EnvelopeInfo<?>> eis) {
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      if (encoding == Encoding.BINARY) {
+        writeBinary(eis, bos);
+      } else {
+        envelopesWriter.writeValue(bos, eis);
+      }
+
+      HttpURLConnection c = (HttpURLConnection) new URL(httpFullAddress).openConnection();
+      c.setConnectTimeout(connectTimeoutMs);
+      c.setReadTimeout(readTimeoutMs);
+      c.setRequestMethod("PUT");
+      c.setDoOutput(true);
+      // The body is sent with the headers, not in another packet waiting for an ack
+      c.setFixedLengthStreamingMode(bos.size());
+      c.setRequestProperty("Content-Type", encoding.contentType);
+      c.setRequestProperty("Accept", "application/json");
+      try (OutputStream os = c.getOutputStream()) {
+        bos.writeTo(os);
+      }
+
+      int status = c.getResponseCode();
+      if (status / 100 != 2) {
+        // Reading the error body allows the connection to be reused
+        drain(c.getErrorStream());
+        throw new IOException("HTTP " + status);
+      }
+      byte[] body;
+      try (InputStream is = c.getInputStream()) {
+        body = readAll(is);
+      }
+      return body.length == 0 ? Collections.emptyList() : objectMapper.readValue(body, replyType);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Can't send " + eis.size() + " messages to " + this, e);
+    }
+  }
+
+  void writeBinary(List<EnvelopeInfo<?>> eis, OutputStream os) throws IOException {
+    Map<Message<?>, Integer> index = new IdentityHashMap<>();
+    List<Message<?>> messages = new ArrayList<>();
+    for (EnvelopeInfo<?> ei : eis) {
+      if (index.putIfAbsent(ei.msg, messages.size()) == null) {
+        messages.add(ei.msg);
+      }
+    }
+
+    DataOutputStream dos = new DataOutputStream(os);
+    dos.writeInt(MAGIC);
+    dos.writeInt(VERSION);
+    dos.writeInt(messages.size());
+    for (Message<?> m : messages) {
+      byte[] json = messageWriter.writeValueAsBytes(m);
+      dos.writeInt(json.length);
+      dos.write(json);
+    }
+    dos.writeInt(eis.size());
+    for (EnvelopeInfo<?> ei : eis) {
+      dos.writeInt(ei.from);
+      dos.writeInt(ei.to);
+      dos.writeInt(ei.sentAt);
+      dos.writeInt(ei.arrivingAt);
+      dos.writeInt(index.get(ei.msg));
+    }
+    dos.flush();
+  }
+
+  /** Reads a body written with the binary encoding, for the services implemented in java. */
+  public static List<EnvelopeInfo<?>> readBinary(ObjectMapper objectMapper, InputStream is)
+      throws IOException {
+    DataInputStream dis = new DataInputStream(new BufferedInputStream(is));
+    if (dis.readInt() != MAGIC) {
+      throw new IOException("Not a batch of messages");
+    }
+    int version = dis.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported batch version: " + version);
+    }
+    Message<?>[] messages = new Message<?>[dis.readInt()];
+    for (int i = 0; i < messages.length; i++) {
+      byte[] json = new byte[dis.readInt()];
+      dis.readFully(json);
+      messages[i] = objectMapper.readValue(json, Message.class);
+    }
+    int count = dis.readInt();
+    List<EnvelopeInfo<?>> res = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int from = dis.readInt();
+      int to = dis.readInt();
+      int sentAt = dis.readInt();
+      int arrivingAt = dis.readInt();
+      res.add(new EnvelopeInfo<>(from, to, sentAt, arrivingAt, messages[dis.readInt()]));
+    }
+    return res;
+  }
+
+  private static byte[] readAll(InputStream is) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    byte[] buf = new byte[8 * 1024];
+    int read;
+    while ((read = is.read(buf)) >= 0) {
+      bos.write(buf, 0, read);
+    }
+    return bos.toByteArray();
+  }
+
+  private static void drain(InputStream is) throws IOException {
+    if (is != null) {
+      try (InputStream in = is) {
+        readAll(in);
+      }
+    }
+  }
+}
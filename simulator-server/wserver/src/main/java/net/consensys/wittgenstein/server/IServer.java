@@ -1,34 +1,52 @@
 package net.consensys.wittgenstein.server;
 
 import java.util.List;
-import net.consensys.wittgenstein.core.EnvelopeInfo;
 import net.consensys.wittgenstein.core.Node;
 import net.consensys.wittgenstein.core.WParameters;
 import net.consensys.wittgenstein.core.messages.SendMessage;
 
+/**
+ * The simulations run step by step: 'init' creates a session with its own protocol instance and
+ * returns its id, the other calls act on the network of this session.
+ */
 public interface IServer {
 
-  List<? extends Node> getNodeInfo();
+  /**
+   * @return the nodes as json. It's written on the session's thread: the nodes are changed by the
+   *     simulation, they can't be read from another thread.
+   */
+  String getNodeInfo(int sessionId);
 
-  int getTime();
+  int getTime(int sessionId);
 
-  void init(String fullClassName, WParameters parameters);
+  /** @return the id of the new session. */
+  int init(String fullClassName, WParameters parameters);
+
+  /** Closes the session and frees its resources. */
+  void closeSession(int sessionId);
 
   List<String> getProtocols();
 
   WParameters getProtocolParameters(String fullClassName);
 
-  void runMs(int ms);
-
-  Node getNodeInfo(int nodeId);
+  void runMs(int sessionId, int ms);
 
-  List<EnvelopeInfo<?>> getMessages();
+  /** @return the node as json, written on the session's thread. */
+  String getNodeInfo(int sessionId, int nodeId);
 
-  void startNode(int nodeId);
+  void startNode(int sessionId, int nodeId);
 
-  void stopNode(int nodeId);
+  void stopNode(int sessionId, int nodeId);
 
-  void setExternal(int nodeId, String externalServiceFullAddress);
+  /**
+   * @param batchEncoding null to send each message in its own request, otherwise the encoding of
+   *     the requests sending all the messages of a millisecond at once.
+   */
+  void setExternal(
+      int sessionId,
+      int nodeId,
+      String externalServiceFullAddress,
+      ExternalBatchRest.Encoding batchEncoding);
 
-  <TN extends Node> void sendMessage(SendMessage msg);
+  <TN extends Node> void sendMessage(int sessionId, SendMessage msg);
 }
@@ -1,37 +1,196 @@
 package net.consensys.wittgenstein.server;
 
-import java.io.IOException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.jsontype.NamedType;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
-
-import com.fasterxml.jackson.core.JsonProcessingException;
 import net.consensys.wittgenstein.core.*;
 import net.consensys.wittgenstein.core.messages.Message;
 import net.consensys.wittgenstein.core.messages.SendMessage;
 import net.consensys.wittgenstein.core.utils.Reflects;
-import net.consensys.wittgenstein.protocols.harmony.Harmony;
-import net.consensys.wittgenstein.protocols.harmony.HarmonyConfig;
-import org.apache.commons.cli.ParseException;
+import net.consensys.wittgenstein.server.ws.ObjectMapperFactory;
 import org.springframework.beans.factory.support.BeanDefinitionRegistry;
 import org.springframework.beans.factory.support.SimpleBeanDefinitionRegistry;
 import org.springframework.context.annotation.ClassPathBeanDefinitionScanner;
 import org.springframework.core.type.filter.AssignableTypeFilter;
 import org.springframework.core.type.filter.TypeFilter;
 
-/** Allows to run the protocols in a (web)server. */
-public class Server implements IServer {
-  private Protocol protocol;
+/**
+ * Allows to run the protocols in a (web)server. Each call to 'init' creates a session, so many
+ * users can run their simulations step by step at the same time. A session runs all its calls on
+ * its own thread, one after the other, while the calls on different sessions run in parallel.
+ *
+ * <p>The sessions not used for 'idleTimeoutMs' are closed, and their nodes with them.
+ */
+public class Server implements IServer, AutoCloseable {
+  /** The sessions not used for 30 minutes are closed. */
+  public static final long DEFAULT_IDLE_TIMEOUT_MS = 30 * 60 * 1000;
+
+  private final long idleTimeoutMs;
+  private final Map<Integer, Session> sessions = new ConcurrentHashMap<>();
+  private final AtomicInteger lastSessionId = new AtomicInteger();
+  private ScheduledExecutorService evictor;
+  private ObjectMapper nodesMapper;
+
+  /** Thrown when a session does not exist, or does not exist anymore. */
+  public static class UnknownSessionException extends IllegalArgumentException {
+    UnknownSessionException(int sessionId) {
+      super("Unknown session: " + sessionId);
+    }
+  }
+
+  private static final class Session {
+    final int id;
+    final ExecutorService executor;
+    /** Only used from the session's thread. */
+    Protocol protocol;
+    /** The calls queued or running. A session is never closed while it has calls in progress. */
+    final AtomicInteger pendingCalls = new AtomicInteger();
+    /**
+     * The batched externals by address, shared by the nodes. Only used from the session's thread.
+     */
+    final Map<String, External> batchExternals = new HashMap<>();
+
+    volatile long lastAccessNs = System.nanoTime();
+
+    Session(int id) {
+      this.id = id;
+      this.executor =
+          Executors.newSingleThreadExecutor(
+              r -> {
+                Thread t = new Thread(r, "session-" + id);
+                t.setDaemon(true);
+                return t;
+              });
+    }
+
+    <T> T call(Callable<T> c) {
+      pendingCalls.incrementAndGet();
+      try {
+        return executor.submit(c).get();
+      } catch (RejectedExecutionException e) {
+        // The session was closed while we were calling it.
+        throw new UnknownSessionException(id);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new IllegalStateException(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      } finally {
+        lastAccessNs = System.nanoTime();
+        pendingCalls.decrementAndGet();
+      }
+    }
+
+    void run(Runnable r) {
+      call(
+          () -> {
+            r.run();
+            return null;
+          });
+    }
+
+    /** Closes the nodes on the session's thread, then stops this thread. */
+    void close() {
+      try {
+        executor.execute(
+            () -> {
+              if (protocol != null) {
+                for (Node n : protocol.network().allNodes) {
+                  n.close();
+                }
+              }
+            });
+      } catch (RejectedExecutionException ignored) {
+        // already closed
+      }
+      executor.shutdown();
+    }
+  }
+
+  public Server() {
+    this(DEFAULT_IDLE_TIMEOUT_MS);
+  }
+
+  public Server(long idleTimeoutMs) {
+    if (idleTimeoutMs <= 0) {
+      throw new IllegalArgumentException("idleTimeoutMs=" + idleTimeoutMs);
+    }
+    this.idleTimeoutMs = idleTimeoutMs;
+  }
 
-  public List<? extends Node> getNodeInfo() {
-    return protocol.network().allNodes;
+  private Session session(int sessionId) {
+    Session s = sessions.get(sessionId);
+    if (s == null) {
+      throw new UnknownSessionException(sessionId);
+    }
+    s.lastAccessNs = System.nanoTime();
+    return s;
   }
 
-  public int getTime() {
-    return protocol.network().time;
+  @Override
+  public String getNodeInfo(int sessionId) {
+    ObjectMapper om = nodesMapper();
+    // As Spring would write a List<Node>
+    ObjectWriter ow =
+        om.writerFor(om.getTypeFactory().constructCollectionType(List.class, Node.class));
+    Session s = session(sessionId);
+    return s.call(() -> toJson(ow, s.protocol.network().allNodes));
+  }
+
+  @Override
+  public String getNodeInfo(int sessionId, int nodeId) {
+    ObjectWriter ow = nodesMapper().writer();
+    Session s = session(sessionId);
+    return s.call(() -> toJson(ow, s.protocol.network().getNodeById(nodeId)));
+  }
+
+  private static String toJson(ObjectWriter ow, Object o) {
+    try {
+      return ow.writeValueAsString(o);
+    } catch (JsonProcessingException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @return a mapper for the messages, the nodes and the parameters of the protocols. The
+   *     parameters are identified by their simple class name.
+   */
+  public ObjectMapper objectMapper() {
+    ObjectMapper mapper = ObjectMapperFactory.objectMapper();
+    for (Class<?> p : getParametersName()) {
+      mapper.registerSubtypes(new NamedType(p, p.getSimpleName()));
+    }
+    return mapper;
+  }
+
+  private synchronized ObjectMapper nodesMapper() {
+    if (nodesMapper == null) {
+      nodesMapper = objectMapper();
+    }
+    return nodesMapper;
+  }
+
+  @Override
+  public int getTime(int sessionId) {
+    Session s = session(sessionId);
+    return s.call(() -> s.protocol.network().time);
   }
 
   private Constructor<?> getConstructor(String fullClassName) {
@@ -51,10 +210,77 @@ public class Server implements IServer {
   }
 
   @Override
-  public void init(String fullClassName, WParameters parameters) {
+  public int init(String fullClassName, WParameters parameters) {
     Constructor<?> c = getConstructor(fullClassName);
-    protocol = (Protocol) Reflects.newInstance(c, parameters);
-    protocol.init();
+    Session s = new Session(lastSessionId.incrementAndGet());
+    try {
+      s.run(
+          () -> {
+            s.protocol = (Protocol) Reflects.newInstance(c, parameters);
+            s.protocol.init();
+          });
+    } catch (RuntimeException e) {
+      s.close();
+      throw e;
+    }
+    sessions.put(s.id, s);
+    startEvictor();
+    return s.id;
+  }
+
+  @Override
+  public void closeSession(int sessionId) {
+    Session s = sessions.remove(sessionId);
+    if (s == null) {
+      throw new UnknownSessionException(sessionId);
+    }
+    s.close();
+  }
+
+  private synchronized void startEvictor() {
+    if (evictor == null) {
+      evictor =
+          Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                Thread t = new Thread(r, "session-evictor");
+                t.setDaemon(true);
+                return t;
+              });
+      long period = Math.min(idleTimeoutMs, 60_000);
+      evictor.scheduleWithFixedDelay(
+          this::evictIdleSessions, period, period, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Closes the sessions without calls in progress and not used for 'idleTimeoutMs'. */
+  void evictIdleSessions() {
+    long now = System.nanoTime();
+    for (Session s : sessions.values()) {
+      if (s.pendingCalls.get() == 0
+          && TimeUnit.NANOSECONDS.toMillis(now - s.lastAccessNs) >= idleTimeoutMs
+          && sessions.remove(s.id, s)) {
+        s.close();
+      }
+    }
+  }
+
+  int getSessionCount() {
+    return sessions.size();
+  }
+
+  /** Closes all the sessions. */
+  @Override
+  public synchronized void close() {
+    if (evictor != null) {
+      evictor.shutdownNow();
+      evictor = null;
+    }
+    for (Integer id : sessions.keySet()) {
+      Session s = sessions.remove(id);
+      if (s != null) {
+        s.close();
+      }
+    }
   }
 
   @Override
@@ -132,49 +358,118 @@ public class Server implements IServer {
   }
 
   @Override
-  public void runMs(int ms) {
-    protocol.network().runMs(ms);
+  public void runMs(int sessionId, int ms) {
+    Session s = session(sessionId);
+    s.run(() -> s.protocol.network().runMs(ms));
   }
 
   @Override
-  public void startNode(int nodeId) {
-    protocol.network().getNodeById(nodeId).start();
+  public void startNode(int sessionId, int nodeId) {
+    Session s = session(sessionId);
+    s.run(() -> s.protocol.network().getNodeById(nodeId).start());
   }
 
   @Override
-  public void stopNode(int nodeId) {
-    protocol.network().getNodeById(nodeId).stop();
+  public void stopNode(int sessionId, int nodeId) {
+    Session s = session(sessionId);
+    s.run(() -> s.protocol.network().getNodeById(nodeId).stop());
   }
 
   @Override
-  public void setExternal(int nodeId, String externalServiceFullAddress) {
-    External ext;
-    if (externalServiceFullAddress == null || externalServiceFullAddress.trim().isEmpty()) {
-      ext = new ExternalMockImplementation(protocol.network());
-    } else {
-      ext = new ExternalRest(externalServiceFullAddress);
-    }
-    protocol.network().getNodeById(nodeId).setExternal(ext);
+  public void setExternal(
+      int sessionId,
+      int nodeId,
+      String externalServiceFullAddress,
+      ExternalBatchRest.Encoding batchEncoding) {
+    Session s = session(sessionId);
+    s.run(
+        () -> {
+          External ext;
+          if (externalServiceFullAddress == null || externalServiceFullAddress.trim().isEmpty()) {
+            ext = new ExternalMockImplementation(s.protocol.network());
+          } else if (batchEncoding == null) {
+            ext = new ExternalRest(externalServiceFullAddress);
+          } else {
+            ext =
+                s.batchExternals.computeIfAbsent(
+                    batchEncoding + " " + externalServiceFullAddress,
+                    k -> new ExternalBatchRest(externalServiceFullAddress, batchEncoding));
+          }
+          s.protocol.network().getNodeById(nodeId).setExternal(ext);
+        });
   }
 
   @SuppressWarnings("unchecked")
   @Override
-  public <TN extends Node> void sendMessage(SendMessage msg) {
-    Network<TN> n = (Network<TN>) protocol.network();
-    TN fromN = n.getNodeById(msg.from);
-    List<TN> destN = msg.to.stream().map(n::getNodeById).collect(Collectors.toList());
-    Message<TN> m = (Message<TN>) msg.message;
-    n.send(m, msg.sendTime, fromN, destN, msg.delayBetweenSend);
+  public <TN extends Node> void sendMessage(int sessionId, SendMessage msg) {
+    Session s = session(sessionId);
+    s.run(
+        () -> {
+          Network<TN> n = (Network<TN>) s.protocol.network();
+          TN fromN = n.getNodeById(msg.from);
+          List<TN> destN = msg.to.stream().map(n::getNodeById).collect(Collectors.toList());
+          Message<TN> m = (Message<TN>) msg.message;
+          n.send(m, msg.sendTime, fromN, destN, msg.delayBetweenSend);
+        });
   }
 
-  @Override
-  public Node getNodeInfo(int nodeId) {
-    return protocol.network().getNodeById(nodeId);
-  }
+  /**
+   * Gives the deliveries selected by the filter to 'out', by arrival time, without building the
+   * list of all the deliveries. 'out' is called on the session's thread.
+   *
+   * @param cursor where to start, as returned by the previous call; null to start at the first
+   *     delivery. It's the arrival time and the number of deliveries already returned at this time.
+   * @param limit the maximum number of deliveries given to 'out'.
+   * @return the cursor to get the next deliveries, null if there are no more deliveries.
+   */
+  public String forEachMessage(
+      int sessionId,
+      MessageFilter filter,
+      String cursor,
+      int limit,
+      Consumer<EnvelopeInfo<?>> out) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("limit=" + limit);
+    }
+    int startArrival = 0;
+    int skip = 0;
+    if (cursor != null) {
+      String[] parts = cursor.split(":");
+      try {
+        startArrival = Integer.parseInt(parts[0]);
+        skip = Integer.parseInt(parts[1]);
+      } catch (RuntimeException e) {
+        throw new IllegalArgumentException("Bad cursor: " + cursor, e);
+      }
+    }
+    int fStartArrival = startArrival;
+    int fSkip = skip;
 
-  @Override
-  public List<EnvelopeInfo<?>> getMessages() {
-    return protocol.network().msgs.peekMessages();
+    Session s = session(sessionId);
+    return s.call(
+        () -> {
+          Network<?>.MessageCursor c =
+              s.protocol.network().msgs.cursor(filter.startingAt(fStartArrival));
+          int arrival = fStartArrival;
+          int doneAtArrival = 0;
+          int sent = 0;
+          while (c.next()) {
+            if (c.arrivingAt() != arrival) {
+              arrival = c.arrivingAt();
+              doneAtArrival = 0;
+            }
+            if (arrival == fStartArrival && doneAtArrival < fSkip) {
+              doneAtArrival++;
+              continue;
+            }
+            if (sent == limit) {
+              return arrival + ":" + doneAtArrival;
+            }
+            out.accept(c.info());
+            sent++;
+            doneAtArrival++;
+          }
+          return null;
+        });
   }
-
 }
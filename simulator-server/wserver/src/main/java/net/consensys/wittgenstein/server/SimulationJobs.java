@@ -0,0 +1,205 @@
+package net.consensys.wittgenstein.server;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.consensys.wittgenstein.protocols.utils.OutputSink;
+import net.consensys.wittgenstein.protocols.utils.SharedConfig;
+import net.consensys.wittgenstein.protocols.utils.SimulationProgress;
+
+/**
+ * Runs the simulations (Harmony, Solana, Ouroboros) as jobs on a pool of worker threads, so the
+ * caller doesn't wait for the end of the simulation and many simulations can run at the same time.
+ *
+ * <p>Each job writes its output in its own namespace: the 'simulator_<job id>' database for mongo,
+ * the '<output directory>/job-<job id>' directory for the columnar files.
+ *
+ * <p>The finished jobs are kept with their result until they are removed, or until there are more
+ * than 'maxFinishedJobs' finished jobs: the oldest ones are then forgotten.
+ */
+public class SimulationJobs implements AutoCloseable {
+  private static final Logger logger = Logger.getLogger(SimulationJobs.class.getName());
+
+  public static final int DEFAULT_MAX_FINISHED_JOBS = 100;
+
+  public enum State {
+    QUEUED,
+    RUNNING,
+    DONE,
+    FAILED
+  }
+
+  /** A simulation, run by a job. */
+  public interface Simulation {
+    /** @return the result of the simulation, null if there is none. */
+    Object run(SimulationProgress progress) throws Exception;
+  }
+
+  public static class Job {
+    public final int id;
+    public final String protocol;
+    /** The mongo database or the directory of the output, null if there is no output. */
+    public final String outputNamespace;
+
+    private volatile State state = State.QUEUED;
+    private volatile String error;
+    @JsonIgnore private volatile Object result;
+    @JsonIgnore private final SimulationProgress progress = new SimulationProgress();
+
+    Job(int id, String protocol, String outputNamespace) {
+      this.id = id;
+      this.protocol = protocol;
+      this.outputNamespace = outputNamespace;
+    }
+
+    public State getState() {
+      return state;
+    }
+
+    /** @return the epoch being simulated, -1 if the simulation has not started yet. */
+    public int getEpoch() {
+      return progress.epoch();
+    }
+
+    /** @return the slot being simulated, -1 if the simulation has not started yet. */
+    public int getSlot() {
+      return progress.slot();
+    }
+
+    /** @return the error if the job failed, null otherwise. */
+    public String getError() {
+      return error;
+    }
+
+    /** @return the result of a job done, null if there is none or if the job is not done. */
+    @JsonIgnore
+    public Object getResult() {
+      return result;
+    }
+  }
+
+  private final ExecutorService workers;
+  private final int maxFinishedJobs;
+  private final Map<Integer, Job> jobs = new ConcurrentHashMap<>();
+  /** The finished jobs still in 'jobs', the oldest first. */
+  private final Deque<Job> finished = new ArrayDeque<>();
+
+  private final AtomicInteger lastId = new AtomicInteger();
+
+  /** A pool with a worker per processor. */
+  public SimulationJobs() {
+    this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_FINISHED_JOBS);
+  }
+
+  public SimulationJobs(int workerCount, int maxFinishedJobs) {
+    if (workerCount <= 0) {
+      throw new IllegalArgumentException("workerCount=" + workerCount);
+    }
+    if (maxFinishedJobs < 0) {
+      throw new IllegalArgumentException("maxFinishedJobs=" + maxFinishedJobs);
+    }
+    this.maxFinishedJobs = maxFinishedJobs;
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory tf =
+        r -> {
+          Thread t = new Thread(r, "simulation-job-" + threadCount.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        };
+    this.workers = Executors.newFixedThreadPool(workerCount, tf);
+  }
+
+  /**
+   * Queues a simulation. The output namespace of the config is changed to the job's one before the
+   * simulation starts.
+   */
+  public Job submit(String protocol, SharedConfig config, Simulation simulation) {
+    int id = lastId.incrementAndGet();
+    String namespace;
+    if (config.outputSink == OutputSink.Type.MONGO) {
+      config.mongoDatabase = "simulator_" + id;
+      namespace = config.mongoDatabase;
+    } else if (config.outputSink == OutputSink.Type.COLUMNAR) {
+      config.outputDirectory = Paths.get(config.outputDirectory, "job-" + id).toString();
+      namespace = config.outputDirectory;
+    } else {
+      namespace = null;
+    }
+
+    Job job = new Job(id, protocol, namespace);
+    jobs.put(id, job);
+    workers.execute(() -> run(job, simulation));
+    return job;
+  }
+
+  private void run(Job job, Simulation simulation) {
+    job.state = State.RUNNING;
+    try {
+      job.result = simulation.run(job.progress);
+      job.state = State.DONE;
+    } catch (Throwable t) {
+      logger.log(Level.SEVERE, "Job " + job.id + " (" + job.protocol + ") failed", t);
+      job.error = t.toString();
+      job.state = State.FAILED;
+    }
+    finished(job);
+  }
+
+  private synchronized void finished(Job job) {
+    if (!jobs.containsKey(job.id)) {
+      return;
+    }
+    finished.add(job);
+    while (finished.size() > maxFinishedJobs) {
+      jobs.remove(finished.poll().id);
+    }
+  }
+
+  /**
+   * Forgets a finished job and its result.
+   *
+   * @return the job removed, null if there is no job with this id.
+   * @throws IllegalStateException if the job is queued or running.
+   */
+  public synchronized Job remove(int id) {
+    Job job = jobs.get(id);
+    if (job == null) {
+      return null;
+    }
+    if (job.state == State.QUEUED || job.state == State.RUNNING) {
+      throw new IllegalStateException("Job " + id + " is " + job.state);
+    }
+    jobs.remove(id);
+    finished.remove(job);
+    return job;
+  }
+
+  /** @return the job with this id, null if there is none. */
+  public Job get(int id) {
+    return jobs.get(id);
+  }
+
+  /** @return all the jobs, sorted by id. */
+  public List<Job> getAll() {
+    List<Job> res = new ArrayList<>(jobs.values());
+    res.sort((j1, j2) -> Integer.compare(j1.id, j2.id));
+    return res;
+  }
+
+  /** Stops the workers. The running jobs are interrupted. */
+  @Override
+  public void close() {
+    workers.shutdownNow();
+  }
+}
@@ -1,13 +1,19 @@
 package net.consensys.wittgenstein.server.ws;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.jsontype.NamedType;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import javax.servlet.http.HttpServletResponse;
 
 import net.consensys.wittgenstein.core.EnvelopeInfo;
 import net.consensys.wittgenstein.core.External;
+import net.consensys.wittgenstein.core.MessageFilter;
 import net.consensys.wittgenstein.core.Node;
 import net.consensys.wittgenstein.core.WParameters;
 import net.consensys.wittgenstein.core.messages.SendMessage;
@@ -24,6 +30,8 @@ import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.mongo.MongoAutoConfiguration;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -31,7 +39,11 @@ import org.springframework.web.bind.annotation.*;
 @EnableAutoConfiguration(exclude={MongoAutoConfiguration.class})
 @RequestMapping("/w")
 public class WServer extends ExternalWS implements IServer, External {
+  static final String CURSOR_HEADER = "X-Cursor";
+
   private Server server = new Server();
+  private ObjectMapper mapper;
+  private final SimulationJobs jobs = new SimulationJobs();
 
   static {
     ch.qos.logback.classic.Logger root = (ch.qos.logback.classic.Logger) org.slf4j.LoggerFactory.getLogger(ch.qos.logback.classic.Logger.ROOT_LOGGER_NAME);
@@ -74,16 +86,86 @@ public class WServer extends ExternalWS implements IServer, External {
     }
   }
 
-  @GetMapping(value = "/network/nodes")
+  /** Queues a Harmony simulation; the result is its OutputInfo. */
+  @PostMapping(value = "/jobs/harmony")
+  public SimulationJobs.Job submitHarmony(@RequestBody HarmonyConfig config) {
+    return jobs.submit("harmony", config, progress -> Harmony.run(config, progress));
+  }
+
+  @PostMapping(value = "/jobs/ouroboros")
+  public SimulationJobs.Job submitOuroboros(@RequestBody OuroborosConfig config) {
+    return jobs.submit(
+        "ouroboros",
+        config,
+        progress -> {
+          Ouroboros.run(config, progress);
+          return null;
+        });
+  }
+
+  @PostMapping(value = "/jobs/solana")
+  public SimulationJobs.Job submitSolana(@RequestBody SolanaConfig config) {
+    return jobs.submit(
+        "solana",
+        config,
+        progress -> {
+          Solana.run(config, progress);
+          return null;
+        });
+  }
+
+  @GetMapping(value = "/jobs")
+  public List<SimulationJobs.Job> getJobs() {
+    return jobs.getAll();
+  }
+
+  /** The state of the job and the epoch and slot being simulated. */
+  @GetMapping(value = "/jobs/{jobId}")
+  public ResponseEntity<SimulationJobs.Job> getJob(@PathVariable("jobId") int jobId) {
+    SimulationJobs.Job job = jobs.get(jobId);
+    return job == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(job);
+  }
+
+  /** The result of a job. It's an error (409) if the job is not done. */
+  @GetMapping(value = "/jobs/{jobId}/result")
+  public ResponseEntity<?> getJobResult(@PathVariable("jobId") int jobId) {
+    SimulationJobs.Job job = jobs.get(jobId);
+    if (job == null) {
+      return ResponseEntity.notFound().build();
+    }
+    if (job.getState() != SimulationJobs.State.DONE) {
+      return ResponseEntity.status(HttpStatus.CONFLICT).body(job);
+    }
+    return ResponseEntity.ok().body(job.getResult());
+  }
+
+  /** Forgets a finished job and its result. It's an error (409) if the job is not finished. */
+  @DeleteMapping(value = "/jobs/{jobId}")
+  public ResponseEntity<?> deleteJob(@PathVariable("jobId") int jobId) {
+    SimulationJobs.Job job = jobs.get(jobId);
+    if (job == null) {
+      return ResponseEntity.notFound().build();
+    }
+    if (job.getState() == SimulationJobs.State.QUEUED
+        || job.getState() == SimulationJobs.State.RUNNING) {
+      return ResponseEntity.status(HttpStatus.CONFLICT).body(job);
+    }
+    jobs.remove(jobId);
+    return ResponseEntity.noContent().build();
+  }
+
+  @GetMapping(
+      value = "/network/{sessionId}/nodes",
+      produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
   @Override
-  public List<? extends Node> getNodeInfo() {
-    return server.getNodeInfo();
+  public String getNodeInfo(@PathVariable("sessionId") int sessionId) {
+    return server.getNodeInfo(sessionId);
   }
 
-  @GetMapping(value = "/network/time")
+  @GetMapping(value = "/network/{sessionId}/time")
   @Override
-  public int getTime() {
-    return server.getTime();
+  public int getTime(@PathVariable("sessionId") int sessionId) {
+    return server.getTime(sessionId);
   }
 
   @GetMapping(value = "/protocols")
@@ -98,53 +180,132 @@ public class WServer extends ExternalWS implements IServer, External {
     return server.getProtocolParameters(fullClassName);
   }
 
+  /** Creates a session running this protocol; returns the session id. */
   @PostMapping(value = "/network/init/{fullClassName}")
-  public void init(
+  @Override
+  public int init(
       @PathVariable("fullClassName") String fullClassName, @RequestBody WParameters parameters) {
-    server.init(fullClassName, parameters);
+    return server.init(fullClassName, parameters);
   }
 
-  @PostMapping(value = "/network/runMs/{ms}")
+  @DeleteMapping(value = "/network/{sessionId}")
   @Override
-  public void runMs(@PathVariable("ms") int ms) {
-    server.runMs(ms);
+  public void closeSession(@PathVariable("sessionId") int sessionId) {
+    server.closeSession(sessionId);
   }
 
-  @GetMapping(value = "/network/nodes/{nodeId}")
+  @PostMapping(value = "/network/{sessionId}/runMs/{ms}")
   @Override
-  public Node getNodeInfo(@PathVariable("nodeId") int nodeId) {
-    return server.getNodeInfo(nodeId);
+  public void runMs(@PathVariable("sessionId") int sessionId, @PathVariable("ms") int ms) {
+    server.runMs(sessionId, ms);
   }
 
-  @GetMapping(value = "/network/messages")
+  @GetMapping(
+      value = "/network/{sessionId}/nodes/{nodeId}",
+      produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
   @Override
-  public List<EnvelopeInfo<?>> getMessages() {
-    return server.getMessages();
+  public String getNodeInfo(
+      @PathVariable("sessionId") int sessionId, @PathVariable("nodeId") int nodeId) {
+    return server.getNodeInfo(sessionId, nodeId);
+  }
+
+  /**
+   * The deliveries still to do, by arrival time, at most 'limit'. If there are more deliveries the
+   * response has the header X-Cursor, the cursor to use to get the next ones.
+   */
+  @GetMapping(value = "/network/{sessionId}/messages")
+  public ResponseEntity<List<EnvelopeInfo<?>>> getMessages(
+      @PathVariable("sessionId") int sessionId,
+      @RequestParam(value = "limit", defaultValue = "1000") int limit,
+      @RequestParam(value = "cursor", required = false) String cursor) {
+    List<EnvelopeInfo<?>> res = new ArrayList<>();
+    String next = server.forEachMessage(sessionId, MessageFilter.ALL, cursor, limit, res::add);
+    ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+    if (next != null) {
+      ok.header(CURSOR_HEADER, next);
+    }
+    return ok.body(res);
+  }
+
+  /**
+   * The deliveries still to do, by arrival time, as newline delimited json, one EnvelopeInfo per
+   * line. They are read from the message queue as they are written, so the response can be large.
+   * If there are more than 'limit' deliveries the last line is {"cursor":"..."}, the cursor to use
+   * to get the next ones.
+   */
+  @GetMapping(value = "/network/{sessionId}/messages/stream", produces = "application/x-ndjson")
+  public void streamMessages(
+      @PathVariable("sessionId") int sessionId,
+      @RequestParam(value = "from", defaultValue = "-1") int from,
+      @RequestParam(value = "to", defaultValue = "-1") int to,
+      @RequestParam(value = "minArrival", defaultValue = "0") int minArrival,
+      @RequestParam(value = "maxArrival", defaultValue = "" + Integer.MAX_VALUE) int maxArrival,
+      @RequestParam(value = "type", required = false) String type,
+      @RequestParam(value = "limit", defaultValue = "1000") int limit,
+      @RequestParam(value = "cursor", required = false) String cursor,
+      HttpServletResponse response) throws IOException {
+    MessageFilter filter = new MessageFilter(from, to, minArrival, maxArrival, type);
+    ObjectMapper om = mapper();
+    response.setContentType("application/x-ndjson");
+    OutputStream os = new BufferedOutputStream(response.getOutputStream());
+    String next = server.forEachMessage(sessionId, filter, cursor, limit, ei -> {
+      try {
+        os.write(om.writeValueAsBytes(ei));
+        os.write('\n');
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    if (next != null) {
+      os.write(("{\"cursor\":\"" + next + "\"}\n").getBytes(StandardCharsets.UTF_8));
+    }
+    os.flush();
   }
 
-  @PostMapping(value = "/nodes/{nodeId}/start")
+  @PostMapping(value = "/network/{sessionId}/nodes/{nodeId}/start")
   @Override
-  public void startNode(@PathVariable("nodeId") int nodeId) {
-    server.startNode(nodeId);
+  public void startNode(
+      @PathVariable("sessionId") int sessionId, @PathVariable("nodeId") int nodeId) {
+    server.startNode(sessionId, nodeId);
   }
 
-  @PostMapping(value = "/network/nodes/{nodeId}/stop")
+  @PostMapping(value = "/network/{sessionId}/nodes/{nodeId}/stop")
   @Override
-  public void stopNode(@PathVariable("nodeId") int nodeId) {
-    server.stopNode(nodeId);
+  public void stopNode(
+      @PathVariable("sessionId") int sessionId, @PathVariable("nodeId") int nodeId) {
+    server.stopNode(sessionId, nodeId);
   }
 
-  @PostMapping(value = "/network/nodes/{nodeId}/external")
+  /**
+   * Without the 'batch' parameter each message is sent in its own request. With 'batch=JSON' or
+   * 'batch=BINARY' the messages of a millisecond are sent in a single request per address.
+   */
+  @PostMapping(value = "/network/{sessionId}/nodes/{nodeId}/external")
   @Override
   public void setExternal(
-      @PathVariable("nodeId") int nodeId, @RequestBody String externalServiceFullAddress) {
-    server.setExternal(nodeId, externalServiceFullAddress);
+      @PathVariable("sessionId") int sessionId,
+      @PathVariable("nodeId") int nodeId,
+      @RequestBody String externalServiceFullAddress,
+      @RequestParam(value = "batch", required = false) ExternalBatchRest.Encoding batchEncoding) {
+    server.setExternal(sessionId, nodeId, externalServiceFullAddress, batchEncoding);
   }
 
-  @PostMapping(value = "/network/send")
+  @PostMapping(value = "/network/{sessionId}/send")
   @Override
-  public <TN extends Node> void sendMessage(@RequestBody SendMessage msg) {
-    server.sendMessage(msg);
+  public <TN extends Node> void sendMessage(
+      @PathVariable("sessionId") int sessionId, @RequestBody SendMessage msg) {
+    server.sendMessage(sessionId, msg);
+  }
+
+  @ExceptionHandler(Server.UnknownSessionException.class)
+  public ResponseEntity<String> unknownSession(Server.UnknownSessionException e) {
+    return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+  }
+
+  /** A bad parameter, as a malformed cursor: it's an error of the client, not of the server. */
+  @ExceptionHandler(IllegalArgumentException.class)
+  public ResponseEntity<String> badRequest(IllegalArgumentException e) {
+    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
   }
 
   /** We map all fields in the parameters, not taking into account the getters/setters */
@@ -152,12 +313,13 @@ public class WServer extends ExternalWS implements IServer, External {
   @Bean
   @Primary
   public ObjectMapper objectMapper() {
-    ObjectMapper mapper = ObjectMapperFactory.objectMapper();
+    return server.objectMapper();
+  }
 
-    for (Class<?> p : server.getParametersName()) {
-      mapper.registerSubtypes(new NamedType(p, p.getSimpleName()));
+  private synchronized ObjectMapper mapper() {
+    if (mapper == null) {
+      mapper = objectMapper();
     }
-
     return mapper;
   }
 
@@ -0,0 +1,147 @@
+package net.consensys.wittgenstein.server;
+
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import net.consensys.wittgenstein.core.*;
+import net.consensys.wittgenstein.core.messages.Message;
+import net.consensys.wittgenstein.core.messages.SendMessage;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExternalBatchRestTest {
+
+  public static class Ping extends Message<Node> {
+    public int seq;
+
+    public Ping() {}
+
+    Ping(int seq) {
+      this.seq = seq;
+    }
+
+    @Override
+    public void action(Network<Node> network, Node from, Node to) {
+      received.add(network.time + ":" + from.nodeId + "->" + to.nodeId + ":" + seq);
+    }
+  }
+
+  static final List<String> received = Collections.synchronizedList(new ArrayList<>());
+
+  /**
+   * Node 0 sends a message to the nodes 1 to 9, all run by the external service, which answers to
+   * each message with a message to node 0.
+   */
+  private List<String> run(ExternalBatchRest.Encoding encoding, ExternalStandIn standIn) {
+    received.clear();
+    Network<Node> network = new Network<>();
+    network.setNetworkLatency(new NetworkLatency.NetworkUniformLatency(20));
+    NodeBuilder nb = new NodeBuilder.NodeBuilderWithRandomPosition();
+    for (int i = 0; i < 10; i++) {
+      network.addNode(new Node(network.rd, nb));
+    }
+    ExternalBatchRest ext = new ExternalBatchRest(standIn.address(), encoding);
+    for (int i = 1; i < 10; i++) {
+      network.getNodeById(i).setExternal(ext);
+    }
+
+    network.send(new Ping(0), network.getNodeById(0), network.allNodes.subList(1, 10));
+    network.send(new Ping(1), network.getNodeById(0), network.allNodes.subList(1, 10));
+    network.run(1);
+
+    for (Node n : network.allNodes.subList(1, 10)) {
+      Assert.assertEquals(2, n.getMsgReceived());
+    }
+    return new ArrayList<>(received);
+  }
+
+  private static List<SendMessage> answer(List<EnvelopeInfo<?>> eis) {
+    List<SendMessage> res = new ArrayList<>();
+    for (EnvelopeInfo<?> ei : eis) {
+      Ping p = (Ping) ei.msg;
+      res.add(
+          new SendMessage(
+              ei.to, Collections.singletonList(0), ei.arrivingAt + 1, 0, new Ping(p.seq + 10)));
+    }
+    return res;
+  }
+
+  @Test
+  public void testBatches() throws Exception {
+    List<String> json;
+    List<String> binary;
+    try (ExternalStandIn standIn = new ExternalStandIn(ExternalBatchRestTest::answer)) {
+      json = run(ExternalBatchRest.Encoding.JSON, standIn);
+
+      // One request per millisecond with deliveries, and all the messages
+      int deliveries = 0;
+      List<Integer> times = new ArrayList<>();
+      for (List<EnvelopeInfo<?>> batch : standIn.batches) {
+        int time = batch.get(0).arrivingAt;
+        Assert.assertFalse(times.contains(time));
+        times.add(time);
+        for (EnvelopeInfo<?> ei : batch) {
+          Assert.assertEquals(time, ei.arrivingAt);
+        }
+        deliveries += batch.size();
+      }
+      Assert.assertEquals(18, deliveries);
+      Assert.assertTrue(standIn.batches.size() < 18);
+      Assert.assertEquals(1, standIn.clientPorts.size());
+    }
+
+    try (ExternalStandIn standIn = new ExternalStandIn(ExternalBatchRestTest::answer)) {
+      binary = run(ExternalBatchRest.Encoding.BINARY, standIn);
+    }
+
+    Assert.assertEquals(18, json.size());
+    Assert.assertEquals(json, binary);
+  }
+
+  /** Sends a message to a node run by the external service, and runs the network. */
+  private static void sendToExternal(ExternalBatchRest ext) {
+    Network<Node> network = new Network<>();
+    NodeBuilder nb = new NodeBuilder();
+    network.addNode(new Node(network.rd, nb));
+    network.addNode(new Node(network.rd, nb));
+    network.getNodeById(1).setExternal(ext);
+    network.send(new Ping(0), network.getNodeById(0), network.getNodeById(1));
+    network.run(1);
+  }
+
+  @Test
+  public void testErrorFailsTheRun() throws Exception {
+    try (ExternalStandIn standIn =
+        new ExternalStandIn(
+            eis -> {
+              throw new IllegalStateException("down");
+            })) {
+      sendToExternal(new ExternalBatchRest(standIn.address(), ExternalBatchRest.Encoding.JSON));
+      Assert.fail();
+    } catch (UncheckedIOException e) {
+      Assert.assertTrue(e.getMessage(), e.getCause().getMessage().contains("500"));
+    }
+  }
+
+  @Test
+  public void testTimeoutFailsTheRun() throws Exception {
+    try (ExternalStandIn standIn =
+        new ExternalStandIn(
+            eis -> {
+              try {
+                Thread.sleep(2_000);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              return Collections.emptyList();
+            })) {
+      sendToExternal(
+          new ExternalBatchRest(standIn.address(), ExternalBatchRest.Encoding.JSON, 1_000, 100));
+      Assert.fail();
+    } catch (UncheckedIOException e) {
+      Assert.assertTrue(e.getCause() instanceof SocketTimeoutException);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package net.consensys.wittgenstein.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.CollectionType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.function.Function;
+import net.consensys.wittgenstein.core.EnvelopeInfo;
+import net.consensys.wittgenstein.core.messages.SendMessage;
+import net.consensys.wittgenstein.server.ws.ObjectMapperFactory;
+
+/**
+ * A local external service for the tests: it takes the batches sent by ExternalBatchRest, in both
+ * encodings, keeps them, and answers with the messages returned by 'replies'.
+ */
+class ExternalStandIn implements AutoCloseable {
+  static {
+    // Otherwise each answer waits for the client's delayed ack
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private final HttpServer server;
+  private final ObjectMapper objectMapper = ObjectMapperFactory.objectMapper();
+  private final Function<List<EnvelopeInfo<?>>, List<SendMessage>> replies;
+
+  final List<List<EnvelopeInfo<?>>> batches = Collections.synchronizedList(new ArrayList<>());
+  /** The client ports seen: a single port means a single connection. */
+  final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<>());
+
+  ExternalStandIn(Function<List<EnvelopeInfo<?>>, List<SendMessage>> replies) throws IOException {
+    this.replies = replies;
+    this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext(
+        "/batch",
+        exchange -> {
+          try {
+            handle(exchange);
+          } catch (Throwable t) {
+            t.printStackTrace();
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+          }
+        });
+    server.start();
+  }
+
+  String address() {
+    return "http://localhost:" + server.getAddress().getPort() + "/batch";
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    clientPorts.add(exchange.getRemoteAddress().getPort());
+    List<EnvelopeInfo<?>> eis;
+    try (InputStream is = exchange.getRequestBody()) {
+      String type = exchange.getRequestHeaders().getFirst("Content-Type");
+      if (ExternalBatchRest.Encoding.BINARY.contentType.equals(type)) {
+        eis = ExternalBatchRest.readBinary(objectMapper, is);
+      } else {
+        CollectionType javaType =
+            objectMapper.getTypeFactory().constructCollectionType(List.class, EnvelopeInfo.class);
+        eis = objectMapper.readValue(is, javaType);
+      }
+    }
+    batches.add(eis);
+
+    CollectionType replyType =
+        objectMapper.getTypeFactory().constructCollectionType(List.class, SendMessage.class);
+    byte[] body = objectMapper.writerFor(replyType).writeValueAsBytes(replies.apply(eis));
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(body);
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+}
@@ -0,0 +1,166 @@
+package net.consensys.wittgenstein.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import net.consensys.wittgenstein.core.*;
+import net.consensys.wittgenstein.protocols.PingPong;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ServerTest {
+  private final Server server = new Server();
+
+  @After
+  public void after() {
+    server.close();
+  }
+
+  static final AtomicInteger closedNodes = new AtomicInteger();
+
+  public static class NodeId {
+    public int nodeId;
+  }
+
+  private List<Integer> nodeIds(String json) throws IOException {
+    ObjectMapper om = server.objectMapper();
+    List<NodeId> nodes =
+        om.readValue(json, om.getTypeFactory().constructCollectionType(List.class, NodeId.class));
+    return nodes.stream().map(n -> n.nodeId).collect(Collectors.toList());
+  }
+
+  public static class ClosingProtocol implements Protocol {
+    final NodeBuilder nb = new NodeBuilder.NodeBuilderWithRandomPosition();
+    final Network<Node> network = new Network<>();
+
+    @SuppressWarnings("unused")
+    public ClosingProtocol(ClosingParameters p) {}
+
+    @Override
+    public Network<?> network() {
+      return network;
+    }
+
+    @Override
+    public Protocol copy() {
+      return new ClosingProtocol(new ClosingParameters());
+    }
+
+    @Override
+    public void init() {
+      for (int i = 0; i < 3; i++) {
+        network.addNode(
+            new Node(network.rd, nb) {
+              @Override
+              public void close() {
+                closedNodes.incrementAndGet();
+              }
+
+              /** Called by Jackson when the node is written as json. */
+              @SuppressWarnings("unused")
+              public String getWrittenBy() {
+                return Thread.currentThread().getName();
+              }
+            });
+      }
+    }
+
+    public static class ClosingParameters extends WParameters {
+      public ClosingParameters() {}
+    }
+  }
+
+  @Test
+  public void testSessionsAreIndependent() throws IOException {
+    int s1 = server.init(PingPong.class.getName(), new PingPong.PingPongParameters(10, null, null));
+    int s2 = server.init(PingPong.class.getName(), new PingPong.PingPongParameters(20, null, null));
+    Assert.assertNotEquals(s1, s2);
+
+    Assert.assertEquals(10, nodeIds(server.getNodeInfo(s1)).size());
+    Assert.assertEquals(20, nodeIds(server.getNodeInfo(s2)).size());
+
+    server.runMs(s1, 100);
+    Assert.assertEquals(100, server.getTime(s1));
+    Assert.assertEquals(0, server.getTime(s2));
+
+    server.closeSession(s1);
+    try {
+      server.getTime(s1);
+      Assert.fail();
+    } catch (Server.UnknownSessionException ignored) {
+    }
+    Assert.assertEquals(0, server.getTime(s2));
+  }
+
+  @Test
+  public void testNodesAreWrittenOnTheSessionThread() throws IOException {
+    int s = server.init(ClosingProtocol.class.getName(), new ClosingProtocol.ClosingParameters());
+    String thread = "\"writtenBy\":\"session-" + s + "\"";
+    Assert.assertTrue(server.getNodeInfo(s, 1).contains(thread));
+    String all = server.getNodeInfo(s);
+    Assert.assertEquals(Arrays.asList(0, 1, 2), nodeIds(all));
+    Assert.assertEquals(3, all.split(thread, -1).length - 1);
+  }
+
+  @Test
+  public void testIdleSessionsAreClosed() throws Exception {
+    closedNodes.set(0);
+    try (Server server = new Server(500)) {
+      int s = server.init(ClosingProtocol.class.getName(), new ClosingProtocol.ClosingParameters());
+      Assert.assertEquals(1, server.getSessionCount());
+
+      server.evictIdleSessions();
+      Assert.assertEquals(1, server.getSessionCount());
+
+      Thread.sleep(600);
+      server.evictIdleSessions();
+      Assert.assertEquals(0, server.getSessionCount());
+
+      long end = System.currentTimeMillis() + 10_000;
+      while (closedNodes.get() != 3 && System.currentTimeMillis() < end) {
+        Thread.sleep(5);
+      }
+      Assert.assertEquals(3, closedNodes.get());
+
+      try {
+        server.runMs(s, 10);
+        Assert.fail();
+      } catch (Server.UnknownSessionException ignored) {
+      }
+    }
+  }
+
+  @Test
+  public void testMessagesByPage() {
+    int s = server.init(PingPong.class.getName(), new PingPong.PingPongParameters(50, null, null));
+    server.runMs(s, 1);
+    List<EnvelopeInfo<?>> all = new ArrayList<>();
+    Assert.assertNull(
+        server.forEachMessage(s, MessageFilter.ALL, null, Integer.MAX_VALUE, all::add));
+    Assert.assertTrue(all.size() > 20);
+
+    List<EnvelopeInfo<?>> pages = new ArrayList<>();
+    String cursor = null;
+    int calls = 0;
+    do {
+      cursor = server.forEachMessage(s, MessageFilter.ALL, cursor, 7, pages::add);
+      calls++;
+    } while (cursor != null);
+    Assert.assertEquals((all.size() + 6) / 7, calls);
+    Assert.assertEquals(all.toString(), pages.toString());
+
+    List<EnvelopeInfo<?>> to3 = new ArrayList<>();
+    Assert.assertNull(
+        server.forEachMessage(
+            s, new MessageFilter(-1, 3, 0, Integer.MAX_VALUE, null), null, 1000, to3::add));
+    for (EnvelopeInfo<?> ei : to3) {
+      Assert.assertEquals(3, ei.to);
+    }
+    Assert.assertEquals(all.stream().filter(ei -> ei.to == 3).count(), to3.size());
+  }
+}
@@ -0,0 +1,135 @@
+package net.consensys.wittgenstein.server;
+
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.consensys.wittgenstein.protocols.utils.OutputSink;
+import net.consensys.wittgenstein.protocols.utils.SharedConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SimulationJobsTest {
+  private final SimulationJobs jobs =
+      new SimulationJobs(2, SimulationJobs.DEFAULT_MAX_FINISHED_JOBS);
+
+  @After
+  public void after() {
+    jobs.close();
+  }
+
+  private static SharedConfig config(OutputSink.Type type) {
+    SharedConfig config = new SharedConfig();
+    config.outputSink = type;
+    return config;
+  }
+
+  private static void waitFor(SimulationJobs.Job job, SimulationJobs.State state)
+      throws InterruptedException {
+    long end = System.currentTimeMillis() + 10_000;
+    while (job.getState() != state && System.currentTimeMillis() < end) {
+      Thread.sleep(5);
+    }
+    Assert.assertEquals(state, job.getState());
+  }
+
+  @Test
+  public void testRunAndProgress() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch end = new CountDownLatch(1);
+    SimulationJobs.Job job =
+        jobs.submit(
+            "test",
+            config(OutputSink.Type.NONE),
+            progress -> {
+              progress.update(2, 30);
+              started.countDown();
+              end.await();
+              return "result";
+            });
+    Assert.assertNull(job.outputNamespace);
+    Assert.assertSame(job, jobs.get(job.id));
+
+    Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+    Assert.assertEquals(SimulationJobs.State.RUNNING, job.getState());
+    Assert.assertEquals(2, job.getEpoch());
+    Assert.assertEquals(30, job.getSlot());
+    Assert.assertNull(job.getResult());
+
+    end.countDown();
+    waitFor(job, SimulationJobs.State.DONE);
+    Assert.assertEquals("result", job.getResult());
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    SimulationJobs.Job job =
+        jobs.submit(
+            "test",
+            config(OutputSink.Type.NONE),
+            progress -> {
+              throw new IllegalStateException("boom");
+            });
+    waitFor(job, SimulationJobs.State.FAILED);
+    Assert.assertTrue(job.getError(), job.getError().contains("boom"));
+    Assert.assertEquals(-1, job.getEpoch());
+  }
+
+  @Test
+  public void testOutputNamespaces() throws Exception {
+    SharedConfig c1 = config(OutputSink.Type.MONGO);
+    SharedConfig c2 = config(OutputSink.Type.MONGO);
+    SharedConfig c3 = config(OutputSink.Type.COLUMNAR);
+    SimulationJobs.Job j1 = jobs.submit("test", c1, progress -> null);
+    SimulationJobs.Job j2 = jobs.submit("test", c2, progress -> null);
+    SimulationJobs.Job j3 = jobs.submit("test", c3, progress -> null);
+
+    Assert.assertNotEquals(c1.mongoDatabase, c2.mongoDatabase);
+    Assert.assertEquals(c1.mongoDatabase, j1.outputNamespace);
+    Assert.assertEquals(c2.mongoDatabase, j2.outputNamespace);
+    Assert.assertEquals(Paths.get("output", "job-" + j3.id).toString(), c3.outputDirectory);
+    Assert.assertEquals(3, jobs.getAll().size());
+    Assert.assertEquals(j1, jobs.getAll().get(0));
+    waitFor(j3, SimulationJobs.State.DONE);
+  }
+
+  @Test
+  public void testFinishedJobsAreForgotten() throws Exception {
+    try (SimulationJobs jobs = new SimulationJobs(1, 2)) {
+      CountDownLatch end = new CountDownLatch(1);
+      SimulationJobs.Job running =
+          jobs.submit(
+              "test",
+              config(OutputSink.Type.NONE),
+              progress -> {
+                end.await();
+                return null;
+              });
+      SimulationJobs.Job j1 = jobs.submit("test", config(OutputSink.Type.NONE), progress -> 1);
+      SimulationJobs.Job j2 = jobs.submit("test", config(OutputSink.Type.NONE), progress -> 2);
+      SimulationJobs.Job j3 = jobs.submit("test", config(OutputSink.Type.NONE), progress -> 3);
+
+      try {
+        jobs.remove(running.id);
+        Assert.fail();
+      } catch (IllegalStateException ignored) {
+      }
+
+      end.countDown();
+      waitFor(j3, SimulationJobs.State.DONE);
+      // The jobs are run in order by the single worker: 'running' and j1 are the oldest
+      long endAt = System.currentTimeMillis() + 10_000;
+      while (jobs.get(j1.id) != null && System.currentTimeMillis() < endAt) {
+        Thread.sleep(5);
+      }
+      Assert.assertNull(jobs.get(running.id));
+      Assert.assertNull(jobs.get(j1.id));
+      Assert.assertSame(j2, jobs.get(j2.id));
+
+      Assert.assertSame(j2, jobs.remove(j2.id));
+      Assert.assertNull(jobs.get(j2.id));
+      Assert.assertNull(jobs.remove(j2.id));
+      Assert.assertEquals(1, jobs.getAll().size());
+    }
+  }
+}
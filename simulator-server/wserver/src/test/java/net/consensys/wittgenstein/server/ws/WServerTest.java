@@ -97,12 +97,13 @@ public class WServerTest {
           RequestEntity.post(createURIWithPort("/network/init/" + p))
               .contentType(MediaType.APPLICATION_JSON)
               .body(jsonString);
-      ResponseEntity<Void> responseInit = restTemplate.exchange(requestEntity, Void.class);
+      ResponseEntity<Integer> responseInit = restTemplate.exchange(requestEntity, Integer.class);
       Assert.assertEquals(p, HttpStatus.OK, responseInit.getStatusCode());
+      int sessionId = responseInit.getBody();
 
       List<Node> allNodes = Collections.emptyList();
       try {
-        allNodes = allNodeInfo();
+        allNodes = allNodeInfo(sessionId);
       } catch (Exception e) {
         Assert.fail("Can't get all nodes for " + p);
       }
@@ -113,7 +114,10 @@ public class WServerTest {
 
         ResponseEntity<String> responseMsg =
             restTemplate.exchange(
-                createURLWithPort("/network/messages"), HttpMethod.GET, entity, String.class);
+                createURLWithPort("/network/" + sessionId + "/messages"),
+                HttpMethod.GET,
+                entity,
+                String.class);
         Assert.assertEquals(HttpStatus.OK, responseMsg.getStatusCode());
 
         // TODO: we should also check we can deserialize the messages, as in allMessagesInfo()
@@ -138,12 +142,15 @@ public class WServerTest {
     Assert.assertTrue(response.getBody(), ps instanceof PingPong.PingPongParameters);
   }
 
-  private List<Node> allNodeInfo() throws IOException {
+  private List<Node> allNodeInfo(int sessionId) throws IOException {
     HttpEntity<String> entity = new HttpEntity<>(null, headers);
 
     ResponseEntity<String> response =
         restTemplate.exchange(
-            createURLWithPort("/network/nodes"), HttpMethod.GET, entity, String.class);
+            createURLWithPort("/network/" + sessionId + "/nodes"),
+            HttpMethod.GET,
+            entity,
+            String.class);
     Assert.assertEquals(HttpStatus.OK, response.getStatusCode());
 
     CollectionType javaType =
@@ -151,12 +158,15 @@ public class WServerTest {
     return objectMapper.readValue(response.getBody(), javaType);
   }
 
-  private List<EnvelopeInfo> allMessagesInfo() throws IOException {
+  private List<EnvelopeInfo> allMessagesInfo(int sessionId) throws IOException {
     HttpEntity<String> entity = new HttpEntity<>(null, headers);
 
     ResponseEntity<String> response =
         restTemplate.exchange(
-            createURLWithPort("/network/messages"), HttpMethod.GET, entity, String.class);
+            createURLWithPort("/network/" + sessionId + "/messages"),
+            HttpMethod.GET,
+            entity,
+            String.class);
     Assert.assertEquals(HttpStatus.OK, response.getStatusCode());
 
     CollectionType javaType =
@@ -219,11 +229,11 @@ public class WServerTest {
             .contentType(MediaType.APPLICATION_JSON)
             .body(jsonString);
 
-    ResponseEntity<Void> response = restTemplate.exchange(requestEntity, Void.class);
+    ResponseEntity<Integer> response = restTemplate.exchange(requestEntity, Integer.class);
 
     Assert.assertEquals(HttpStatus.OK, response.getStatusCode());
 
-    List<Node> allNodes = allNodeInfo();
+    List<Node> allNodes = allNodeInfo(response.getBody());
     Assert.assertEquals(123, allNodes.size());
   }
 
@@ -236,34 +246,121 @@ public class WServerTest {
         RequestEntity.post(createURIWithPort("/network/init/" + DummyProtocol.class.getName()))
             .contentType(MediaType.APPLICATION_JSON)
             .body(jsonString);
-    ResponseEntity<Void> response = restTemplate.exchange(requestEntity, Void.class);
-    Assert.assertEquals(response.toString(), HttpStatus.OK, response.getStatusCode());
+    ResponseEntity<Integer> responseInit = restTemplate.exchange(requestEntity, Integer.class);
+    Assert.assertEquals(responseInit.toString(), HttpStatus.OK, responseInit.getStatusCode());
+    int sessionId = responseInit.getBody();
 
-    List<Node> allNodes = allNodeInfo();
+    List<Node> allNodes = allNodeInfo(sessionId);
     Assert.assertEquals(2, allNodes.size());
 
-    List<EnvelopeInfo> mis = allMessagesInfo();
+    List<EnvelopeInfo> mis = allMessagesInfo(sessionId);
     Assert.assertEquals(0, mis.size());
 
     SendMessage sm = new SendMessage(0, Collections.singletonList(1), 1, 0, new MessageTest());
     requestEntity =
-        RequestEntity.post(createURIWithPort("/network/send/"))
+        RequestEntity.post(createURIWithPort("/network/" + sessionId + "/send/"))
             .contentType(MediaType.APPLICATION_JSON)
             .body(objectMapper.writeValueAsString(sm));
-    response = restTemplate.exchange(requestEntity, Void.class);
+    ResponseEntity<Void> response = restTemplate.exchange(requestEntity, Void.class);
     Assert.assertEquals(response.toString(), HttpStatus.OK, response.getStatusCode());
-    mis = allMessagesInfo();
+    mis = allMessagesInfo(sessionId);
     Assert.assertEquals(1, mis.size());
 
-    requestEntity = RequestEntity.post(createURIWithPort("/network/runMs/10000")).body(null);
+    RequestEntity<Void> reqs =
+        RequestEntity.get(createURIWithPort("/network/" + sessionId + "/messages/stream?to=1"))
+            .build();
+    ResponseEntity<String> stream = restTemplate.exchange(reqs, String.class);
+    Assert.assertEquals(stream.toString(), HttpStatus.OK, stream.getStatusCode());
+    String[] lines = stream.getBody().split("\n");
+    Assert.assertEquals(1, lines.length);
+    Assert.assertEquals(1, objectMapper.readValue(lines[0], EnvelopeInfo.class).to);
+
+    requestEntity =
+        RequestEntity.post(createURIWithPort("/network/" + sessionId + "/runMs/10000")).body(null);
     response = restTemplate.exchange(requestEntity, Void.class);
     Assert.assertEquals(response.toString(), HttpStatus.OK, response.getStatusCode());
-    mis = allMessagesInfo();
+    mis = allMessagesInfo(sessionId);
     Assert.assertEquals(0, mis.size());
 
-    RequestEntity<Void> reqv = RequestEntity.get(createURIWithPort("/network/time")).build();
+    RequestEntity<Void> reqv =
+        RequestEntity.get(createURIWithPort("/network/" + sessionId + "/time")).build();
     ResponseEntity<String> ress = restTemplate.exchange(reqv, String.class);
     Assert.assertEquals(ress.toString(), HttpStatus.OK, ress.getStatusCode());
     Assert.assertEquals("10000", ress.getBody());
+
+    reqv = RequestEntity.delete(createURIWithPort("/network/" + sessionId)).build();
+    response = restTemplate.exchange(reqv, Void.class);
+    Assert.assertEquals(response.toString(), HttpStatus.OK, response.getStatusCode());
+
+    reqv = RequestEntity.get(createURIWithPort("/network/" + sessionId + "/time")).build();
+    ress = restTemplate.exchange(reqv, String.class);
+    Assert.assertEquals(ress.toString(), HttpStatus.NOT_FOUND, ress.getStatusCode());
+  }
+
+  @Test
+  public void testMessagesByPage() throws Exception {
+    RequestEntity<String> requestEntity =
+        RequestEntity.post(createURIWithPort("/network/init/" + PingPong.class.getName()))
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(objectMapper.writeValueAsString(new PingPong.PingPongParameters(50, null, null)));
+    int sessionId = restTemplate.exchange(requestEntity, Integer.class).getBody();
+    restTemplate.exchange(
+        RequestEntity.post(createURIWithPort("/network/" + sessionId + "/runMs/1")).body(""),
+        Void.class);
+
+    CollectionType javaType =
+        objectMapper.getTypeFactory().constructCollectionType(List.class, EnvelopeInfo.class);
+    int pages = 0;
+    int total = 0;
+    String cursor = null;
+    do {
+      String query = "?limit=7" + (cursor == null ? "" : "&cursor=" + cursor);
+      ResponseEntity<String> page =
+          restTemplate.exchange(
+              RequestEntity.get(createURIWithPort("/network/" + sessionId + "/messages" + query))
+                  .build(),
+              String.class);
+      Assert.assertEquals(page.toString(), HttpStatus.OK, page.getStatusCode());
+      List<EnvelopeInfo> mis = objectMapper.readValue(page.getBody(), javaType);
+      cursor = page.getHeaders().getFirst(WServer.CURSOR_HEADER);
+      Assert.assertTrue(mis.size() == 7 || (cursor == null && mis.size() <= 7));
+      total += mis.size();
+      pages++;
+    } while (cursor != null);
+    ResponseEntity<String> all =
+        restTemplate.exchange(
+            RequestEntity.get(createURIWithPort("/network/" + sessionId + "/messages")).build(),
+            String.class);
+    Assert.assertNull(all.getHeaders().getFirst(WServer.CURSOR_HEADER));
+    List<EnvelopeInfo> allMis = objectMapper.readValue(all.getBody(), javaType);
+    Assert.assertEquals(total, allMis.size());
+    Assert.assertTrue(total > 20);
+    Assert.assertEquals((total + 6) / 7, pages);
+
+    for (String query : new String[] {"?cursor=bad", "?limit=0"}) {
+      for (String path : new String[] {"/messages", "/messages/stream"}) {
+        ResponseEntity<String> bad =
+            restTemplate.exchange(
+                RequestEntity.get(createURIWithPort("/network/" + sessionId + path + query))
+                    .build(),
+                String.class);
+        Assert.assertEquals(path + query, HttpStatus.BAD_REQUEST, bad.getStatusCode());
+      }
+    }
+  }
+
+  @Test
+  public void testUnknownJob() throws IOException {
+    HttpEntity<String> entity = new HttpEntity<>(null, headers);
+
+    ResponseEntity<String> response =
+        restTemplate.exchange(
+            createURLWithPort("/jobs/1000"), HttpMethod.GET, entity, String.class);
+    Assert.assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+
+    response =
+        restTemplate.exchange(createURLWithPort("/jobs"), HttpMethod.GET, entity, String.class);
+    Assert.assertEquals(HttpStatus.OK, response.getStatusCode());
+    Assert.assertTrue(objectMapper.readValue(response.getBody(), List.class).isEmpty());
   }
 }